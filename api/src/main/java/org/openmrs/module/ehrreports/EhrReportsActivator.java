@@ -14,23 +14,34 @@
 
 package org.openmrs.module.ehrreports;
 
+import java.util.Map;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.BaseModuleActivator;
+import org.openmrs.module.DaemonToken;
+import org.openmrs.module.DaemonTokenAware;
 import org.openmrs.module.appframework.service.AppFrameworkService;
 import org.openmrs.module.ehrreports.metadata.ConfigurableMetadataLookupException;
+import org.openmrs.module.ehrreports.metadata.MetadataCache;
 import org.openmrs.module.ehrreports.reporting.EhrReportInitializer;
+import org.openmrs.module.ehrreports.reporting.calculation.ShardedCalculationExecutor;
 
 /**
  * This class contains the logic that is run every time this module is either started or shutdown
  */
-public class EhrReportsActivator extends BaseModuleActivator {
+public class EhrReportsActivator extends BaseModuleActivator implements DaemonTokenAware {
 
   private Log log = LogFactory.getLog(this.getClass());
 
   private EhrReportInitializer reportsInitializer = new EhrReportInitializer();
 
+  @Override
+  public void setDaemonToken(DaemonToken token) {
+    ShardedCalculationExecutor.setDaemonToken(token);
+    EhrReportInitializer.setDaemonToken(token);
+  }
+
   @Override
   public void contextRefreshed() {
     log.debug("EHR Reports Module refreshed");
@@ -49,6 +60,9 @@ public class EhrReportsActivator extends BaseModuleActivator {
   @Override
   public void willStop() {
     log.debug("Stopping EHR Reports Module");
+    if (!EhrReportsConfig.isPurgeReportsOnStop()) {
+      return;
+    }
     try {
       reportsInitializer.purgeReports();
       log.debug("EHR Reports purged");
@@ -63,7 +77,15 @@ public class EhrReportsActivator extends BaseModuleActivator {
     // disabling the reporting UI app to provide our own custom ones
     appFrameworkService.disableApp("reportingui.reports");
     try {
-      reportsInitializer.initializeReports();
+      Map<String, String> missing = MetadataCache.preload();
+      if (!missing.isEmpty()) {
+        String report = getMissingMetadataReport(missing);
+        log.warn("Missing EHR reports metadata: " + report);
+        Context.getAlertService()
+            .notifySuperUsers("ehrreports.startuperror.metadata", null, report);
+      }
+      reportsInitializer.registerOpdVisitTask();
+      reportsInitializer.initializeReportsInBackground();
       log.info("Started EHR Reports Module");
     } catch (ConfigurableMetadataLookupException e) {
       Context.getAlertService()
@@ -75,6 +97,17 @@ public class EhrReportsActivator extends BaseModuleActivator {
     }
   }
 
+  private String getMissingMetadataReport(Map<String, String> missing) {
+    StringBuilder ret = new StringBuilder();
+    for (Map.Entry<String, String> e : missing.entrySet()) {
+      if (ret.length() > 0) {
+        ret.append(", ");
+      }
+      ret.append(e.getKey()).append(' ').append(e.getValue());
+    }
+    return ret.toString();
+  }
+
   /** @see #stopped() */
   public void stopped() {
     log.info("Stopped EHR Reports Module");
@@ -14,6 +14,9 @@
 
 package org.openmrs.module.ehrreports;
 
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.math.NumberUtils;
+import org.openmrs.api.context.Context;
 import org.springframework.stereotype.Component;
 
 /** Contains module's config. */
@@ -21,4 +24,102 @@ import org.springframework.stereotype.Component;
 public class EhrReportsConfig {
 
   public static final String MODULE_PRIVILEGE = "EHR Reports Privilege";
+
+  /** Whether the MOH 717 queries read visits from the ehrreports_opd_visit fact table */
+  public static final String GP_USE_OPD_VISIT_FACT_TABLE = "ehrreports.useOpdVisitFactTable";
+
+  /**
+   * Whether MOH 717 is built from the cohort indicator data set, evaluated per cell with the state
+   * calculation dimension, instead of the single grouped query. Kept as a fallback.
+   */
+  public static final String GP_MOH717_INDICATOR_DATA_SET = "ehrreports.moh717.indicatorDataSet";
+
+  /** The highest encounter id already copied into the ehrreports_opd_visit fact table */
+  public static final String GP_OPD_VISIT_LAST_ENCOUNTER_ID = "ehrreports.opdVisit.lastEncounterId";
+
+  /**
+   * Database time, in milliseconds, of the last check of the ehrreports_opd_visit fact table for
+   * encounters changed below the high-water mark
+   */
+  public static final String GP_OPD_VISIT_LAST_REFRESH = "ehrreports.opdVisit.lastRefresh";
+
+  /** Name of the scheduler task maintaining the ehrreports_opd_visit fact table */
+  public static final String OPD_VISIT_TASK_NAME = "EHR Reports OPD Visit Facts";
+
+  /**
+   * Number of patients a data definition is evaluated for at a time in calculations, "auto" to let
+   * the batch size controller pick it
+   */
+  public static final String GP_CALCULATION_BATCH_SIZE = "ehrreports.calculationBatchSize";
+
+  public static final String AUTO_BATCH_SIZE = "auto";
+
+  /** Number of threads the patient calculations of a cohort are evaluated on, 1 for serial */
+  public static final String GP_CALCULATION_THREADS = "ehrreports.calculationThreads";
+
+  /** Number of calculation cohorts cached between report runs, 0 to disable the cache */
+  public static final String GP_CALCULATION_CACHE_SIZE = "ehrreports.calculationCacheSize";
+
+  /** Minutes a cached calculation cohort is kept */
+  public static final String GP_CALCULATION_CACHE_TTL_MINUTES =
+      "ehrreports.calculationCacheTtlMinutes";
+
+  /**
+   * Whether the report definitions are purged when the module stops. When they are kept, a start
+   * only sets up the reports whose fingerprint changed.
+   */
+  public static final String GP_PURGE_REPORTS_ON_STOP = "ehrreports.purgeReportsOnStop";
+
+  /** @return true if MOH 717 should be built from the cohort indicator data set */
+  public static boolean isMoh717IndicatorDataSetEnabled() {
+    return Boolean.parseBoolean(
+        Context.getAdministrationService()
+            .getGlobalProperty(GP_MOH717_INDICATOR_DATA_SET, "false"));
+  }
+
+  /** @return true if the OPD visit fact table should be used instead of the encounter table */
+  public static boolean isOpdVisitFactTableEnabled() {
+    return Boolean.parseBoolean(
+        Context.getAdministrationService().getGlobalProperty(GP_USE_OPD_VISIT_FACT_TABLE, "false"));
+  }
+
+  /**
+   * @return the calculation batch size, 0 or less to evaluate a cohort in one go, null when it is
+   *     picked per evaluation
+   */
+  public static Integer getCalculationBatchSize() {
+    String value =
+        Context.getAdministrationService().getGlobalProperty(GP_CALCULATION_BATCH_SIZE, "");
+    if (StringUtils.isBlank(value) || AUTO_BATCH_SIZE.equalsIgnoreCase(value.trim())) {
+      return null;
+    }
+    return NumberUtils.isDigits(value.trim()) ? NumberUtils.toInt(value.trim()) : null;
+  }
+
+  /** @return the number of calculation threads, 1 or less for serial evaluation */
+  public static int getCalculationThreads() {
+    return NumberUtils.toInt(
+        Context.getAdministrationService().getGlobalProperty(GP_CALCULATION_THREADS), 1);
+  }
+
+  /** @return the number of calculation cohorts cached between report runs, 0 when disabled */
+  public static int getCalculationCacheSize() {
+    return Math.max(
+        0,
+        NumberUtils.toInt(
+            Context.getAdministrationService().getGlobalProperty(GP_CALCULATION_CACHE_SIZE), 200));
+  }
+
+  /** @return the minutes a cached calculation cohort is kept */
+  public static int getCalculationCacheTtlMinutes() {
+    return NumberUtils.toInt(
+        Context.getAdministrationService().getGlobalProperty(GP_CALCULATION_CACHE_TTL_MINUTES),
+        1440);
+  }
+
+  /** @return true if the report definitions should be purged when the module stops */
+  public static boolean isPurgeReportsOnStop() {
+    return Boolean.parseBoolean(
+        Context.getAdministrationService().getGlobalProperty(GP_PURGE_REPORTS_ON_STOP, "false"));
+  }
 }
@@ -14,7 +14,15 @@
 
 package org.openmrs.module.ehrreports.api;
 
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import org.openmrs.api.OpenmrsService;
+import org.openmrs.module.ehrreports.reporting.library.queries.ReportQuery;
+import org.openmrs.module.ehrreports.reporting.library.queries.RowHandler;
+import org.springframework.transaction.annotation.Transactional;
 
 /**
  * The main service of this module, which is exposed for other modules. See
@@ -23,4 +31,110 @@ import org.openmrs.api.OpenmrsService;
 public interface EhrReportsService extends OpenmrsService {
 
   void purgeReportDesignIfExists(String uuid);
+
+  /**
+   * Gets the ids of the patients of a cohort with an encounter of one of the given types on or
+   * before a date
+   *
+   * @param patients the patient ids of the cohort
+   * @param encounterTypeIds the encounter type ids
+   * @param onOrBefore the upper bound of the encounter date
+   * @return the patient ids
+   */
+  Set<Integer> getPatientsWithEncounterOnOrBefore(
+      Collection<Integer> patients, Collection<Integer> encounterTypeIds, Date onOrBefore);
+
+  /**
+   * Runs a report query and returns the patient ids of its first column
+   *
+   * @param query the query
+   * @param parameterValues the values of the query parameters
+   * @return the patient ids
+   */
+  Set<Integer> getPatientIds(ReportQuery query, Map<String, Object> parameterValues);
+
+  /**
+   * Runs a report query for the patients of a cohort, bound in chunks to its :patients list
+   * parameter, and returns the patient ids of its first column
+   *
+   * @param query the query
+   * @param parameterValues the values of the other query parameters
+   * @param patients the patient ids of the cohort
+   * @return the patient ids
+   */
+  Set<Integer> getPatientIds(
+      ReportQuery query, Map<String, Object> parameterValues, Collection<Integer> patients);
+
+  /**
+   * Runs a report query
+   *
+   * @param query the query
+   * @param parameterValues the values of the query parameters
+   * @return the result rows
+   */
+  List<Object[]> getRows(ReportQuery query, Map<String, Object> parameterValues);
+
+  /**
+   * Runs a report query, streaming its rows to a handler without loading the whole result
+   *
+   * @param query the query
+   * @param parameterValues the values of the query parameters
+   * @param handler the row handler
+   */
+  void scanRows(ReportQuery query, Map<String, Object> parameterValues, RowHandler handler);
+
+  /**
+   * Gets the database execution plan of a report query
+   *
+   * @param query the query
+   * @param parameterValues the values of the query parameters
+   * @return the EXPLAIN rows, column values by lower case column label
+   */
+  List<Map<String, Object>> explainReportQuery(
+      ReportQuery query, Map<String, Object> parameterValues);
+
+  /**
+   * Copies the next batch of encounters after the high-water mark into the ehrreports_opd_visit
+   * fact table, merges them into the first visit dates of ehrreports_patient_visit and moves the
+   * mark. When the mark is 0 the tables are emptied first, so resetting the mark rebuilds them.
+   *
+   * @param encounterTypeIds the encounter types of the visits
+   * @param returnEncounterTypeIds the encounter types of return visits
+   * @param clinicQuestion the special clinic concept id, its answer is the clinic of the visit
+   * @param batchSize the number of encounter ids covered by the batch
+   * @return true if there are encounters left after the batch
+   */
+  @Transactional
+  boolean updateOpdVisits(
+      Collection<Integer> encounterTypeIds,
+      Collection<Integer> returnEncounterTypeIds,
+      Integer clinicQuestion,
+      int batchSize);
+
+  /**
+   * Copies again into the ehrreports_opd_visit fact table the visits of the patients whose
+   * encounters up to the high-water mark were created or changed, or whose special clinic obs were
+   * created or voided, since the last refresh less a safety margin, and recomputes their first
+   * visit dates. The first refresh only records the time, the copy up to the mark being current.
+   *
+   * @param encounterTypeIds the encounter types of the visits
+   * @param returnEncounterTypeIds the encounter types of return visits
+   * @param clinicQuestion the special clinic concept id, its answer is the clinic of the visit
+   * @return the number of patients whose visits were copied again
+   */
+  @Transactional
+  int refreshChangedOpdVisits(
+      Collection<Integer> encounterTypeIds,
+      Collection<Integer> returnEncounterTypeIds,
+      Integer clinicQuestion);
+
+  /**
+   * Removes the visits of voided encounters and patients from the ehrreports_opd_visit fact table
+   * and recomputes the first visit dates of their patients
+   *
+   * @param returnEncounterTypeIds the encounter types of return visits
+   * @return the number of rows removed
+   */
+  @Transactional
+  int purgeVoidedOpdVisits(Collection<Integer> returnEncounterTypeIds);
 }
@@ -14,16 +14,40 @@
 
 package org.openmrs.module.ehrreports.api.dao;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import org.hibernate.SessionFactory;
 import org.hibernate.Transaction;
 import org.hibernate.classic.Session;
+import org.hibernate.jdbc.Work;
+import org.openmrs.module.ehrreports.reporting.cohort.PatientIdSet;
+import org.openmrs.module.ehrreports.reporting.library.queries.ReportQuery;
+import org.openmrs.module.ehrreports.reporting.library.queries.RowHandler;
+import org.openmrs.module.ehrreports.reporting.library.queries.moh717.Moh717Queries;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
 
 @Repository("ehrreports.EhrReportsDao")
 public class EhrReportsDao {
 
+  /** Number of patients bound to the :patients parameter of a query per execution */
+  private static final int PATIENT_CHUNK_SIZE = 4096;
+
+  /** Rows fetched at a time when streaming from databases other than MySQL */
+  private static final int STREAMING_FETCH_SIZE = 1000;
+
   @Autowired private SessionFactory sessionFactory;
 
   @SuppressWarnings("unchecked")
@@ -62,4 +86,239 @@ public class EhrReportsDao {
         .executeUpdate();
     transaction.commit();
   }
+
+  /**
+   * Patients of a cohort who have at least one non voided encounter of the given types on or before
+   * a date. The query is grouped on patient so only one row per patient leaves the database.
+   *
+   * @param patients the patient ids of the cohort
+   * @param encounterTypeIds the encounter type ids
+   * @param onOrBefore the upper bound of the encounter date
+   * @return the patient ids
+   */
+  public Set<Integer> getPatientsWithEncounterOnOrBefore(
+      Collection<Integer> patients, Collection<Integer> encounterTypeIds, Date onOrBefore) {
+    Map<String, Object> parameterValues = new HashMap<String, Object>();
+    parameterValues.put("encounterTypes", encounterTypeIds);
+    parameterValues.put("onOrBefore", onOrBefore);
+    return getPatientIds(
+        Moh717Queries.PATIENTS_WITH_ENCOUNTER_ON_OR_BEFORE, parameterValues, patients);
+  }
+
+  /**
+   * Runs a report query restricted to a cohort through its :patients list parameter, once per chunk
+   * of patients so the IN(...) lists stay bounded
+   *
+   * @param query the query
+   * @param parameterValues the values of the other query parameters
+   * @param patients the patient ids of the cohort
+   * @return the patient ids of the first column
+   */
+  public PatientIdSet getPatientIds(
+      ReportQuery query, Map<String, Object> parameterValues, Collection<Integer> patients) {
+    PatientIdSet ret = new PatientIdSet();
+    List<Integer> sorted = new ArrayList<Integer>(patients);
+    Collections.sort(sorted);
+    Map<String, Object> values = new HashMap<String, Object>(parameterValues);
+    for (int from = 0; from < sorted.size(); from += PATIENT_CHUNK_SIZE) {
+      values.put(
+          "patients", sorted.subList(from, Math.min(from + PATIENT_CHUNK_SIZE, sorted.size())));
+      ret.addAll(getPatientIds(query, values));
+    }
+    return ret;
+  }
+
+  /**
+   * Runs a report query through JDBC and reads the patient ids of its first column into a {@link
+   * PatientIdSet}, without going through Hibernate result handling
+   *
+   * @param query the query
+   * @param parameterValues the values of the query parameters
+   * @return the patient ids
+   */
+  public PatientIdSet getPatientIds(ReportQuery query, Map<String, Object> parameterValues) {
+    final ReportQuery.BoundQuery bound = query.bind(parameterValues);
+    final PatientIdSet ret = new PatientIdSet();
+    sessionFactory
+        .getCurrentSession()
+        .doWork(
+            new Work() {
+              @Override
+              public void execute(Connection connection) throws SQLException {
+                PreparedStatement statement = connection.prepareStatement(bound.getSql());
+                try {
+                  bound.bindTo(statement);
+                  ResultSet rs = statement.executeQuery();
+                  try {
+                    while (rs.next()) {
+                      int patientId = rs.getInt(1);
+                      if (!rs.wasNull()) {
+                        ret.add(patientId);
+                      }
+                    }
+                  } finally {
+                    rs.close();
+                  }
+                } finally {
+                  statement.close();
+                }
+              }
+            });
+    return ret;
+  }
+
+  /**
+   * Runs a report query through JDBC
+   *
+   * @param query the query
+   * @param parameterValues the values of the query parameters
+   * @return the result rows, one array of column values per row
+   */
+  public List<Object[]> getRows(ReportQuery query, Map<String, Object> parameterValues) {
+    final ReportQuery.BoundQuery bound = query.bind(parameterValues);
+    final List<Object[]> ret = new ArrayList<Object[]>();
+    sessionFactory
+        .getCurrentSession()
+        .doWork(
+            new Work() {
+              @Override
+              public void execute(Connection connection) throws SQLException {
+                PreparedStatement statement = connection.prepareStatement(bound.getSql());
+                try {
+                  bound.bindTo(statement);
+                  ResultSet rs = statement.executeQuery();
+                  try {
+                    int columns = rs.getMetaData().getColumnCount();
+                    while (rs.next()) {
+                      Object[] row = new Object[columns];
+                      for (int i = 0; i < columns; i++) {
+                        row[i] = rs.getObject(i + 1);
+                      }
+                      ret.add(row);
+                    }
+                  } finally {
+                    rs.close();
+                  }
+                } finally {
+                  statement.close();
+                }
+              }
+            });
+    return ret;
+  }
+
+  /**
+   * Runs a report query through a forward only JDBC cursor, handing each row to the handler as it
+   * is read. MySQL streams the rows instead of buffering the whole result.
+   *
+   * @param query the query
+   * @param parameterValues the values of the query parameters
+   * @param handler the row handler
+   */
+  public void scanRows(
+      ReportQuery query, Map<String, Object> parameterValues, final RowHandler handler) {
+    final ReportQuery.BoundQuery bound = query.bind(parameterValues);
+    sessionFactory
+        .getCurrentSession()
+        .doWork(
+            new Work() {
+              @Override
+              public void execute(Connection connection) throws SQLException {
+                PreparedStatement statement =
+                    connection.prepareStatement(
+                        bound.getSql(), ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+                try {
+                  statement.setFetchSize(getStreamingFetchSize(connection));
+                  bound.bindTo(statement);
+                  ResultSet rs = statement.executeQuery();
+                  try {
+                    while (rs.next()) {
+                      handler.handle(rs);
+                    }
+                  } finally {
+                    rs.close();
+                  }
+                } finally {
+                  statement.close();
+                }
+              }
+            });
+  }
+
+  /** MySQL only streams with a fetch size of Integer.MIN_VALUE, other drivers take a row count */
+  private int getStreamingFetchSize(Connection connection) throws SQLException {
+    String product = connection.getMetaData().getDatabaseProductName();
+    return product != null && product.toLowerCase().contains("mysql")
+        ? Integer.MIN_VALUE
+        : STREAMING_FETCH_SIZE;
+  }
+
+  /**
+   * Runs an update report query through JDBC
+   *
+   * @param query the query
+   * @param parameterValues the values of the query parameters
+   * @return the number of rows changed
+   */
+  public int executeUpdate(ReportQuery query, Map<String, Object> parameterValues) {
+    final ReportQuery.BoundQuery bound = query.bind(parameterValues);
+    final int[] ret = new int[1];
+    sessionFactory
+        .getCurrentSession()
+        .doWork(
+            new Work() {
+              @Override
+              public void execute(Connection connection) throws SQLException {
+                PreparedStatement statement = connection.prepareStatement(bound.getSql());
+                try {
+                  bound.bindTo(statement);
+                  ret[0] = statement.executeUpdate();
+                } finally {
+                  statement.close();
+                }
+              }
+            });
+    return ret[0];
+  }
+
+  /**
+   * Runs EXPLAIN on a report query
+   *
+   * @param query the query
+   * @param parameterValues the values of the query parameters
+   * @return the plan rows, each a map of the EXPLAIN columns by lower case label
+   */
+  public List<Map<String, Object>> explain(ReportQuery query, Map<String, Object> parameterValues) {
+    final ReportQuery.BoundQuery bound = query.bind(parameterValues);
+    final List<Map<String, Object>> ret = new ArrayList<Map<String, Object>>();
+    sessionFactory
+        .getCurrentSession()
+        .doWork(
+            new Work() {
+              @Override
+              public void execute(Connection connection) throws SQLException {
+                PreparedStatement statement =
+                    connection.prepareStatement("EXPLAIN " + bound.getSql());
+                try {
+                  bound.bindTo(statement);
+                  ResultSet rs = statement.executeQuery();
+                  try {
+                    ResultSetMetaData metaData = rs.getMetaData();
+                    while (rs.next()) {
+                      Map<String, Object> row = new LinkedHashMap<String, Object>();
+                      for (int i = 1; i <= metaData.getColumnCount(); i++) {
+                        row.put(metaData.getColumnLabel(i).toLowerCase(), rs.getObject(i));
+                      }
+                      ret.add(row);
+                    }
+                  } finally {
+                    rs.close();
+                  }
+                } finally {
+                  statement.close();
+                }
+              }
+            });
+    return ret;
+  }
 }
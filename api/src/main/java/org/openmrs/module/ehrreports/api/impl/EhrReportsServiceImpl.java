@@ -14,12 +14,39 @@
 
 package org.openmrs.module.ehrreports.api.impl;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.apache.commons.lang.math.NumberUtils;
+import org.openmrs.GlobalProperty;
+import org.openmrs.api.AdministrationService;
+import org.openmrs.api.context.Context;
 import org.openmrs.api.impl.BaseOpenmrsService;
+import org.openmrs.module.ehrreports.EhrReportsConfig;
 import org.openmrs.module.ehrreports.api.EhrReportsService;
 import org.openmrs.module.ehrreports.api.dao.EhrReportsDao;
+import org.openmrs.module.ehrreports.reporting.library.queries.EncounterQueries;
+import org.openmrs.module.ehrreports.reporting.library.queries.OpdVisitQueries;
+import org.openmrs.module.ehrreports.reporting.library.queries.ReportQuery;
+import org.openmrs.module.ehrreports.reporting.library.queries.RowHandler;
 
 public class EhrReportsServiceImpl extends BaseOpenmrsService implements EhrReportsService {
 
+  /** Number of patients whose first visit dates are recomputed per statement */
+  private static final int PATIENT_VISITS_CHUNK_SIZE = 1000;
+
+  /**
+   * How far before the last refresh the changed encounters are looked for, covering the
+   * transactions still open at that time and the clock skew between the database and the
+   * application servers writing date_created and date_changed
+   */
+  private static final long OPD_VISIT_REFRESH_MARGIN = 60 * 60 * 1000L;
+
   private EhrReportsDao dao;
 
   /** Injected in moduleApplicationContext.xml */
@@ -32,4 +59,145 @@ public class EhrReportsServiceImpl extends BaseOpenmrsService implements EhrRepo
     String serializedObjectUuid = dao.getSerializedObjectByReportDesignUUID(uuid);
     dao.purgeReportDesign(uuid, serializedObjectUuid);
   }
+
+  @Override
+  public Set<Integer> getPatientsWithEncounterOnOrBefore(
+      Collection<Integer> patients, Collection<Integer> encounterTypeIds, Date onOrBefore) {
+    return dao.getPatientsWithEncounterOnOrBefore(patients, encounterTypeIds, onOrBefore);
+  }
+
+  @Override
+  public Set<Integer> getPatientIds(ReportQuery query, Map<String, Object> parameterValues) {
+    return dao.getPatientIds(query, parameterValues);
+  }
+
+  @Override
+  public Set<Integer> getPatientIds(
+      ReportQuery query, Map<String, Object> parameterValues, Collection<Integer> patients) {
+    return dao.getPatientIds(query, parameterValues, patients);
+  }
+
+  @Override
+  public List<Object[]> getRows(ReportQuery query, Map<String, Object> parameterValues) {
+    return dao.getRows(query, parameterValues);
+  }
+
+  @Override
+  public void scanRows(ReportQuery query, Map<String, Object> parameterValues, RowHandler handler) {
+    dao.scanRows(query, parameterValues, handler);
+  }
+
+  @Override
+  public List<Map<String, Object>> explainReportQuery(
+      ReportQuery query, Map<String, Object> parameterValues) {
+    return dao.explain(query, parameterValues);
+  }
+
+  @Override
+  public boolean updateOpdVisits(
+      Collection<Integer> encounterTypeIds,
+      Collection<Integer> returnEncounterTypeIds,
+      Integer clinicQuestion,
+      int batchSize) {
+    AdministrationService administrationService = Context.getAdministrationService();
+    int lastEncounterId =
+        NumberUtils.toInt(
+            administrationService.getGlobalProperty(
+                EhrReportsConfig.GP_OPD_VISIT_LAST_ENCOUNTER_ID),
+            0);
+    if (lastEncounterId <= 0) {
+      lastEncounterId = 0;
+      dao.executeUpdate(OpdVisitQueries.DELETE_ALL_VISITS, null);
+      dao.executeUpdate(OpdVisitQueries.DELETE_ALL_PATIENT_VISITS, null);
+    }
+    Number maxEncounterId = (Number) dao.getRows(OpdVisitQueries.MAX_ENCOUNTER_ID, null).get(0)[0];
+    if (maxEncounterId == null || maxEncounterId.intValue() <= lastEncounterId) {
+      return false;
+    }
+    int toEncounterId =
+        (int) Math.min((long) lastEncounterId + batchSize, maxEncounterId.longValue());
+
+    Map<String, Object> parameterValues = new HashMap<String, Object>();
+    parameterValues.put("encounterTypes", encounterTypeIds);
+    parameterValues.put("clinicQuestion", clinicQuestion);
+    parameterValues.put("fromEncounterId", lastEncounterId);
+    parameterValues.put("toEncounterId", toEncounterId);
+    dao.executeUpdate(OpdVisitQueries.INSERT_VISITS, parameterValues);
+    parameterValues.put("returnEncounterTypes", returnEncounterTypeIds);
+    dao.executeUpdate(OpdVisitQueries.MERGE_PATIENT_VISITS, parameterValues);
+
+    saveGlobalProperty(EhrReportsConfig.GP_OPD_VISIT_LAST_ENCOUNTER_ID, toEncounterId);
+    return toEncounterId < maxEncounterId.intValue();
+  }
+
+  @Override
+  public int refreshChangedOpdVisits(
+      Collection<Integer> encounterTypeIds,
+      Collection<Integer> returnEncounterTypeIds,
+      Integer clinicQuestion) {
+    AdministrationService administrationService = Context.getAdministrationService();
+    int lastEncounterId =
+        NumberUtils.toInt(
+            administrationService.getGlobalProperty(
+                EhrReportsConfig.GP_OPD_VISIT_LAST_ENCOUNTER_ID),
+            0);
+    long lastRefresh =
+        NumberUtils.toLong(
+            administrationService.getGlobalProperty(EhrReportsConfig.GP_OPD_VISIT_LAST_REFRESH), 0);
+    // the database clock, the dates being compared are written by the application servers
+    Date now = (Date) dao.getRows(EncounterQueries.DATABASE_NOW, null).get(0)[0];
+    if (lastEncounterId <= 0 || lastRefresh <= 0) {
+      saveGlobalProperty(EhrReportsConfig.GP_OPD_VISIT_LAST_REFRESH, now.getTime());
+      return 0;
+    }
+
+    Map<String, Object> parameterValues = new HashMap<String, Object>();
+    parameterValues.put("since", new Date(lastRefresh - OPD_VISIT_REFRESH_MARGIN));
+    parameterValues.put("clinicQuestion", clinicQuestion);
+    parameterValues.put("toEncounterId", lastEncounterId);
+    List<Integer> patients =
+        new ArrayList<Integer>(
+            dao.getPatientIds(OpdVisitQueries.CHANGED_VISIT_PATIENTS, parameterValues));
+    Collections.sort(patients);
+    parameterValues.put("encounterTypes", encounterTypeIds);
+    parameterValues.put("returnEncounterTypes", returnEncounterTypeIds);
+    for (int from = 0; from < patients.size(); from += PATIENT_VISITS_CHUNK_SIZE) {
+      parameterValues.put(
+          "patients",
+          patients.subList(from, Math.min(from + PATIENT_VISITS_CHUNK_SIZE, patients.size())));
+      dao.executeUpdate(OpdVisitQueries.DELETE_PATIENT_OPD_VISITS, parameterValues);
+      dao.executeUpdate(OpdVisitQueries.INSERT_PATIENT_OPD_VISITS, parameterValues);
+      dao.executeUpdate(OpdVisitQueries.DELETE_PATIENT_VISITS, parameterValues);
+      dao.executeUpdate(OpdVisitQueries.INSERT_PATIENT_VISITS, parameterValues);
+    }
+    saveGlobalProperty(EhrReportsConfig.GP_OPD_VISIT_LAST_REFRESH, now.getTime());
+    return patients.size();
+  }
+
+  @Override
+  public int purgeVoidedOpdVisits(Collection<Integer> returnEncounterTypeIds) {
+    List<Integer> patients =
+        new ArrayList<Integer>(dao.getPatientIds(OpdVisitQueries.VOIDED_VISIT_PATIENTS, null));
+    int ret = dao.executeUpdate(OpdVisitQueries.DELETE_VOIDED_VISITS, null);
+    for (int from = 0; from < patients.size(); from += PATIENT_VISITS_CHUNK_SIZE) {
+      Map<String, Object> parameterValues = new HashMap<String, Object>();
+      parameterValues.put(
+          "patients",
+          patients.subList(from, Math.min(from + PATIENT_VISITS_CHUNK_SIZE, patients.size())));
+      parameterValues.put("returnEncounterTypes", returnEncounterTypeIds);
+      dao.executeUpdate(OpdVisitQueries.DELETE_PATIENT_VISITS, parameterValues);
+      dao.executeUpdate(OpdVisitQueries.INSERT_PATIENT_VISITS, parameterValues);
+    }
+    return ret;
+  }
+
+  private void saveGlobalProperty(String name, Object value) {
+    AdministrationService administrationService = Context.getAdministrationService();
+    GlobalProperty gp = administrationService.getGlobalPropertyObject(name);
+    if (gp == null) {
+      gp = new GlobalProperty(name);
+    }
+    gp.setPropertyValue(String.valueOf(value));
+    administrationService.saveGlobalProperty(gp);
+  }
 }
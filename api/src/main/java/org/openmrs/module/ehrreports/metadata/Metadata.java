@@ -52,8 +52,17 @@ public class Metadata {
 
   /**
    * @return the Concept that matches the passed uuid, name, source:code mapping, or primary key id
+   * @see MetadataCache
    */
   public static Concept getConcept(String lookup) {
+    Integer conceptId = MetadataCache.getConceptId(lookup);
+    if (conceptId != null) {
+      Concept cached = Context.getConceptService().getConcept(conceptId);
+      if (cached != null) {
+        return cached;
+      }
+    }
+    long generation = MetadataCache.getConceptGeneration();
     Concept c = Context.getConceptService().getConceptByUuid(lookup);
     if (c == null) {
       c = Context.getConceptService().getConceptByName(lookup);
@@ -76,6 +85,7 @@ public class Metadata {
     if (c == null) {
       throw new ConfigurableMetadataLookupException("Unable to find Concept using key: " + lookup);
     }
+    MetadataCache.putConceptId(lookup, c.getConceptId(), generation);
     return c;
   }
 
@@ -165,8 +175,19 @@ public class Metadata {
     return l;
   }
 
-  /** @return the EncounterType that matches the passed uuid, name, or primary key id */
+  /**
+   * @return the EncounterType that matches the passed uuid, name, or primary key id
+   * @see MetadataCache
+   */
   public static EncounterType getEncounterType(String lookup) {
+    Integer encounterTypeId = MetadataCache.getEncounterTypeId(lookup);
+    if (encounterTypeId != null) {
+      EncounterType cached = Context.getEncounterService().getEncounterType(encounterTypeId);
+      if (cached != null) {
+        return cached;
+      }
+    }
+    long generation = MetadataCache.getEncounterTypeGeneration();
     EncounterType et = Context.getEncounterService().getEncounterTypeByUuid(lookup);
     if (et == null) {
       et = Context.getEncounterService().getEncounterType(lookup);
@@ -181,7 +202,7 @@ public class Metadata {
       throw new ConfigurableMetadataLookupException(
           "Unable to find EncounterType using key: " + lookup);
     }
-
+    MetadataCache.putEncounterTypeId(lookup, et.getEncounterTypeId(), generation);
     return et;
   }
 
@@ -0,0 +1,234 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.ehrreports.metadata;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.ehrreports.api.EhrReportsService;
+import org.openmrs.module.ehrreports.reporting.library.queries.MetadataQueries;
+import org.openmrs.module.ehrreports.reporting.library.queries.ReportQuery;
+import org.openmrs.module.ehrreports.reporting.utils.EhrReportConstants;
+
+/**
+ * Ids of the concepts and encounter types found by {@link Metadata}, and of the programs found by
+ * {@link ProgramsMetadata}, keyed on the lookup, so a repeated lookup is one primary key load
+ * served by the Hibernate caches instead of up to four service calls. The {@link
+ * EhrReportConstants} uuids are resolved in bulk when the module starts, and {@link
+ * MetadataCacheAdvice} drops the ids when the metadata is saved, retired or purged.
+ */
+public final class MetadataCache {
+
+  private static final Log log = LogFactory.getLog(MetadataCache.class);
+
+  private static final Map<String, Integer> conceptIds = new ConcurrentHashMap<String, Integer>();
+
+  private static final Map<String, Integer> encounterTypeIds =
+      new ConcurrentHashMap<String, Integer>();
+
+  private static final Map<String, Integer> programIds = new ConcurrentHashMap<String, Integer>();
+
+  private static final AtomicLong conceptGeneration = new AtomicLong();
+
+  private static final AtomicLong encounterTypeGeneration = new AtomicLong();
+
+  private static final AtomicLong programGeneration = new AtomicLong();
+
+  private MetadataCache() {}
+
+  /**
+   * Resolves the uuids of {@link EhrReportConstants} with one query per metadata table, first as
+   * encounter types, then as concepts, then as programs
+   *
+   * @return the uuids that match none of them, by constant name, empty if all were found
+   */
+  public static Map<String, String> preload() {
+    Map<String, String> uuids = new LinkedHashMap<String, String>();
+    for (Field field : EhrReportConstants.class.getFields()) {
+      if (!Modifier.isStatic(field.getModifiers()) || field.getType() != String.class) {
+        continue;
+      }
+      try {
+        uuids.put(field.getName(), (String) field.get(null));
+      } catch (IllegalAccessException e) {
+        continue;
+      }
+    }
+
+    Set<String> unresolved = new HashSet<String>(uuids.values());
+    long encounterTypes = encounterTypeGeneration.get();
+    for (Map.Entry<String, Integer> e : getIds(MetadataQueries.ENCOUNTER_TYPE_IDS, unresolved)) {
+      putEncounterTypeId(e.getKey(), e.getValue(), encounterTypes);
+    }
+    long concepts = conceptGeneration.get();
+    for (Map.Entry<String, Integer> e : getIds(MetadataQueries.CONCEPT_IDS, unresolved)) {
+      putConceptId(e.getKey(), e.getValue(), concepts);
+    }
+    long programs = programGeneration.get();
+    for (Map.Entry<String, Integer> e : getIds(MetadataQueries.PROGRAM_IDS, unresolved)) {
+      putProgramId(e.getKey(), e.getValue(), programs);
+    }
+
+    Map<String, String> ret = new LinkedHashMap<String, String>();
+    for (Map.Entry<String, String> e : uuids.entrySet()) {
+      if (unresolved.contains(e.getValue())) {
+        ret.put(e.getKey(), e.getValue());
+      }
+    }
+    log.info(
+        "Preloaded " + (uuids.size() - ret.size()) + " of " + uuids.size() + " metadata uuids");
+    return ret;
+  }
+
+  /**
+   * Runs a (uuid, id) query for the unresolved uuids and removes the ones it finds
+   *
+   * @param query the query
+   * @param unresolved the uuids still to resolve
+   * @return the ids found by uuid
+   */
+  private static Set<Map.Entry<String, Integer>> getIds(ReportQuery query, Set<String> unresolved) {
+    Map<String, Integer> ret = new HashMap<String, Integer>();
+    if (unresolved.isEmpty()) {
+      return ret.entrySet();
+    }
+    Map<String, Object> parameterValues = new HashMap<String, Object>();
+    parameterValues.put("uuids", new ArrayList<String>(unresolved));
+    for (Object[] row :
+        Context.getService(EhrReportsService.class).getRows(query, parameterValues)) {
+      ret.put((String) row[0], ((Number) row[1]).intValue());
+    }
+    unresolved.removeAll(ret.keySet());
+    return ret.entrySet();
+  }
+
+  /**
+   * @param lookup the lookup passed to {@link Metadata#getConcept(String)}
+   * @return the id of the concept found earlier, null if not cached
+   */
+  public static Integer getConceptId(String lookup) {
+    return conceptIds.get(lookup);
+  }
+
+  /**
+   * @return the current concept generation, taken before a lookup is resolved and passed to {@link
+   *     #putConceptId}
+   */
+  public static long getConceptGeneration() {
+    return conceptGeneration.get();
+  }
+
+  /**
+   * Caches the id of a concept unless the concepts changed since the given generation
+   *
+   * @param lookup the lookup
+   * @param conceptId the concept id
+   * @param generation the generation taken before the lookup was resolved
+   */
+  public static void putConceptId(String lookup, Integer conceptId, long generation) {
+    conceptIds.put(lookup, conceptId);
+    if (conceptGeneration.get() != generation) {
+      conceptIds.remove(lookup);
+    }
+  }
+
+  /**
+   * @param lookup the lookup passed to {@link Metadata#getEncounterType(String)}
+   * @return the id of the encounter type found earlier, null if not cached
+   */
+  public static Integer getEncounterTypeId(String lookup) {
+    return encounterTypeIds.get(lookup);
+  }
+
+  /**
+   * @return the current encounter type generation, taken before a lookup is resolved and passed to
+   *     {@link #putEncounterTypeId}
+   */
+  public static long getEncounterTypeGeneration() {
+    return encounterTypeGeneration.get();
+  }
+
+  /**
+   * Caches the id of an encounter type unless the encounter types changed since the given
+   * generation
+   *
+   * @param lookup the lookup
+   * @param encounterTypeId the encounter type id
+   * @param generation the generation taken before the lookup was resolved
+   */
+  public static void putEncounterTypeId(String lookup, Integer encounterTypeId, long generation) {
+    encounterTypeIds.put(lookup, encounterTypeId);
+    if (encounterTypeGeneration.get() != generation) {
+      encounterTypeIds.remove(lookup);
+    }
+  }
+
+  /**
+   * @param lookup the lookup passed to {@link ProgramsMetadata#getProgram(String)}
+   * @return the id of the program found earlier, null if not cached
+   */
+  public static Integer getProgramId(String lookup) {
+    return programIds.get(lookup);
+  }
+
+  /**
+   * @return the current program generation, taken before a lookup is resolved and passed to {@link
+   *     #putProgramId}
+   */
+  public static long getProgramGeneration() {
+    return programGeneration.get();
+  }
+
+  /**
+   * Caches the id of a program unless the programs changed since the given generation
+   *
+   * @param lookup the lookup
+   * @param programId the program id
+   * @param generation the generation taken before the lookup was resolved
+   */
+  public static void putProgramId(String lookup, Integer programId, long generation) {
+    programIds.put(lookup, programId);
+    if (programGeneration.get() != generation) {
+      programIds.remove(lookup);
+    }
+  }
+
+  /** Drops the cached concept ids */
+  public static void clearConcepts() {
+    conceptGeneration.incrementAndGet();
+    conceptIds.clear();
+  }
+
+  /** Drops the cached encounter type ids */
+  public static void clearEncounterTypes() {
+    encounterTypeGeneration.incrementAndGet();
+    encounterTypeIds.clear();
+  }
+
+  /** Drops the cached program ids */
+  public static void clearPrograms() {
+    programGeneration.incrementAndGet();
+    programIds.clear();
+  }
+}
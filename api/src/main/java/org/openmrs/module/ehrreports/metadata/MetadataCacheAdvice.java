@@ -0,0 +1,50 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.ehrreports.metadata;
+
+import java.lang.reflect.Method;
+import org.openmrs.api.ConceptService;
+import org.openmrs.api.EncounterService;
+import org.openmrs.api.ProgramWorkflowService;
+import org.springframework.aop.AfterReturningAdvice;
+
+/**
+ * Drops the {@link MetadataCache} ids after a concept, encounter type or program is saved, retired,
+ * unretired or purged, and the {@link ProgramIndex} indexes after a program or concept is.
+ * Registered on the concept, encounter and program workflow services in config.xml.
+ */
+public class MetadataCacheAdvice implements AfterReturningAdvice {
+
+  @Override
+  public void afterReturning(Object returnValue, Method method, Object[] args, Object target) {
+    String name = method.getName();
+    if (!name.startsWith("save")
+        && !name.startsWith("retire")
+        && !name.startsWith("unretire")
+        && !name.startsWith("purge")) {
+      return;
+    }
+    if (target instanceof ConceptService && name.contains("Concept")) {
+      MetadataCache.clearConcepts();
+      ProgramIndex.clear();
+    } else if (target instanceof ProgramWorkflowService
+        && name.contains("Program")
+        && !name.contains("PatientProgram")) {
+      MetadataCache.clearPrograms();
+      ProgramIndex.clear();
+    } else if (target instanceof EncounterService && name.contains("EncounterType")) {
+      MetadataCache.clearEncounterTypes();
+    }
+  }
+}
@@ -0,0 +1,162 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.ehrreports.metadata;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.openmrs.Program;
+import org.openmrs.ProgramWorkflow;
+import org.openmrs.ProgramWorkflowState;
+import org.openmrs.api.context.Context;
+
+/**
+ * Lookup indexes of the programs, and of the workflows and states of each program, keyed on the
+ * lower cased names, uuids and ids that {@link ProgramsMetadata} accepts after the name lookups of
+ * the workflows and states, which match every concept name. An index holds ids and is built on
+ * first use; {@link MetadataCacheAdvice} drops them all when programs or concepts change. Where
+ * several entries share a key the last one wins, as in the scans the indexes replace.
+ */
+final class ProgramIndex {
+
+  private static final AtomicLong generation = new AtomicLong();
+
+  private static volatile Map<String, Integer> programIds;
+
+  private static final Map<Integer, ProgramIndex> indexes =
+      new ConcurrentHashMap<Integer, ProgramIndex>();
+
+  private final Map<String, Integer> workflowIds = new HashMap<String, Integer>();
+
+  private final Map<Integer, Map<String, Integer>> stateIds =
+      new HashMap<Integer, Map<String, Integer>>();
+
+  private final Integer defaultWorkflowId;
+
+  private final List<Integer> defaultStateIds = new ArrayList<Integer>();
+
+  private ProgramIndex(Program program) {
+    for (ProgramWorkflow workflow : program.getAllWorkflows()) {
+      Integer workflowId = workflow.getProgramWorkflowId();
+      put(workflowIds, workflow.getConcept().getName().toString(), workflowId);
+      put(workflowIds, workflow.getUuid(), workflowId);
+      put(workflowIds, workflowId.toString(), workflowId);
+
+      Map<String, Integer> states = new HashMap<String, Integer>();
+      for (ProgramWorkflowState state : workflow.getStates()) {
+        Integer stateId = state.getProgramWorkflowStateId();
+        put(states, state.getConcept().getName().toString(), stateId);
+        put(states, state.getConcept().getUuid(), stateId);
+        put(states, state.getUuid(), stateId);
+        put(states, stateId.toString(), stateId);
+        put(states, state.getConcept().getConceptId().toString(), stateId);
+      }
+      stateIds.put(workflowId, states);
+    }
+    Iterator<ProgramWorkflow> workflows = program.getAllWorkflows().iterator();
+    if (workflows.hasNext()) {
+      ProgramWorkflow workflow = workflows.next();
+      defaultWorkflowId = workflow.getProgramWorkflowId();
+      for (ProgramWorkflowState state : workflow.getStates()) {
+        defaultStateIds.add(state.getProgramWorkflowStateId());
+      }
+    } else {
+      defaultWorkflowId = null;
+    }
+  }
+
+  /**
+   * @param program the program
+   * @return the index of the program
+   */
+  static ProgramIndex get(Program program) {
+    Integer programId = program.getProgramId();
+    ProgramIndex ret = indexes.get(programId);
+    if (ret == null) {
+      long before = generation.get();
+      ret = new ProgramIndex(program);
+      indexes.put(programId, ret);
+      if (generation.get() != before) {
+        indexes.remove(programId);
+      }
+    }
+    return ret;
+  }
+
+  /**
+   * @param name the program name, in any case
+   * @return the id of the program, null if there is none
+   */
+  static Integer getProgramId(String name) {
+    Map<String, Integer> ids = programIds;
+    if (ids == null) {
+      long before = generation.get();
+      ids = new HashMap<String, Integer>();
+      for (Program program : Context.getProgramWorkflowService().getAllPrograms()) {
+        put(ids, program.getName(), program.getProgramId());
+      }
+      programIds = ids;
+      if (generation.get() != before) {
+        programIds = null;
+      }
+    }
+    return ids.get(name.toLowerCase());
+  }
+
+  /** Drops every index */
+  static void clear() {
+    generation.incrementAndGet();
+    programIds = null;
+    indexes.clear();
+  }
+
+  /**
+   * @param lookup the workflow concept name, uuid or id
+   * @return the workflow id, null if there is none
+   */
+  Integer getWorkflowId(String lookup) {
+    return workflowIds.get(lookup.toLowerCase());
+  }
+
+  /**
+   * @param workflowId the workflow id
+   * @param lookup the state concept name, concept uuid, uuid, id or concept id
+   * @return the state id, null if there is none
+   */
+  Integer getStateId(Integer workflowId, String lookup) {
+    Map<String, Integer> states = stateIds.get(workflowId);
+    return states == null ? null : states.get(lookup.toLowerCase());
+  }
+
+  /** @return the id of the first workflow of the program, null if it has none */
+  Integer getDefaultWorkflowId() {
+    return defaultWorkflowId;
+  }
+
+  /** @return the state ids of the first workflow of the program */
+  List<Integer> getDefaultStateIds() {
+    return Collections.unmodifiableList(defaultStateIds);
+  }
+
+  private static void put(Map<String, Integer> index, String key, Integer id) {
+    if (key != null) {
+      index.put(key.toLowerCase(), id);
+    }
+  }
+}
@@ -1,23 +1,40 @@
 package org.openmrs.module.ehrreports.metadata;
 
+import java.util.ArrayList;
+import java.util.List;
 import org.openmrs.Program;
 import org.openmrs.ProgramWorkflow;
 import org.openmrs.ProgramWorkflowState;
 import org.openmrs.api.context.Context;
 
+/**
+ * Program, workflow and state lookups. Workflows and states are matched on any name of their
+ * concept first, then on their preferred name, uuid or id through a {@link ProgramIndex} of each
+ * program instead of scanning them.
+ */
 public class ProgramsMetadata extends CommonMetadata {
 
-  /** @return the Program that matches the passed uuid, concept name, name, or primary key id */
+  /**
+   * @return the Program that matches the passed uuid, concept name, name, or primary key id
+   * @see MetadataCache
+   */
   public static Program getProgram(String lookup) {
+    Integer cachedId = MetadataCache.getProgramId(lookup);
+    if (cachedId != null) {
+      Program cached = Context.getProgramWorkflowService().getProgram(cachedId);
+      if (cached != null) {
+        return cached;
+      }
+    }
+    long generation = MetadataCache.getProgramGeneration();
     Program program = Context.getProgramWorkflowService().getProgramByUuid(lookup);
     if (program == null) {
       program = Context.getProgramWorkflowService().getProgramByName(lookup);
     }
     if (program == null) {
-      for (Program p : Context.getProgramWorkflowService().getAllPrograms()) {
-        if (p.getName().equalsIgnoreCase(lookup)) {
-          program = p;
-        }
+      Integer programId = ProgramIndex.getProgramId(lookup);
+      if (programId != null) {
+        program = Context.getProgramWorkflowService().getProgram(programId);
       }
     }
     if (program == null) {
@@ -29,6 +46,7 @@ public class ProgramsMetadata extends CommonMetadata {
     if (program == null) {
       throw new ConfigurableMetadataLookupException("Unable to find program using key: " + lookup);
     }
+    MetadataCache.putProgramId(lookup, program.getProgramId(), generation);
 
     return program;
   }
@@ -37,17 +55,9 @@ public class ProgramsMetadata extends CommonMetadata {
   public static ProgramWorkflow getProgramWorkflow(String programLookup, String workflowLookup) {
     Program p = getProgram(programLookup);
     ProgramWorkflow wf = p.getWorkflowByName(workflowLookup);
-
     if (wf == null) {
-      for (ProgramWorkflow programWorkflow : p.getAllWorkflows()) {
-        if (workflowLookup.equalsIgnoreCase(programWorkflow.getConcept().getName().toString())) {
-          wf = programWorkflow;
-        } else if (workflowLookup.equalsIgnoreCase(programWorkflow.getUuid())) {
-          wf = programWorkflow;
-        } else if (workflowLookup.equalsIgnoreCase(programWorkflow.getId().toString())) {
-          wf = programWorkflow;
-        }
-      }
+      Integer workflowId = ProgramIndex.get(p).getWorkflowId(workflowLookup);
+      wf = workflowId == null ? null : p.getWorkflow(workflowId);
     }
     if (wf == null) {
       throw new MetadataLookupException(
@@ -65,19 +75,9 @@ public class ProgramsMetadata extends CommonMetadata {
     ProgramWorkflow wf = getProgramWorkflow(programLookup, workflowLookup);
     ProgramWorkflowState s = wf.getStateByName(stateLookup);
     if (s == null) {
-      for (ProgramWorkflowState state : wf.getStates()) {
-        if (stateLookup.equalsIgnoreCase(state.getConcept().getName().toString())) {
-          s = state;
-        } else if (stateLookup.equalsIgnoreCase(state.getConcept().getUuid())) {
-          s = state;
-        } else if (stateLookup.equalsIgnoreCase(state.getUuid())) {
-          s = state;
-        } else if (stateLookup.equalsIgnoreCase(state.getId().toString())) {
-          s = state;
-        } else if (stateLookup.equalsIgnoreCase(state.getConcept().getId().toString())) {
-          s = state;
-        }
-      }
+      Integer stateId =
+          ProgramIndex.get(wf.getProgram()).getStateId(wf.getProgramWorkflowId(), stateLookup);
+      s = stateId == null ? null : wf.getState(stateId);
     }
     if (s == null) {
       throw new MetadataLookupException(
@@ -90,4 +90,26 @@ public class ProgramsMetadata extends CommonMetadata {
     }
     return s;
   }
+
+  /**
+   * @param program the program
+   * @return the states of the first workflow of the program, empty if it has none
+   */
+  public static List<ProgramWorkflowState> getDefaultWorkflowStates(Program program) {
+    Integer workflowId = ProgramIndex.get(program).getDefaultWorkflowId();
+    ProgramWorkflow workflow = workflowId == null ? null : program.getWorkflow(workflowId);
+    List<ProgramWorkflowState> ret = new ArrayList<ProgramWorkflowState>();
+    if (workflow != null) {
+      ret.addAll(workflow.getStates());
+    }
+    return ret;
+  }
+
+  /**
+   * @param program the program
+   * @return the state ids of the first workflow of the program, empty if it has none
+   */
+  public static List<Integer> getDefaultWorkflowStateIds(Program program) {
+    return new ArrayList<Integer>(ProgramIndex.get(program).getDefaultStateIds());
+  }
 }
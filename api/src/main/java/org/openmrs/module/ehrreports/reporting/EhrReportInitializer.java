@@ -14,35 +14,268 @@
 
 package org.openmrs.module.ehrreports.reporting;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.APIException;
 import org.openmrs.api.context.Context;
+import org.openmrs.api.context.Daemon;
+import org.openmrs.module.DaemonToken;
+import org.openmrs.module.ehrreports.EhrReportsConfig;
+import org.openmrs.module.ehrreports.metadata.ConfigurableMetadataLookupException;
 import org.openmrs.module.ehrreports.reporting.reports.manager.EhrReportManager;
 import org.openmrs.module.ehrreports.reporting.utils.EhrReportUtils;
-import org.openmrs.module.reporting.ReportingConstants;
+import org.openmrs.module.ehrreports.task.OpdVisitFactTask;
 import org.openmrs.module.reporting.report.manager.ReportManager;
-import org.openmrs.module.reporting.report.util.ReportUtil;
+import org.openmrs.scheduler.SchedulerService;
+import org.openmrs.scheduler.TaskDefinition;
 
+/**
+ * Sets up the EHR reports. {@link #initializeReportsInBackground()} registers them on a daemon
+ * thread with its own authenticated session so the module start does not wait for them: the reports
+ * are set up in waves, a report after the reports it depends on, and the reports of a wave in
+ * parallel. The progress is kept for the reports home page.
+ */
 public class EhrReportInitializer {
 
+  /** The progress of the report registration */
+  public enum RegistrationState {
+    PENDING,
+    REGISTERING,
+    READY,
+    FAILED
+  }
+
+  private static DaemonToken daemonToken;
+
+  private static volatile RegistrationState state = RegistrationState.PENDING;
+
+  private static volatile int reportCount;
+
+  private static final AtomicInteger registeredCount = new AtomicInteger();
+
+  private static final Map<String, String> failures =
+      Collections.synchronizedMap(new LinkedHashMap<String, String>());
+
   private Log log = LogFactory.getLog(this.getClass());
 
+  /**
+   * Sets the token the registration threads are started with, given to the module activator
+   *
+   * @param token the daemon token
+   */
+  public static void setDaemonToken(DaemonToken token) {
+    daemonToken = token;
+  }
+
+  /** @return the progress of the report registration */
+  public static RegistrationState getRegistrationState() {
+    return state;
+  }
+
+  /** @return the number of reports to register */
+  public static int getReportCount() {
+    return reportCount;
+  }
+
+  /** @return the number of reports registered so far */
+  public static int getRegisteredCount() {
+    return registeredCount.get();
+  }
+
+  /** @return the error messages of the reports which failed to register, by report name */
+  public static Map<String, String> getFailures() {
+    synchronized (failures) {
+      return new LinkedHashMap<String, String>(failures);
+    }
+  }
+
+  /**
+   * Initializes the reports on a daemon thread, or on the calling thread when there is no daemon
+   * token. Failures are reported to the super users.
+   */
+  public void initializeReportsInBackground() {
+    if (daemonToken == null) {
+      initializeReports();
+      return;
+    }
+    state = RegistrationState.PENDING;
+    Daemon.runInDaemonThread(
+        new Runnable() {
+          @Override
+          public void run() {
+            try {
+              initializeReports();
+            } catch (ConfigurableMetadataLookupException e) {
+              log.error("Unable to register the EHR reports", e);
+              Context.getAlertService()
+                  .notifySuperUsers(
+                      "ehrreports.startuperror.globalproperties", null, e.getMessage());
+            } catch (RuntimeException e) {
+              log.error("Unable to register the EHR reports", e);
+              Context.getAlertService().notifySuperUsers("ehrreports.startuperror.general", null);
+            }
+          }
+        },
+        daemonToken);
+  }
+
   /** Initializes all EHR reports and remove deprocated reports from database. */
   public void initializeReports() {
-    for (ReportManager reportManager : Context.getRegisteredComponents(EhrReportManager.class)) {
-      if (reportManager.getClass().getAnnotation(Deprecated.class) != null) {
-        // remove depricated reports
-        EhrReportUtils.purgeReportDefinition(reportManager);
-        log.info(
-            "Report " + reportManager.getName() + " is deprecated.  Removing it from database.");
-      } else {
-        // setup EHR active reports
-        EhrReportUtils.setupReportDefinition(reportManager);
-        log.info("Setting up report " + reportManager.getName() + "...");
+    state = RegistrationState.REGISTERING;
+    registeredCount.set(0);
+    failures.clear();
+    try {
+      List<EhrReportManager> reportManagers = new ArrayList<EhrReportManager>();
+      for (EhrReportManager reportManager :
+          Context.getRegisteredComponents(EhrReportManager.class)) {
+        if (reportManager.getClass().getAnnotation(Deprecated.class) != null) {
+          // remove depricated reports
+          EhrReportUtils.purgeReportDefinition(reportManager);
+          log.info(
+              "Report " + reportManager.getName() + " is deprecated.  Removing it from database.");
+        } else {
+          reportManagers.add(reportManager);
+        }
+      }
+      reportCount = reportManagers.size();
+      for (List<EhrReportManager> wave : getWaves(reportManagers)) {
+        setupReports(wave);
+      }
+      state = RegistrationState.READY;
+    } catch (RuntimeException e) {
+      state = RegistrationState.FAILED;
+      throw e;
+    }
+  }
+
+  /**
+   * Sets up a wave of reports, in parallel on daemon threads when there are several
+   *
+   * @param wave the reports
+   * @throws RuntimeException the first failure, after the other reports of the wave are set up
+   */
+  private void setupReports(List<EhrReportManager> wave) {
+    final Queue<EhrReportManager> queue = new ConcurrentLinkedQueue<EhrReportManager>(wave);
+    final List<RuntimeException> errors =
+        Collections.synchronizedList(new ArrayList<RuntimeException>());
+    Runnable worker =
+        new Runnable() {
+          @Override
+          public void run() {
+            EhrReportManager reportManager;
+            while ((reportManager = queue.poll()) != null) {
+              try {
+                setupReport(reportManager);
+              } catch (RuntimeException e) {
+                failures.put(reportManager.getName(), e.getMessage());
+                errors.add(e);
+              }
+            }
+          }
+        };
+
+    int threads = Math.min(wave.size(), Runtime.getRuntime().availableProcessors());
+    if (threads < 2 || daemonToken == null) {
+      worker.run();
+    } else {
+      List<Thread> workers = new ArrayList<Thread>();
+      for (int i = 0; i < threads; i++) {
+        workers.add(Daemon.runInDaemonThread(worker, daemonToken));
+      }
+      for (Thread thread : workers) {
+        try {
+          thread.join();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new APIException("Interrupted while registering the EHR reports", e);
+        }
+      }
+    }
+    if (!errors.isEmpty()) {
+      throw errors.get(0);
+    }
+  }
+
+  private void setupReport(EhrReportManager reportManager) {
+    // setup EHR active reports whose fingerprint changed
+    if (EhrReportUtils.setupReportDefinition(reportManager)) {
+      log.info("Set up report " + reportManager.getName());
+    } else {
+      log.info("Report " + reportManager.getName() + " is unchanged, skipping its setup");
+    }
+    registeredCount.incrementAndGet();
+  }
+
+  /**
+   * Orders reports in waves: the first wave has the reports without dependencies, each next wave
+   * the reports depending only on reports of the earlier waves. Dependencies on unknown reports are
+   * ignored and reports in a dependency cycle go in a last wave.
+   *
+   * @param reportManagers the reports
+   * @return the waves
+   */
+  static List<List<EhrReportManager>> getWaves(List<EhrReportManager> reportManagers) {
+    Set<String> uuids = new HashSet<String>();
+    for (EhrReportManager reportManager : reportManagers) {
+      uuids.add(reportManager.getUuid());
+    }
+    Set<String> done = new HashSet<String>();
+    List<EhrReportManager> remaining = new ArrayList<EhrReportManager>(reportManagers);
+    List<List<EhrReportManager>> ret = new ArrayList<List<EhrReportManager>>();
+    while (!remaining.isEmpty()) {
+      List<EhrReportManager> wave = new ArrayList<EhrReportManager>();
+      for (EhrReportManager reportManager : remaining) {
+        boolean ready = true;
+        for (String dependency : reportManager.getDependencies()) {
+          ready &= done.contains(dependency) || !uuids.contains(dependency);
+        }
+        if (ready) {
+          wave.add(reportManager);
+        }
       }
+      if (wave.isEmpty()) {
+        wave.addAll(remaining);
+      }
+      for (EhrReportManager reportManager : wave) {
+        done.add(reportManager.getUuid());
+      }
+      remaining.removeAll(wave);
+      ret.add(wave);
+    }
+    return ret;
+  }
+
+  /**
+   * Registers the task maintaining the OPD visit fact table if it is not registered yet. The task
+   * is not started, an administrator starts it before enabling the fact table.
+   */
+  public void registerOpdVisitTask() {
+    SchedulerService schedulerService = Context.getSchedulerService();
+    if (schedulerService.getTaskByName(EhrReportsConfig.OPD_VISIT_TASK_NAME) != null) {
+      return;
     }
-    ReportUtil.updateGlobalProperty(
-        ReportingConstants.GLOBAL_PROPERTY_DATA_EVALUATION_BATCH_SIZE, "-1");
+    TaskDefinition task = new TaskDefinition();
+    task.setName(EhrReportsConfig.OPD_VISIT_TASK_NAME);
+    task.setDescription("Copies new outpatient visits into the ehrreports_opd_visit table");
+    task.setTaskClass(OpdVisitFactTask.class.getName());
+    task.setStartTime(new Date());
+    task.setRepeatInterval(3600L);
+    task.setStartOnStartup(false);
+    task.setProperty(
+        OpdVisitFactTask.BATCH_SIZE_PROPERTY, String.valueOf(OpdVisitFactTask.DEFAULT_BATCH_SIZE));
+    schedulerService.saveTask(task);
+    log.info("Registered task " + EhrReportsConfig.OPD_VISIT_TASK_NAME);
   }
 
   /** Purges all EPTS reports from database. */
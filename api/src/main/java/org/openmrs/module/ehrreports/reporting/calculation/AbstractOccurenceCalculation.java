@@ -0,0 +1,72 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.ehrreports.reporting.calculation;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.Map;
+import java.util.Set;
+import org.openmrs.api.context.Context;
+import org.openmrs.calculation.patient.PatientCalculationContext;
+import org.openmrs.calculation.result.CalculationResultMap;
+import org.openmrs.calculation.result.SimpleResult;
+import org.openmrs.module.ehrreports.reporting.utils.EhrReportConstants;
+
+/**
+ * Base class of the NEW or REVISIT calculations. With a "state" parameter the result is a boolean
+ * telling whether the patient is in that state, without it the result is the {@link
+ * EhrReportConstants.OccurenceStates} of the patient.
+ */
+public abstract class AbstractOccurenceCalculation extends AbstractPatientCalculation {
+
+  @Override
+  public CalculationResultMap evaluate(
+      Collection<Integer> cohort,
+      Map<String, Object> parameterValues,
+      PatientCalculationContext context) {
+    PatientOccurenceClassifier classifier =
+        Context.getRegisteredComponents(PatientOccurenceClassifier.class).get(0);
+    EhrReportConstants.OccurenceStates state =
+        parameterValues == null
+            ? null
+            : (EhrReportConstants.OccurenceStates) parameterValues.get("state");
+
+    Object onOrBefore = context.getFromCache("onOrBefore");
+    Map<EhrReportConstants.OccurenceStates, Set<Integer>> states =
+        classify(
+            classifier, cohort, onOrBefore instanceof Date ? (Date) onOrBefore : context.getNow());
+
+    if (state != null) {
+      return BooleanResultMap.of(cohort, states.get(state), this, context);
+    }
+    CalculationResultMap resultMap = new CalculationResultMap();
+    for (Map.Entry<EhrReportConstants.OccurenceStates, Set<Integer>> e : states.entrySet()) {
+      for (Integer pId : e.getValue()) {
+        resultMap.put(pId, new SimpleResult(e.getKey(), this, context));
+      }
+    }
+    return resultMap;
+  }
+
+  /**
+   * Classifies the patients of a cohort
+   *
+   * @param classifier the classifier
+   * @param cohort the patient ids
+   * @param onOrBefore the date on or before which a return visit makes a patient a REVISIT
+   * @return the patient ids for each state
+   */
+  protected abstract Map<EhrReportConstants.OccurenceStates, Set<Integer>> classify(
+      PatientOccurenceClassifier classifier, Collection<Integer> cohort, Date onOrBefore);
+}
@@ -36,9 +36,9 @@ public abstract class AbstractPatientCalculation extends BaseCalculation
    * @return the reduced result map
    */
   protected static CalculationResultMap passing(CalculationResultMap results) {
-    CalculationResultMap ret = new CalculationResultMap();
+    BooleanResultMap ret = new BooleanResultMap(null, null);
     for (Map.Entry<Integer, CalculationResult> e : results.entrySet()) {
-      ret.put(e.getKey(), new BooleanResult(ResultUtil.isTrue(e.getValue()), null));
+      ret.put(e.getKey().intValue(), ResultUtil.isTrue(e.getValue()));
     }
     return ret;
   }
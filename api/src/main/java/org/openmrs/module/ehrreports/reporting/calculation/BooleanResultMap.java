@@ -0,0 +1,141 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.ehrreports.reporting.calculation;
+
+import java.util.Collection;
+import java.util.Map;
+import org.openmrs.calculation.Calculation;
+import org.openmrs.calculation.CalculationContext;
+import org.openmrs.calculation.result.CalculationResult;
+import org.openmrs.module.ehrreports.reporting.cohort.PatientIdSet;
+import org.openmrs.module.reporting.evaluation.EvaluationContext;
+
+/**
+ * Boolean calculation results stored as bitsets of the true and the empty results. A {@link
+ * BooleanResult} is created only when an entry is read through the map views, and an empty result
+ * reads back as a null result.
+ */
+public class BooleanResultMap extends PrimitiveResultMap {
+
+  private final PatientIdSet trues = new PatientIdSet();
+
+  private final PatientIdSet nulls = new PatientIdSet();
+
+  /**
+   * Creates an empty boolean result map
+   *
+   * @param calculation the calculation the results are created for
+   * @param context the calculation context the results are created for
+   */
+  public BooleanResultMap(Calculation calculation, CalculationContext context) {
+    super(calculation, context);
+  }
+
+  /**
+   * Creates the results of a cohort, true for the given patients and false for the others
+   *
+   * @param cohort the patient ids
+   * @param passing the patient ids with a true result, those outside the cohort are ignored
+   * @param calculation the calculation
+   * @param context the calculation context
+   * @return the result map
+   */
+  public static BooleanResultMap of(
+      Collection<Integer> cohort,
+      Collection<Integer> passing,
+      Calculation calculation,
+      CalculationContext context) {
+    BooleanResultMap ret = new BooleanResultMap(calculation, context);
+    ret.patientIds.addAll(PatientIdSet.of(cohort));
+    ret.trues.addAll(PatientIdSet.of(passing));
+    ret.trues.retainAll(ret.patientIds);
+    return ret;
+  }
+
+  /**
+   * Sets the result of a patient without creating a result object
+   *
+   * @param patientId the patient id
+   * @param value the result value, null for an empty result
+   */
+  public void put(int patientId, Boolean value) {
+    clearResult(patientId);
+    if (value == null) {
+      nulls.add(patientId);
+    } else if (value) {
+      trues.add(patientId);
+    }
+    patientIds.add(patientId);
+  }
+
+  @Override
+  public void putAll(Map<? extends Integer, ? extends CalculationResult> m) {
+    if (!(m instanceof BooleanResultMap)) {
+      super.putAll(m);
+      return;
+    }
+    BooleanResultMap other = (BooleanResultMap) m;
+    trues.removeAll(other.patientIds);
+    nulls.removeAll(other.patientIds);
+    trues.addAll(other.trues);
+    nulls.addAll(other.nulls);
+    patientIds.addAll(other.patientIds);
+  }
+
+  @Override
+  public PatientIdSet patientsThatPass(
+      CalculationWithResultFinder resultFinder,
+      Object requiredResult,
+      EvaluationContext evaluationContext) {
+    if (resultFinder == CalculationWithResultFinder.NULL && requiredResult == null) {
+      return PatientIdSet.copyOf(nulls);
+    }
+    if (resultFinder != CalculationWithResultFinder.DEFAULT) {
+      return new PatientIdSet();
+    }
+    if (requiredResult == null) {
+      return trues.or(nulls);
+    }
+    if (Boolean.TRUE.equals(requiredResult)) {
+      return PatientIdSet.copyOf(trues);
+    }
+    if (Boolean.FALSE.equals(requiredResult)) {
+      return patientIds.andNot(trues).andNot(nulls);
+    }
+    return new PatientIdSet();
+  }
+
+  @Override
+  protected CalculationResult getResult(int patientId) {
+    return nulls.contains(patientId)
+        ? null
+        : new BooleanResult(trues.contains(patientId), calculation, context);
+  }
+
+  @Override
+  protected void putResult(int patientId, CalculationResult result) {
+    Object value = result == null ? null : result.getValue();
+    if (value != null && !(value instanceof Boolean)) {
+      throw new IllegalArgumentException(
+          "Only boolean results can be put in a boolean result map, got " + value.getClass());
+    }
+    put(patientId, (Boolean) value);
+  }
+
+  @Override
+  protected void clearResult(int patientId) {
+    trues.remove(patientId);
+    nulls.remove(patientId);
+  }
+}
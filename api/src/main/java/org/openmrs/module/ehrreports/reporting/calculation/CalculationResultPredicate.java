@@ -0,0 +1,137 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.ehrreports.reporting.calculation;
+
+import java.util.Date;
+import org.openmrs.calculation.result.CalculationResult;
+import org.openmrs.calculation.result.ResultUtil;
+import org.openmrs.module.reporting.evaluation.EvaluationContext;
+
+/**
+ * A {@link CalculationWithResultFinder} compiled for one required result and evaluation context, so
+ * the finder, the required result and the context dates are resolved once instead of per patient
+ */
+public abstract class CalculationResultPredicate {
+
+  /** Matches no result */
+  public static final CalculationResultPredicate NONE =
+      new CalculationResultPredicate() {
+        @Override
+        public boolean test(CalculationResult result) {
+          return false;
+        }
+      };
+
+  /** Matches empty results */
+  private static final CalculationResultPredicate NULL_VALUE =
+      new CalculationResultPredicate() {
+        @Override
+        public boolean test(CalculationResult result) {
+          return result == null || result.getValue() == null;
+        }
+      };
+
+  /** Matches empty and true results */
+  private static final CalculationResultPredicate TRUE_OR_NULL_VALUE =
+      new CalculationResultPredicate() {
+        @Override
+        public boolean test(CalculationResult result) {
+          Object value = result == null ? null : result.getValue();
+          if (value == null) {
+            return true;
+          }
+          if (value instanceof Boolean) {
+            return (Boolean) value;
+          }
+          return ResultUtil.isTrue(result);
+        }
+      };
+
+  /**
+   * Tests a calculation result
+   *
+   * @param result the result, may be null
+   * @return true if the patient with the result passes
+   */
+  public abstract boolean test(CalculationResult result);
+
+  /**
+   * Compiles a result finder
+   *
+   * @param resultFinder the result finder
+   * @param requiredResult the required result value
+   * @param context the evaluation context, DATE_OUTSIDE reads its startDate and endDate
+   * @return the predicate, {@link #NONE} when no result can pass
+   */
+  public static CalculationResultPredicate compile(
+      CalculationWithResultFinder resultFinder,
+      final Object requiredResult,
+      EvaluationContext context) {
+    if (resultFinder == null) {
+      return NONE;
+    }
+    switch (resultFinder) {
+      case NULL:
+        return requiredResult == null ? NULL_VALUE : NONE;
+      case DEFAULT:
+        if (requiredResult == null) {
+          return TRUE_OR_NULL_VALUE;
+        }
+        return new CalculationResultPredicate() {
+          @Override
+          public boolean test(CalculationResult result) {
+            return result != null && requiredResult.equals(result.getValue());
+          }
+        };
+      case DATE_OUTSIDE:
+        long[] bounds = getDateBounds(context);
+        if (bounds == null) {
+          return NONE;
+        }
+        final long from = bounds[0];
+        final long to = bounds[1];
+        return new CalculationResultPredicate() {
+          @Override
+          public boolean test(CalculationResult result) {
+            Object value = result == null ? null : result.getValue();
+            if (!(value instanceof Date)) {
+              return false;
+            }
+            long time = ((Date) value).getTime();
+            return time < from || time > to;
+          }
+        };
+      default:
+        return NONE;
+    }
+  }
+
+  /**
+   * Gets the period DATE_OUTSIDE tests against
+   *
+   * @param context the evaluation context
+   * @return the earliest and latest time of the startDate and endDate parameters, null unless both
+   *     are dates
+   */
+  static long[] getDateBounds(EvaluationContext context) {
+    Object startDate = context == null ? null : context.getParameterValue("startDate");
+    Object endDate = context == null ? null : context.getParameterValue("endDate");
+    if (!(startDate instanceof Date) || !(endDate instanceof Date)) {
+      return null;
+    }
+    long start = ((Date) startDate).getTime();
+    long end = ((Date) endDate).getTime();
+    return new long[] {Math.min(start, end), Math.max(start, end)};
+  }
+}
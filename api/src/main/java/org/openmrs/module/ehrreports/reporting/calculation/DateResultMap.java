@@ -0,0 +1,197 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.ehrreports.reporting.calculation;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import org.openmrs.calculation.Calculation;
+import org.openmrs.calculation.CalculationContext;
+import org.openmrs.calculation.result.CalculationResult;
+import org.openmrs.calculation.result.CalculationResultMap;
+import org.openmrs.calculation.result.SimpleResult;
+import org.openmrs.module.ehrreports.reporting.cohort.PatientIdSet;
+import org.openmrs.module.reporting.evaluation.EvaluationContext;
+
+/**
+ * Date calculation results of a cohort stored as epoch millis in a long array, indexed by the
+ * position of the patient id in the sorted cohort. A {@link SimpleResult} is created only when an
+ * entry is read through the map views, and an empty result reads back as a null result. Only the
+ * patients of the cohort can be put in the map.
+ */
+public class DateResultMap extends PrimitiveResultMap {
+
+  private static final long NO_DATE = Long.MIN_VALUE;
+
+  private final int[] index;
+
+  private final long[] times;
+
+  /**
+   * Creates an empty date result map for a cohort
+   *
+   * @param cohort the patient ids the map can hold
+   * @param calculation the calculation the results are created for
+   * @param context the calculation context the results are created for
+   */
+  public DateResultMap(
+      Collection<Integer> cohort, Calculation calculation, CalculationContext context) {
+    super(calculation, context);
+    PatientIdSet ids = PatientIdSet.of(cohort);
+    index = new int[ids.size()];
+    int i = 0;
+    for (Integer id : ids) {
+      index[i++] = id;
+    }
+    times = new long[index.length];
+    Arrays.fill(times, NO_DATE);
+  }
+
+  /**
+   * Combines date result maps into one over the union of their patients
+   *
+   * @param parts the date result maps
+   * @return the combined map
+   */
+  static DateResultMap union(List<CalculationResultMap> parts) {
+    PatientIdSet cohort = new PatientIdSet();
+    for (CalculationResultMap part : parts) {
+      cohort.addAll(((DateResultMap) part).patientIds);
+    }
+    DateResultMap first = (DateResultMap) parts.get(0);
+    DateResultMap ret = new DateResultMap(cohort, first.calculation, first.context);
+    for (CalculationResultMap part : parts) {
+      DateResultMap dates = (DateResultMap) part;
+      for (int i = 0; i < dates.index.length; i++) {
+        if (dates.patientIds.contains(dates.index[i])) {
+          ret.setTime(dates.index[i], dates.times[i]);
+        }
+      }
+    }
+    return ret;
+  }
+
+  /**
+   * Sets the result of a patient without creating a result object
+   *
+   * @param patientId the patient id
+   * @param date the result date, null for an empty result
+   * @throws IllegalArgumentException if the patient is not in the cohort of the map
+   */
+  public void put(int patientId, Date date) {
+    setTime(patientId, date == null ? NO_DATE : date.getTime());
+  }
+
+  /**
+   * Gets the result of a patient without creating a result object
+   *
+   * @param patientId the patient id
+   * @return the result date, null for none
+   */
+  public Date getDate(int patientId) {
+    int slot = Arrays.binarySearch(index, patientId);
+    return slot < 0 || times[slot] == NO_DATE ? null : new Date(times[slot]);
+  }
+
+  @Override
+  public void putAll(Map<? extends Integer, ? extends CalculationResult> m) {
+    if (!(m instanceof DateResultMap)) {
+      super.putAll(m);
+      return;
+    }
+    DateResultMap other = (DateResultMap) m;
+    for (int i = 0; i < other.index.length; i++) {
+      if (other.patientIds.contains(other.index[i])) {
+        setTime(other.index[i], other.times[i]);
+      }
+    }
+  }
+
+  @Override
+  public PatientIdSet patientsThatPass(
+      CalculationWithResultFinder resultFinder,
+      Object requiredResult,
+      EvaluationContext evaluationContext) {
+    PatientIdSet ret = new PatientIdSet();
+    if (resultFinder == CalculationWithResultFinder.NULL && requiredResult == null) {
+      for (int i = 0; i < index.length; i++) {
+        if (times[i] == NO_DATE && patientIds.contains(index[i])) {
+          ret.add(index[i]);
+        }
+      }
+      return ret;
+    }
+    if (resultFinder == CalculationWithResultFinder.DATE_OUTSIDE) {
+      long[] bounds = CalculationResultPredicate.getDateBounds(evaluationContext);
+      if (bounds == null) {
+        return ret;
+      }
+      for (int i = 0; i < index.length; i++) {
+        long time = times[i];
+        if (time != NO_DATE && (time < bounds[0] || time > bounds[1])) {
+          ret.add(index[i]);
+        }
+      }
+      return ret;
+    }
+    if (resultFinder == CalculationWithResultFinder.DEFAULT
+        && requiredResult != null
+        && requiredResult.getClass() == Date.class) {
+      long required = ((Date) requiredResult).getTime();
+      for (int i = 0; i < index.length; i++) {
+        if (times[i] == required) {
+          ret.add(index[i]);
+        }
+      }
+      return ret;
+    }
+    return filter(
+        CalculationResultPredicate.compile(resultFinder, requiredResult, evaluationContext));
+  }
+
+  @Override
+  protected CalculationResult getResult(int patientId) {
+    Date date = getDate(patientId);
+    return date == null ? null : new SimpleResult(date, calculation, context);
+  }
+
+  @Override
+  protected void putResult(int patientId, CalculationResult result) {
+    Object value = result == null ? null : result.getValue();
+    if (value != null && !(value instanceof Date)) {
+      throw new IllegalArgumentException(
+          "Only date results can be put in a date result map, got " + value.getClass());
+    }
+    put(patientId, (Date) value);
+  }
+
+  @Override
+  protected void clearResult(int patientId) {
+    int slot = Arrays.binarySearch(index, patientId);
+    if (slot >= 0) {
+      times[slot] = NO_DATE;
+    }
+  }
+
+  private void setTime(int patientId, long time) {
+    int slot = Arrays.binarySearch(index, patientId);
+    if (slot < 0) {
+      throw new IllegalArgumentException("Patient " + patientId + " is not in the result cohort");
+    }
+    times[slot] = time;
+    patientIds.add(patientId);
+  }
+}
@@ -11,34 +11,64 @@
  */
 package org.openmrs.module.ehrreports.reporting.calculation;
 
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import org.openmrs.EncounterType;
+import org.openmrs.api.context.Context;
 import org.openmrs.calculation.patient.PatientCalculationContext;
 import org.openmrs.calculation.result.CalculationResultMap;
+import org.openmrs.module.ehrreports.api.EhrReportsService;
+import org.openmrs.module.ehrreports.reporting.library.queries.EncounterQueries;
+import org.openmrs.module.ehrreports.reporting.library.queries.ReportQuery;
+import org.openmrs.module.ehrreports.reporting.library.queries.RowHandler;
 import org.openmrs.module.ehrreports.reporting.utils.EhrCalculationUtils;
+import org.openmrs.module.reporting.common.DateUtil;
 import org.openmrs.module.reporting.common.TimeQualifier;
 import org.openmrs.module.reporting.data.patient.definition.EncountersForPatientDataDefinition;
 import org.springframework.stereotype.Service;
 
+/**
+ * Encounter data for patient calculations, read without keeping encounter entities. No calculation
+ * of the module reads it yet: the NEW/REVISIT split only needs which patients have a return
+ * encounter, which {@link PatientOccurenceClassifier} answers with grouped queries.
+ */
 @Service
 public class EhrCalculationService {
 
+  /** Number of patients whose encounters are read per query */
+  private static final int PATIENT_CHUNK_SIZE = 4096;
+
+  /** Bounds of the encounter projections when no date is given */
+  private static final Date MIN_DATE = DateUtil.getDateTime(1000, 1, 1);
+
+  private static final Date MAX_DATE = DateUtil.getDateTime(9999, 12, 31);
+
   /**
-   * Evaluates all encounters of a given type of each patient
+   * Evaluates all encounters of a given type of each patient, reducing the encounters of each batch
+   * of patients so they are not kept
    *
    * @param encounterTypes
    * @param cohort
    * @param onOrAfter
+   * @param reducer turns the encounters of a batch into results, such as {@link
+   *     EhrCalculationUtils#DATES} for the last encounter date or {@link
+   *     EhrCalculationUtils#EXISTS}
    * @param context
-   * @return all encounters for the patients
+   * @return the reduced encounters of the patients
    */
   public CalculationResultMap allEncounters(
       List<EncounterType> encounterTypes,
       Collection<Integer> cohort,
       Date onOrAfter,
       Date onOrBefore,
+      EhrCalculationUtils.BatchReducer reducer,
       PatientCalculationContext context) {
     EncountersForPatientDataDefinition def = new EncountersForPatientDataDefinition();
     def.setWhich(TimeQualifier.ANY);
@@ -52,6 +82,81 @@ public class EhrCalculationService {
     } else {
       def.setName("all encounters of any type");
     }
-    return EhrCalculationUtils.evaluateWithReporting(def, cohort, null, null, context);
+    return EhrCalculationUtils.evaluateWithReporting(def, cohort, null, reducer, null, context);
+  }
+
+  /**
+   * Reads the encounter timelines of the patients, streaming the (patient_id, encounter_datetime,
+   * encounter_type) columns into primitive arrays without loading encounter entities
+   *
+   * @param encounterTypes the encounter types, null for any type
+   * @param cohort the patient ids
+   * @param onOrAfter the lower bound of the encounter date, null for none
+   * @param onOrBefore the upper bound of the encounter date, null for none
+   * @return the encounter timelines
+   */
+  public EncounterTimelines encounterTimelines(
+      List<EncounterType> encounterTypes,
+      Collection<Integer> cohort,
+      Date onOrAfter,
+      Date onOrBefore) {
+    final EncounterTimelines ret = new EncounterTimelines();
+    if (cohort.isEmpty() || (encounterTypes != null && encounterTypes.isEmpty())) {
+      return ret;
+    }
+    Map<String, Object> parameterValues = new HashMap<String, Object>();
+    parameterValues.put("onOrAfter", onOrAfter == null ? MIN_DATE : onOrAfter);
+    parameterValues.put("onOrBefore", onOrBefore == null ? MAX_DATE : onOrBefore);
+    ReportQuery query = EncounterQueries.ENCOUNTER_TIMES;
+    if (encounterTypes != null) {
+      List<Integer> encounterTypeIds = new ArrayList<Integer>();
+      for (EncounterType encounterType : encounterTypes) {
+        encounterTypeIds.add(encounterType.getEncounterTypeId());
+      }
+      parameterValues.put("encounterTypes", encounterTypeIds);
+      query = EncounterQueries.ENCOUNTER_TIMES_OF_TYPES;
+    }
+
+    RowHandler handler =
+        new RowHandler() {
+          @Override
+          public void handle(ResultSet rs) throws SQLException {
+            ret.add(rs.getInt(1), rs.getTimestamp(2).getTime(), rs.getInt(3));
+          }
+        };
+    List<Integer> patients = new ArrayList<Integer>(cohort);
+    Collections.sort(patients);
+    EhrReportsService service = Context.getService(EhrReportsService.class);
+    for (int from = 0; from < patients.size(); from += PATIENT_CHUNK_SIZE) {
+      parameterValues.put(
+          "patients", patients.subList(from, Math.min(from + PATIENT_CHUNK_SIZE, patients.size())));
+      service.scanRows(query, parameterValues, handler);
+    }
+    return ret;
+  }
+
+  /**
+   * Evaluates the last encounter date of a given type of each patient from the encounter timelines
+   *
+   * @param encounterTypes the encounter types, null for any type
+   * @param cohort the patient ids
+   * @param onOrAfter the lower bound of the encounter date, null for none
+   * @param onOrBefore the upper bound of the encounter date, null for none
+   * @param context the calculation context
+   * @return the last encounter dates, null results for patients without encounter
+   */
+  public CalculationResultMap lastEncounterDates(
+      List<EncounterType> encounterTypes,
+      Collection<Integer> cohort,
+      Date onOrAfter,
+      Date onOrBefore,
+      PatientCalculationContext context) {
+    EncounterTimelines timelines =
+        encounterTimelines(encounterTypes, cohort, onOrAfter, onOrBefore);
+    DateResultMap ret = new DateResultMap(cohort, null, context);
+    for (Integer ptId : cohort) {
+      ret.put(ptId.intValue(), timelines.getLast(ptId));
+    }
+    return ret;
   }
 }
@@ -0,0 +1,211 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.ehrreports.reporting.calculation;
+
+import java.util.Arrays;
+import java.util.Date;
+
+/**
+ * The encounters of a set of patients as primitive timelines: for each patient the sorted encounter
+ * times in milliseconds and the matching encounter type ids. Encounters are appended by ascending
+ * patient id and, for a patient, by ascending time, which is the order of the encounter projection
+ * queries.
+ */
+public class EncounterTimelines {
+
+  private int[] patientIds = new int[16];
+
+  /** Index in {@link #times} of the first encounter of each patient */
+  private int[] starts = new int[16];
+
+  private int patients;
+
+  private long[] times = new long[64];
+
+  private int[] types = new int[64];
+
+  private int size;
+
+  /**
+   * Appends an encounter
+   *
+   * @param patientId the patient id, not lower than the last appended one
+   * @param time the encounter time in milliseconds, not before the last one of the patient
+   * @param encounterType the encounter type id
+   * @throws IllegalStateException if the patients are not appended in ascending order
+   */
+  void add(int patientId, long time, int encounterType) {
+    if (patients == 0 || patientIds[patients - 1] != patientId) {
+      if (patients > 0 && patientIds[patients - 1] > patientId) {
+        throw new IllegalStateException("Encounters must be added by ascending patient id");
+      }
+      if (patients == patientIds.length) {
+        patientIds = Arrays.copyOf(patientIds, patients * 2);
+        starts = Arrays.copyOf(starts, patients * 2);
+      }
+      patientIds[patients] = patientId;
+      starts[patients] = size;
+      patients++;
+    }
+    if (size == times.length) {
+      times = Arrays.copyOf(times, size * 2);
+      types = Arrays.copyOf(types, size * 2);
+    }
+    times[size] = time;
+    types[size] = encounterType;
+    size++;
+  }
+
+  /** @return the ids of the patients with at least one encounter, ascending */
+  public int[] getPatientIds() {
+    return Arrays.copyOf(patientIds, patients);
+  }
+
+  /** @return the number of encounters of all patients */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Gets the number of encounters of a patient
+   *
+   * @param patientId the patient id
+   * @return the number of encounters
+   */
+  public int count(int patientId) {
+    int i = indexOf(patientId);
+    return i < 0 ? 0 : end(i) - starts[i];
+  }
+
+  /**
+   * Gets the number of encounters of a patient in a time range
+   *
+   * @param patientId the patient id
+   * @param from the lower bound in milliseconds, inclusive
+   * @param to the upper bound in milliseconds, inclusive
+   * @return the number of encounters
+   */
+  public int countBetween(int patientId, long from, long to) {
+    int i = indexOf(patientId);
+    if (i < 0 || from > to) {
+      return 0;
+    }
+    return upperBound(starts[i], end(i), to) - lowerBound(starts[i], end(i), from);
+  }
+
+  /**
+   * Gets the encounter times of a patient
+   *
+   * @param patientId the patient id
+   * @return the sorted times in milliseconds, empty if the patient has no encounter
+   */
+  public long[] getTimes(int patientId) {
+    int i = indexOf(patientId);
+    return i < 0 ? new long[0] : Arrays.copyOfRange(times, starts[i], end(i));
+  }
+
+  /**
+   * Gets the encounter types of a patient, in the order of {@link #getTimes(int)}
+   *
+   * @param patientId the patient id
+   * @return the encounter type ids, empty if the patient has no encounter
+   */
+  public int[] getTypes(int patientId) {
+    int i = indexOf(patientId);
+    return i < 0 ? new int[0] : Arrays.copyOfRange(types, starts[i], end(i));
+  }
+
+  /**
+   * Gets the first encounter date of a patient
+   *
+   * @param patientId the patient id
+   * @return the date, or null if the patient has no encounter
+   */
+  public Date getFirst(int patientId) {
+    int i = indexOf(patientId);
+    return i < 0 ? null : new Date(times[starts[i]]);
+  }
+
+  /**
+   * Gets the last encounter date of a patient
+   *
+   * @param patientId the patient id
+   * @return the date, or null if the patient has no encounter
+   */
+  public Date getLast(int patientId) {
+    int i = indexOf(patientId);
+    return i < 0 ? null : new Date(times[end(i) - 1]);
+  }
+
+  /**
+   * Tells whether a patient has an encounter of a type on or before a time
+   *
+   * @param patientId the patient id
+   * @param encounterType the encounter type id
+   * @param onOrBefore the time in milliseconds
+   * @return true if there is such an encounter
+   */
+  public boolean hasTypeOnOrBefore(int patientId, int encounterType, long onOrBefore) {
+    int i = indexOf(patientId);
+    if (i < 0) {
+      return false;
+    }
+    int last = upperBound(starts[i], end(i), onOrBefore);
+    for (int j = starts[i]; j < last; j++) {
+      if (types[j] == encounterType) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private int indexOf(int patientId) {
+    int i = Arrays.binarySearch(patientIds, 0, patients, patientId);
+    return i < 0 ? -1 : i;
+  }
+
+  private int end(int i) {
+    return i + 1 < patients ? starts[i + 1] : size;
+  }
+
+  /** Index of the first time not before the given one in [from, to) */
+  private int lowerBound(int from, int to, long time) {
+    int low = from;
+    int high = to;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (times[mid] < time) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /** Index of the first time after the given one in [from, to) */
+  private int upperBound(int from, int to, long time) {
+    int low = from;
+    int high = to;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (times[mid] <= time) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+}
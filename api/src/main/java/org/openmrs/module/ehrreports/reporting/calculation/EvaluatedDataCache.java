@@ -0,0 +1,119 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.ehrreports.reporting.calculation;
+
+import java.lang.ref.SoftReference;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import org.openmrs.module.ehrreports.reporting.cohort.PatientIdSet;
+import org.openmrs.module.reporting.data.DataDefinition;
+import org.openmrs.module.reporting.evaluation.caching.ConfigurationPropertyCachingStrategy;
+
+/**
+ * Evaluated data definition results shared by the calculations of a run, keyed on the definition's
+ * configuration, the parameter values, a digest of the cohort and the form of the results, so the
+ * batches of an evaluation each have their own entry. The results are softly referenced so they
+ * give way to the batches of a large evaluation when the heap runs short. They are shared, callers
+ * must not modify them.
+ */
+public class EvaluatedDataCache {
+
+  /** Form of the data as evaluated by the reporting module */
+  public static final String DATA = "data";
+
+  private final ConfigurationPropertyCachingStrategy cachingStrategy =
+      new ConfigurationPropertyCachingStrategy();
+
+  private final Map<String, SoftReference<Object>> entries =
+      new HashMap<String, SoftReference<Object>>();
+
+  /**
+   * Gets the results of a definition evaluated earlier for the same cohort and parameters
+   *
+   * @param definition the data definition
+   * @param cohort the patient ids
+   * @param parameterValues the parameter values
+   * @param form the form of the results, {@link #DATA} or that of a reducer
+   * @return the results, or null if they are not cached
+   */
+  public synchronized Object get(
+      DataDefinition definition,
+      Collection<Integer> cohort,
+      Map<String, Object> parameterValues,
+      String form) {
+    String key = getKey(definition, cohort, parameterValues, form);
+    SoftReference<Object> entry = key == null ? null : entries.get(key);
+    if (entry == null) {
+      return null;
+    }
+    Object ret = entry.get();
+    if (ret == null) {
+      entries.remove(key);
+    }
+    return ret;
+  }
+
+  /**
+   * Caches the results of a definition
+   *
+   * @param definition the data definition
+   * @param cohort the patient ids the definition was evaluated for
+   * @param parameterValues the parameter values
+   * @param form the form of the results, {@link #DATA} or that of a reducer
+   * @param results the results
+   */
+  public synchronized void put(
+      DataDefinition definition,
+      Collection<Integer> cohort,
+      Map<String, Object> parameterValues,
+      String form,
+      Object results) {
+    String key = getKey(definition, cohort, parameterValues, form);
+    if (key == null) {
+      return;
+    }
+    for (Iterator<SoftReference<Object>> i = entries.values().iterator(); i.hasNext(); ) {
+      if (i.next().get() == null) {
+        i.remove();
+      }
+    }
+    entries.put(key, new SoftReference<Object>(results));
+  }
+
+  /** @return the number of cached results, including those already collected */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  private String getKey(
+      DataDefinition definition,
+      Collection<Integer> cohort,
+      Map<String, Object> parameterValues,
+      String form) {
+    String key = cachingStrategy.getCacheKey(definition);
+    if (key == null) {
+      return null;
+    }
+    StringBuilder ret = new StringBuilder(key);
+    if (parameterValues != null && !parameterValues.isEmpty()) {
+      ret.append("|").append(new TreeMap<String, Object>(parameterValues));
+    }
+    ret.append("|").append(PatientIdSet.of(cohort).digest());
+    ret.append("|").append(form);
+    return ret.toString();
+  }
+}
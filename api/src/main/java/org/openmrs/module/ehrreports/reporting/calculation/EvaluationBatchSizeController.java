@@ -0,0 +1,207 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.ehrreports.reporting.calculation;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * Picks the number of patients a data definition is evaluated for at a time. The batch is sized so
+ * that its estimated memory stays within a share of the free heap, from the per patient cost
+ * observed in earlier evaluations of the same kind of definition. Cohorts that fit are evaluated in
+ * one batch. The latest decisions are kept so they can be inspected.
+ */
+@Component
+public class EvaluationBatchSizeController {
+
+  /** Smallest batch, below it the per batch overhead dominates */
+  public static final int MIN_BATCH_SIZE = 500;
+
+  /** Per patient cost assumed until one has been observed */
+  public static final long DEFAULT_BYTES_PER_PATIENT = 20 * 1024;
+
+  /** Share of the free heap a batch may use */
+  private static final double HEAP_SHARE = 0.25;
+
+  /** Weight of a new observation in the per patient cost */
+  private static final double SMOOTHING = 0.3;
+
+  private static final int MAX_DECISIONS = 100;
+
+  private Log log = LogFactory.getLog(this.getClass());
+
+  private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+  private final Map<String, Long> bytesPerPatient = new HashMap<String, Long>();
+
+  private final LinkedList<Decision> decisions = new LinkedList<Decision>();
+
+  /**
+   * Picks the batch size of an evaluation
+   *
+   * @param key the kind of evaluation, e.g. the data definition class
+   * @param cohortSize the number of patients to evaluate
+   * @return the batch size, the cohort size when it is evaluated in one batch
+   */
+  public int getBatchSize(String key, int cohortSize) {
+    long freeHeap = getFreeHeap();
+    long cost = getBytesPerPatient(key);
+    long fitting = (long) (freeHeap * HEAP_SHARE) / cost;
+    int batchSize = fitting >= cohortSize ? cohortSize : (int) Math.max(MIN_BATCH_SIZE, fitting);
+    Decision decision = new Decision(key, cohortSize, freeHeap, cost, batchSize);
+    synchronized (decisions) {
+      decisions.addFirst(decision);
+      if (decisions.size() > MAX_DECISIONS) {
+        decisions.removeLast();
+      }
+    }
+    if (log.isDebugEnabled()) {
+      log.debug(decision);
+    }
+    return batchSize;
+  }
+
+  /**
+   * Records the heap growth of an evaluated batch into the per patient cost of its kind
+   *
+   * @param key the kind of evaluation
+   * @param patients the number of patients of the batch
+   * @param heapUsedBefore the used heap before the evaluation, see {@link #getHeapUsed()}
+   * @param heapUsedAfter the used heap after the evaluation
+   */
+  public void recordBatch(String key, int patients, long heapUsedBefore, long heapUsedAfter) {
+    long grown = heapUsedAfter - heapUsedBefore;
+    if (patients <= 0 || grown <= 0) {
+      // a collection ran during the batch, the growth says nothing
+      return;
+    }
+    long observed = Math.max(1, grown / patients);
+    synchronized (bytesPerPatient) {
+      Long previous = bytesPerPatient.get(key);
+      bytesPerPatient.put(
+          key,
+          previous == null
+              ? observed
+              : Math.max(1, Math.round(SMOOTHING * observed + (1 - SMOOTHING) * previous)));
+    }
+  }
+
+  /** @return the used heap in bytes */
+  public long getHeapUsed() {
+    return memory.getHeapMemoryUsage().getUsed();
+  }
+
+  /**
+   * Gets the estimated cost of a patient
+   *
+   * @param key the kind of evaluation
+   * @return the estimated bytes per patient
+   */
+  public long getBytesPerPatient(String key) {
+    synchronized (bytesPerPatient) {
+      Long ret = bytesPerPatient.get(key);
+      return ret == null ? DEFAULT_BYTES_PER_PATIENT : ret;
+    }
+  }
+
+  /** @return the latest decisions, the most recent first */
+  public List<Decision> getDecisions() {
+    synchronized (decisions) {
+      return new ArrayList<Decision>(decisions);
+    }
+  }
+
+  private long getFreeHeap() {
+    MemoryUsage heap = memory.getHeapMemoryUsage();
+    long max = heap.getMax() < 0 ? Runtime.getRuntime().maxMemory() : heap.getMax();
+    return Math.max(0, max - heap.getUsed());
+  }
+
+  /** A batch size decision */
+  public static class Decision {
+
+    private final Date date = new Date();
+
+    private final String key;
+
+    private final int cohortSize;
+
+    private final long freeHeap;
+
+    private final long bytesPerPatient;
+
+    private final int batchSize;
+
+    Decision(String key, int cohortSize, long freeHeap, long bytesPerPatient, int batchSize) {
+      this.key = key;
+      this.cohortSize = cohortSize;
+      this.freeHeap = freeHeap;
+      this.bytesPerPatient = bytesPerPatient;
+      this.batchSize = batchSize;
+    }
+
+    public Date getDate() {
+      return date;
+    }
+
+    public String getKey() {
+      return key;
+    }
+
+    public int getCohortSize() {
+      return cohortSize;
+    }
+
+    public long getFreeHeap() {
+      return freeHeap;
+    }
+
+    public long getBytesPerPatient() {
+      return bytesPerPatient;
+    }
+
+    public int getBatchSize() {
+      return batchSize;
+    }
+
+    /** @return the number of batches the cohort is evaluated in */
+    public int getBatches() {
+      return batchSize <= 0 ? 1 : (cohortSize + batchSize - 1) / batchSize;
+    }
+
+    @Override
+    public String toString() {
+      return key
+          + ": "
+          + cohortSize
+          + " patients in batches of "
+          + batchSize
+          + " ("
+          + freeHeap
+          + " bytes free, "
+          + bytesPerPatient
+          + " bytes per patient)";
+    }
+  }
+}
@@ -0,0 +1,37 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.ehrreports.reporting.calculation;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.Map;
+import java.util.Set;
+import org.openmrs.module.ehrreports.reporting.utils.EhrReportConstants;
+import org.springframework.stereotype.Component;
+
+/**
+ * Classifies patients as NEW or REVISIT from the first return visit dates kept in the
+ * ehrreports_patient_visit table, a single range on an index whatever the length of the patients'
+ * encounter history. The table is filled by the OPD visit facts task, and the state dimension runs
+ * this calculation instead of {@link PatientOccurenceCalculation} when the fact table is enabled.
+ */
+@Component
+public class FirstVisitOccurenceCalculation extends AbstractOccurenceCalculation {
+
+  @Override
+  protected Map<EhrReportConstants.OccurenceStates, Set<Integer>> classify(
+      PatientOccurenceClassifier classifier, Collection<Integer> cohort, Date onOrBefore) {
+    return classifier.classifyByFirstReturnVisit(cohort, onOrBefore);
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License Version
+ * 1.0 (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * Copyright (C) OpenMRS, LLC. All Rights Reserved.
+ */
+package org.openmrs.module.ehrreports.reporting.calculation;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.ehrreports.EhrReportsConfig;
+import org.openmrs.module.ehrreports.api.EhrReportsService;
+import org.openmrs.module.ehrreports.metadata.OutpatientMetadata;
+import org.openmrs.module.ehrreports.reporting.cohort.PatientIdSet;
+import org.openmrs.module.ehrreports.reporting.library.queries.OpdVisitQueries;
+import org.openmrs.module.ehrreports.reporting.utils.EhrReportConstants.OccurenceStates;
+import org.openmrs.module.reporting.common.DateUtil;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Splits a cohort into NEW and REVISIT patients. A patient is a REVISIT if they have any return
+ * encounter (registration, adult or peds) on or before the given date, otherwise they are NEW. The
+ * split is answered by grouped queries restricted to chunks of the cohort so no encounters are
+ * loaded, on the encounter table or on the OPD visit fact table when {@link
+ * EhrReportsConfig#GP_USE_OPD_VISIT_FACT_TABLE} is set.
+ */
+@Component
+public class PatientOccurenceClassifier {
+
+  @Autowired private OutpatientMetadata outpatientMetadata;
+
+  /**
+   * Classifies the patients of a cohort
+   *
+   * @param cohort the patient ids
+   * @param onOrBefore the date on or before which a return encounter makes a patient a REVISIT
+   * @return the patient ids for each state, every state is present even when empty
+   */
+  public Map<OccurenceStates, Set<Integer>> classify(Collection<Integer> cohort, Date onOrBefore) {
+    return split(
+        cohort,
+        getPatientsWithReturnEncounter(cohort, DateUtil.getEndOfDayIfTimeExcluded(onOrBefore)));
+  }
+
+  /**
+   * Classifies the patients of a cohort from the first return visit dates of the
+   * ehrreports_patient_visit table
+   *
+   * @param cohort the patient ids
+   * @param onOrBefore the date on or before which a return visit makes a patient a REVISIT
+   * @return the patient ids for each state, every state is present even when empty
+   */
+  public Map<OccurenceStates, Set<Integer>> classifyByFirstReturnVisit(
+      Collection<Integer> cohort, Date onOrBefore) {
+    Map<String, Object> parameterValues = new HashMap<String, Object>();
+    parameterValues.put("onOrBefore", DateUtil.getEndOfDayIfTimeExcluded(onOrBefore));
+    return split(
+        cohort,
+        Context.getService(EhrReportsService.class)
+            .getPatientIds(
+                OpdVisitQueries.PATIENTS_WITH_RETURN_VISIT_ON_OR_BEFORE, parameterValues, cohort));
+  }
+
+  private Map<OccurenceStates, Set<Integer>> split(
+      Collection<Integer> cohort, Set<Integer> withReturnEncounter) {
+    PatientIdSet patients = PatientIdSet.of(cohort);
+    PatientIdSet revisitPatients = patients.and(withReturnEncounter);
+    PatientIdSet newPatients = patients.andNot(revisitPatients);
+
+    Map<OccurenceStates, Set<Integer>> ret =
+        new EnumMap<OccurenceStates, Set<Integer>>(OccurenceStates.class);
+    ret.put(OccurenceStates.NEW, newPatients);
+    ret.put(OccurenceStates.REVISIT, revisitPatients);
+    return ret;
+  }
+
+  private Set<Integer> getPatientsWithReturnEncounter(Collection<Integer> cohort, Date onOrBefore) {
+    EhrReportsService service = Context.getService(EhrReportsService.class);
+    if (!EhrReportsConfig.isOpdVisitFactTableEnabled()) {
+      return service.getPatientsWithEncounterOnOrBefore(
+          cohort, getReturnEncounterTypeIds(), onOrBefore);
+    }
+    Map<String, Object> parameterValues = new HashMap<String, Object>();
+    parameterValues.put("encounterTypes", getReturnEncounterTypeIds());
+    parameterValues.put("onOrBefore", onOrBefore);
+    return service.getPatientIds(
+        OpdVisitQueries.PATIENTS_WITH_ENCOUNTER_ON_OR_BEFORE, parameterValues, cohort);
+  }
+
+  private List<Integer> getReturnEncounterTypeIds() {
+    List<Integer> ids = new ArrayList<Integer>();
+    ids.add(outpatientMetadata.getRegReturnEncounterType().getEncounterTypeId());
+    ids.add(outpatientMetadata.getAdultReturnEncounterType().getEncounterTypeId());
+    ids.add(outpatientMetadata.getPedsReturnEncounterType().getEncounterTypeId());
+    return ids;
+  }
+}
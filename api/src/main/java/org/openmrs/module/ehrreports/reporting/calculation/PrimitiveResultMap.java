@@ -0,0 +1,327 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.ehrreports.reporting.calculation;
+
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.openmrs.calculation.Calculation;
+import org.openmrs.calculation.CalculationContext;
+import org.openmrs.calculation.result.CalculationResult;
+import org.openmrs.calculation.result.CalculationResultMap;
+import org.openmrs.module.ehrreports.reporting.cohort.PatientIdSet;
+import org.openmrs.module.reporting.evaluation.EvaluationContext;
+
+/**
+ * A {@link CalculationResultMap} storing its values in primitive arrays or bitsets instead of a
+ * result object per patient. The map views create the result objects on access so the map stays
+ * usable by any consumer, while {@link #patientsThatPass} reads the values directly.
+ */
+public abstract class PrimitiveResultMap extends CalculationResultMap {
+
+  /** The patients with an entry */
+  protected final PatientIdSet patientIds = new PatientIdSet();
+
+  protected final Calculation calculation;
+
+  protected final CalculationContext context;
+
+  /**
+   * @param calculation the calculation the results are created for
+   * @param context the calculation context the results are created for
+   */
+  protected PrimitiveResultMap(Calculation calculation, CalculationContext context) {
+    this.calculation = calculation;
+    this.context = context;
+  }
+
+  /**
+   * Gets the patients whose result passes a result finder, without creating result objects
+   *
+   * @param resultFinder the result finder
+   * @param requiredResult the required result value
+   * @param evaluationContext the evaluation context
+   * @return the passing patient ids
+   */
+  public abstract PatientIdSet patientsThatPass(
+      CalculationWithResultFinder resultFinder,
+      Object requiredResult,
+      EvaluationContext evaluationContext);
+
+  /**
+   * Creates the result object of a patient with an entry
+   *
+   * @param patientId the patient id
+   * @return the result, null for an empty result
+   */
+  protected abstract CalculationResult getResult(int patientId);
+
+  /**
+   * Stores the value of a result, the patient id is added to {@link #patientIds} by the caller
+   *
+   * @param patientId the patient id
+   * @param result the result, may be null
+   * @throws IllegalArgumentException if the result value can not be stored
+   */
+  protected abstract void putResult(int patientId, CalculationResult result);
+
+  /**
+   * Clears the stored value of a patient, the patient id is removed by the caller
+   *
+   * @param patientId the patient id
+   */
+  protected abstract void clearResult(int patientId);
+
+  /**
+   * Combines the result maps of the parts of a cohort, keeping the primitive storage when all parts
+   * are of the same kind
+   *
+   * @param parts the result maps
+   * @return the combined result map
+   */
+  public static CalculationResultMap combine(List<CalculationResultMap> parts) {
+    if (parts.size() == 1) {
+      return parts.get(0);
+    }
+    if (allOfType(parts, BooleanResultMap.class)) {
+      BooleanResultMap first = (BooleanResultMap) parts.get(0);
+      BooleanResultMap ret = new BooleanResultMap(first.calculation, first.context);
+      for (CalculationResultMap part : parts) {
+        ret.putAll(part);
+      }
+      return ret;
+    }
+    if (allOfType(parts, DateResultMap.class)) {
+      return DateResultMap.union(parts);
+    }
+    CalculationResultMap ret = new CalculationResultMap();
+    for (CalculationResultMap part : parts) {
+      ret.putAll(part);
+    }
+    return ret;
+  }
+
+  /**
+   * Filters the entries with a compiled finder, for the finders without a primitive path
+   *
+   * @param predicate the compiled finder
+   * @return the passing patient ids
+   */
+  protected PatientIdSet filter(CalculationResultPredicate predicate) {
+    PatientIdSet ret = new PatientIdSet();
+    if (predicate == CalculationResultPredicate.NONE) {
+      return ret;
+    }
+    for (Integer patientId : patientIds) {
+      if (predicate.test(getResult(patientId))) {
+        ret.add(patientId.intValue());
+      }
+    }
+    return ret;
+  }
+
+  @Override
+  public int size() {
+    return patientIds.size();
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return patientIds.isEmpty();
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return patientIds.contains(key);
+  }
+
+  @Override
+  public boolean containsValue(Object value) {
+    return values().contains(value);
+  }
+
+  @Override
+  public CalculationResult get(Object key) {
+    return containsKey(key) ? getResult((Integer) key) : null;
+  }
+
+  @Override
+  public CalculationResult put(Integer key, CalculationResult value) {
+    CalculationResult previous = get(key);
+    putResult(key, value);
+    patientIds.add(key);
+    return previous;
+  }
+
+  @Override
+  public void putAll(Map<? extends Integer, ? extends CalculationResult> m) {
+    for (Map.Entry<? extends Integer, ? extends CalculationResult> e : m.entrySet()) {
+      put(e.getKey(), e.getValue());
+    }
+  }
+
+  @Override
+  public CalculationResult remove(Object key) {
+    if (!containsKey(key)) {
+      return null;
+    }
+    CalculationResult previous = getResult((Integer) key);
+    clearResult((Integer) key);
+    patientIds.remove(key);
+    return previous;
+  }
+
+  @Override
+  public void clear() {
+    for (Integer patientId : patientIds) {
+      clearResult(patientId);
+    }
+    patientIds.clear();
+  }
+
+  @Override
+  public Set<Integer> keySet() {
+    return new AbstractSet<Integer>() {
+      @Override
+      public Iterator<Integer> iterator() {
+        final Iterator<Map.Entry<Integer, CalculationResult>> entries = entrySet().iterator();
+        return new Iterator<Integer>() {
+          @Override
+          public boolean hasNext() {
+            return entries.hasNext();
+          }
+
+          @Override
+          public Integer next() {
+            return entries.next().getKey();
+          }
+
+          @Override
+          public void remove() {
+            entries.remove();
+          }
+        };
+      }
+
+      @Override
+      public int size() {
+        return PrimitiveResultMap.this.size();
+      }
+
+      @Override
+      public boolean contains(Object o) {
+        return containsKey(o);
+      }
+    };
+  }
+
+  @Override
+  public Collection<CalculationResult> values() {
+    return new AbstractCollection<CalculationResult>() {
+      @Override
+      public Iterator<CalculationResult> iterator() {
+        final Iterator<Map.Entry<Integer, CalculationResult>> entries = entrySet().iterator();
+        return new Iterator<CalculationResult>() {
+          @Override
+          public boolean hasNext() {
+            return entries.hasNext();
+          }
+
+          @Override
+          public CalculationResult next() {
+            return entries.next().getValue();
+          }
+
+          @Override
+          public void remove() {
+            entries.remove();
+          }
+        };
+      }
+
+      @Override
+      public int size() {
+        return PrimitiveResultMap.this.size();
+      }
+    };
+  }
+
+  @Override
+  public Set<Map.Entry<Integer, CalculationResult>> entrySet() {
+    return new AbstractSet<Map.Entry<Integer, CalculationResult>>() {
+      @Override
+      public Iterator<Map.Entry<Integer, CalculationResult>> iterator() {
+        final Iterator<Integer> ids = patientIds.iterator();
+        return new Iterator<Map.Entry<Integer, CalculationResult>>() {
+
+          private Integer last;
+
+          @Override
+          public boolean hasNext() {
+            return ids.hasNext();
+          }
+
+          @Override
+          public Map.Entry<Integer, CalculationResult> next() {
+            last = ids.next();
+            return new AbstractMap.SimpleEntry<Integer, CalculationResult>(last, getResult(last)) {
+              @Override
+              public CalculationResult setValue(CalculationResult value) {
+                putResult(getKey(), value);
+                return super.setValue(value);
+              }
+            };
+          }
+
+          @Override
+          public void remove() {
+            if (last == null) {
+              throw new IllegalStateException();
+            }
+            ids.remove();
+            clearResult(last);
+            last = null;
+          }
+        };
+      }
+
+      @Override
+      public int size() {
+        return PrimitiveResultMap.this.size();
+      }
+    };
+  }
+
+  /** @return a plain result map holding the same results */
+  @Override
+  public Object clone() {
+    CalculationResultMap ret = new CalculationResultMap();
+    ret.putAll(this);
+    return ret;
+  }
+
+  private static boolean allOfType(List<CalculationResultMap> parts, Class<?> type) {
+    for (CalculationResultMap part : parts) {
+      if (part.getClass() != type) {
+        return false;
+      }
+    }
+    return !parts.isEmpty();
+  }
+}
@@ -0,0 +1,184 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.ehrreports.reporting.calculation;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.APIException;
+import org.openmrs.api.context.Context;
+import org.openmrs.api.context.Daemon;
+import org.openmrs.calculation.patient.PatientCalculation;
+import org.openmrs.calculation.patient.PatientCalculationContext;
+import org.openmrs.calculation.patient.PatientCalculationService;
+import org.openmrs.calculation.result.CalculationResultMap;
+import org.openmrs.module.DaemonToken;
+import org.openmrs.module.ehrreports.EhrReportsConfig;
+import org.springframework.stereotype.Component;
+
+/**
+ * Evaluates a patient calculation for a cohort, either on the calling thread or split in shards run
+ * on {@link EhrReportsConfig#GP_CALCULATION_THREADS} daemon threads. Each worker has its own
+ * authenticated session and calculation context, clears its Hibernate session after each shard, and
+ * the results of the shards are merged. Small cohorts, a single thread, a missing daemon token or a
+ * failed parallel run fall back to the serial evaluation.
+ */
+@Component
+public class ShardedCalculationExecutor {
+
+  /** Smallest shard, smaller cohorts are not worth a thread */
+  public static final int MIN_SHARD_SIZE = 1000;
+
+  /** Shards per thread, so threads finishing early pick up the remaining work */
+  private static final int SHARDS_PER_THREAD = 4;
+
+  private static DaemonToken daemonToken;
+
+  private Log log = LogFactory.getLog(this.getClass());
+
+  /**
+   * Sets the token the worker threads are started with, given to the module activator
+   *
+   * @param token the daemon token
+   */
+  public static void setDaemonToken(DaemonToken token) {
+    daemonToken = token;
+  }
+
+  /**
+   * Evaluates a calculation
+   *
+   * @param cohort the patient ids
+   * @param calculation the calculation, shared by the worker threads
+   * @param parameterValues the calculation parameters
+   * @param context the calculation context of a serial evaluation
+   * @param sharedCacheKeys the entries of the context cache copied to the worker contexts
+   * @return the calculation results
+   */
+  public CalculationResultMap evaluate(
+      Collection<Integer> cohort,
+      PatientCalculation calculation,
+      Map<String, Object> parameterValues,
+      PatientCalculationContext context,
+      Collection<String> sharedCacheKeys) {
+    PatientCalculationService pcs = Context.getService(PatientCalculationService.class);
+    int threads = EhrReportsConfig.getCalculationThreads();
+    if (threads > 1 && daemonToken != null && cohort.size() >= 2 * MIN_SHARD_SIZE) {
+      try {
+        return evaluateInShards(
+            cohort, calculation, parameterValues, context, sharedCacheKeys, threads);
+      } catch (APIException e) {
+        if (Thread.currentThread().isInterrupted()) {
+          throw e;
+        }
+        log.warn("Parallel evaluation of " + calculation + " failed, evaluating serially", e);
+      }
+    }
+    return pcs.evaluate(cohort, calculation, parameterValues, context);
+  }
+
+  private CalculationResultMap evaluateInShards(
+      Collection<Integer> cohort,
+      final PatientCalculation calculation,
+      final Map<String, Object> parameterValues,
+      PatientCalculationContext context,
+      Collection<String> sharedCacheKeys,
+      int threads) {
+    int shardSize =
+        Math.max(
+            MIN_SHARD_SIZE,
+            (cohort.size() + threads * SHARDS_PER_THREAD - 1) / (threads * SHARDS_PER_THREAD));
+    final Queue<List<Integer>> shards =
+        new ConcurrentLinkedQueue<List<Integer>>(split(cohort, shardSize));
+    final Date now = context.getNow();
+    final Map<String, Object> sharedCache = new HashMap<String, Object>();
+    for (String key : sharedCacheKeys) {
+      sharedCache.put(key, context.getFromCache(key));
+    }
+    final List<CalculationResultMap> parts =
+        Collections.synchronizedList(new ArrayList<CalculationResultMap>());
+    final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+
+    int workerCount = Math.min(threads, shards.size());
+    List<Thread> workers = new ArrayList<Thread>();
+    try {
+      for (int i = 0; i < workerCount; i++) {
+        workers.add(
+            Daemon.runInDaemonThread(
+                new Runnable() {
+                  @Override
+                  public void run() {
+                    PatientCalculationService service =
+                        Context.getService(PatientCalculationService.class);
+                    List<Integer> shard;
+                    while (failures.isEmpty() && (shard = shards.poll()) != null) {
+                      try {
+                        PatientCalculationContext shardContext = service.createCalculationContext();
+                        shardContext.setNow(now);
+                        for (Map.Entry<String, Object> e : sharedCache.entrySet()) {
+                          shardContext.addToCache(e.getKey(), e.getValue());
+                        }
+                        parts.add(
+                            service.evaluate(shard, calculation, parameterValues, shardContext));
+                        Context.flushSession();
+                        Context.clearSession();
+                      } catch (Throwable t) {
+                        failures.add(t);
+                      }
+                    }
+                  }
+                },
+                daemonToken));
+      }
+    } catch (RuntimeException e) {
+      // stops the workers already started
+      failures.add(e);
+    }
+    for (Thread worker : workers) {
+      try {
+        worker.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new APIException("Interrupted while waiting for the calculation shards", e);
+      }
+    }
+    if (!failures.isEmpty()) {
+      throw new APIException("A calculation shard failed", failures.get(0));
+    }
+    return PrimitiveResultMap.combine(parts);
+  }
+
+  private List<List<Integer>> split(Collection<Integer> cohort, int shardSize) {
+    List<List<Integer>> ret = new ArrayList<List<Integer>>();
+    List<Integer> shard = new ArrayList<Integer>(shardSize);
+    Iterator<Integer> patients = cohort.iterator();
+    while (patients.hasNext()) {
+      shard.add(patients.next());
+      if (shard.size() == shardSize || !patients.hasNext()) {
+        ret.add(shard);
+        shard = new ArrayList<Integer>(shardSize);
+      }
+    }
+    return ret;
+  }
+}
@@ -0,0 +1,69 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.ehrreports.reporting.cohort;
+
+import java.util.Collection;
+import org.openmrs.Cohort;
+import org.openmrs.module.reporting.cohort.EvaluatedCohort;
+import org.openmrs.module.reporting.cohort.definition.CohortDefinition;
+import org.openmrs.module.reporting.evaluation.EvaluationContext;
+
+/**
+ * Evaluated cohort whose members are held in a {@link PatientIdSet}, so membership checks done by
+ * the reporting module when intersecting cohorts are bit lookups.
+ */
+public class BitSetCohort extends EvaluatedCohort {
+
+  /**
+   * Creates a cohort of the given patients
+   *
+   * @param memberIds the patient ids, used as is if already a {@link PatientIdSet}
+   * @param definition the definition that was evaluated (optional)
+   * @param context the evaluation context
+   */
+  public BitSetCohort(
+      Collection<Integer> memberIds, CohortDefinition definition, EvaluationContext context) {
+    super(new Cohort(), definition, context);
+    setMemberIds(PatientIdSet.of(memberIds));
+  }
+
+  /** @return the member ids as a {@link PatientIdSet} */
+  public PatientIdSet getPatientIds() {
+    return PatientIdSet.of(getMemberIds());
+  }
+
+  /**
+   * @param other the other cohort
+   * @return a new cohort with the patients in both this cohort and the other
+   */
+  public BitSetCohort and(Cohort other) {
+    return new BitSetCohort(getPatientIds().and(other.getMemberIds()), null, getContext());
+  }
+
+  /**
+   * @param other the other cohort
+   * @return a new cohort with the patients in this cohort or the other
+   */
+  public BitSetCohort or(Cohort other) {
+    return new BitSetCohort(getPatientIds().or(other.getMemberIds()), null, getContext());
+  }
+
+  /**
+   * @param other the other cohort
+   * @return a new cohort with the patients in this cohort but not in the other
+   */
+  public BitSetCohort andNot(Cohort other) {
+    return new BitSetCohort(getPatientIds().andNot(other.getMemberIds()), null, getContext());
+  }
+}
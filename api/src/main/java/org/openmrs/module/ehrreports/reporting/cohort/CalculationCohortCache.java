@@ -0,0 +1,315 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.ehrreports.reporting.cohort;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import org.openmrs.Cohort;
+import org.openmrs.Location;
+import org.openmrs.api.context.Context;
+import org.openmrs.calculation.patient.PatientCalculation;
+import org.openmrs.module.ehrreports.EhrReportsConfig;
+import org.openmrs.module.ehrreports.api.EhrReportsService;
+import org.openmrs.module.ehrreports.reporting.cohort.definition.CalculationCohortDefinition;
+import org.openmrs.module.ehrreports.reporting.cohort.definition.CalculationPartitionDimension;
+import org.openmrs.module.ehrreports.reporting.library.queries.EncounterQueries;
+import org.openmrs.module.reporting.cohort.definition.CohortDefinition;
+import org.openmrs.module.reporting.common.DateUtil;
+import org.openmrs.module.reporting.evaluation.EvaluationContext;
+import org.openmrs.module.reporting.evaluation.caching.ConfigurationPropertyCachingStrategy;
+import org.openmrs.module.reporting.evaluation.parameter.Mapped;
+import org.springframework.stereotype.Component;
+
+/**
+ * Calculation cohorts and calculation dimension partitions kept between report runs, keyed on the
+ * calculation, its parameters, date bounds, location, result filter or options, candidates and the
+ * evaluation parameters and base cohort. A cohort is reused until an encounter or obs dated on or
+ * before its end date is created, changed or voided after it was evaluated, so the reruns of a
+ * closed month are not evaluated again. The least recently used cohorts are evicted beyond {@link
+ * EhrReportsConfig#GP_CALCULATION_CACHE_SIZE} and every cohort is dropped after {@link
+ * EhrReportsConfig#GP_CALCULATION_CACHE_TTL_MINUTES}.
+ */
+@Component
+public class CalculationCohortCache {
+
+  /**
+   * How far before the evaluation of a cohort the changes are looked for. date_created and
+   * date_changed are written with the clocks of the application servers and by transactions which
+   * may commit after the evaluation started, the margin covers both.
+   */
+  static final long CHANGE_CHECK_MARGIN = 5 * 60 * 1000L;
+
+  /**
+   * How many obs ids below the highest one at the evaluation of a cohort are checked again, for the
+   * obs inserted by transactions which commit after the evaluation started
+   */
+  static final int CHANGE_CHECK_OBS_IDS = 10000;
+
+  /** The partition key of a cached cohort */
+  private static final String COHORT = "";
+
+  private final ConfigurationPropertyCachingStrategy cachingStrategy =
+      new ConfigurationPropertyCachingStrategy();
+
+  private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+  /**
+   * Gets the cache key of a cohort definition
+   *
+   * @param cd the cohort definition
+   * @param context the evaluation context
+   * @return the key, or null if the cache is disabled or the cohort can not be cached
+   */
+  public String getKey(CalculationCohortDefinition cd, EvaluationContext context) {
+    return getKey(
+        "cohort",
+        cd.getCalculation(),
+        cd.getCalculationParameters(),
+        cd.getOnOrAfter(),
+        cd.getOnOrBefore(),
+        cd.getLocation(),
+        cd.getWithResult() + "|" + cd.getWithResultFinder(),
+        cd.getCandidates(),
+        context);
+  }
+
+  /**
+   * Gets the cache key of the partitions of a calculation dimension
+   *
+   * @param dim the dimension
+   * @param calculation the calculation run for the dimension
+   * @param onOrAfter the start date the calculation is run with
+   * @param onOrBefore the end date the calculation is run with
+   * @param context the evaluation context
+   * @return the key, or null if the cache is disabled or the partitions can not be cached
+   */
+  public String getKey(
+      CalculationPartitionDimension dim,
+      PatientCalculation calculation,
+      Date onOrAfter,
+      Date onOrBefore,
+      EvaluationContext context) {
+    return getKey(
+        "partitions",
+        calculation,
+        dim.getCalculationParameters(),
+        onOrAfter,
+        onOrBefore,
+        dim.getLocation(),
+        sorted(dim.getOptions()),
+        dim.getCandidates(),
+        context);
+  }
+
+  private String getKey(
+      String kind,
+      PatientCalculation calculation,
+      Map<String, Object> calculationParameters,
+      Date onOrAfter,
+      Date onOrBefore,
+      Location location,
+      String filter,
+      Mapped<CohortDefinition> candidates,
+      EvaluationContext context) {
+    if (calculation == null
+        || onOrBefore == null
+        || EhrReportsConfig.getCalculationCacheSize() == 0) {
+      return null;
+    }
+    StringBuilder key = new StringBuilder(kind);
+    key.append("|").append(calculation.getClass().getName());
+    key.append("|").append(sorted(calculationParameters));
+    key.append("|").append(onOrAfter == null ? "" : onOrAfter.getTime());
+    key.append("|").append(onOrBefore.getTime());
+    key.append("|").append(location == null ? "" : location.getLocationId());
+    key.append("|").append(filter);
+    if (candidates != null) {
+      String candidatesKey = cachingStrategy.getCacheKey(candidates.getParameterizable());
+      if (candidatesKey == null) {
+        return null;
+      }
+      key.append("|").append(candidatesKey);
+      key.append("|").append(sorted(candidates.getParameterMappings()));
+    }
+    key.append("|").append(sorted(context.getParameterValues()));
+    Cohort baseCohort = context.getBaseCohort();
+    if (baseCohort != null) {
+      key.append("|").append(PatientIdSet.of(baseCohort.getMemberIds()).digest());
+    }
+    return key.toString();
+  }
+
+  /**
+   * Takes the point the changes to a cohort are looked for from, before it is evaluated: the
+   * current time of the database less {@link #CHANGE_CHECK_MARGIN} and the highest obs id less
+   * {@link #CHANGE_CHECK_OBS_IDS}
+   *
+   * @return the change mark
+   */
+  public ChangeMark getChangeMark() {
+    Object[] row =
+        Context.getService(EhrReportsService.class)
+            .getRows(EncounterQueries.CHANGE_MARK, new HashMap<String, Object>())
+            .get(0);
+    Number maxObsId = (Number) row[1];
+    return new ChangeMark(
+        new Date(((Date) row[0]).getTime() - CHANGE_CHECK_MARGIN),
+        maxObsId == null ? 0 : Math.max(0, maxObsId.intValue() - CHANGE_CHECK_OBS_IDS));
+  }
+
+  /**
+   * Gets a cached cohort, dropping it if it has expired or its data has changed
+   *
+   * @param key the cache key
+   * @return a copy of the patient ids, or null if the cohort is not cached
+   */
+  public Set<Integer> get(String key) {
+    Map<String, Set<Integer>> partitions = getPartitions(key);
+    return partitions == null ? null : partitions.get(COHORT);
+  }
+
+  /**
+   * Caches a cohort
+   *
+   * @param key the cache key
+   * @param mark the change mark taken before the cohort was evaluated
+   * @param onOrBefore the end date of the cohort
+   * @param patients the patient ids
+   */
+  public void put(String key, ChangeMark mark, Date onOrBefore, Collection<Integer> patients) {
+    putPartitions(key, mark, onOrBefore, Collections.singletonMap(COHORT, patients));
+  }
+
+  /**
+   * Gets cached partitions, dropping them if they have expired or their data has changed
+   *
+   * @param key the cache key
+   * @return copies of the patient ids by partition, or null if the partitions are not cached
+   */
+  public Map<String, Set<Integer>> getPartitions(String key) {
+    Entry entry;
+    synchronized (this) {
+      entry = entries.get(key);
+    }
+    if (entry == null) {
+      return null;
+    }
+    long ttl = EhrReportsConfig.getCalculationCacheTtlMinutes() * 60000L;
+    if (System.currentTimeMillis() - entry.cachedAt > ttl || isChanged(entry)) {
+      synchronized (this) {
+        if (entries.get(key) == entry) {
+          entries.remove(key);
+        }
+      }
+      return null;
+    }
+    Map<String, Set<Integer>> ret = new LinkedHashMap<String, Set<Integer>>();
+    for (Map.Entry<String, PatientIdSet> e : entry.partitions.entrySet()) {
+      ret.put(e.getKey(), PatientIdSet.copyOf(e.getValue()));
+    }
+    return ret;
+  }
+
+  /**
+   * Caches partitions
+   *
+   * @param key the cache key
+   * @param mark the change mark taken before the partitions were evaluated
+   * @param onOrBefore the end date of the partitions
+   * @param partitions the patient ids by partition
+   */
+  public void putPartitions(
+      String key,
+      ChangeMark mark,
+      Date onOrBefore,
+      Map<String, ? extends Collection<Integer>> partitions) {
+    int maxSize = EhrReportsConfig.getCalculationCacheSize();
+    Map<String, PatientIdSet> copies = new LinkedHashMap<String, PatientIdSet>();
+    for (Map.Entry<String, ? extends Collection<Integer>> e : partitions.entrySet()) {
+      copies.put(e.getKey(), PatientIdSet.copyOf(e.getValue()));
+    }
+    Entry entry = new Entry(copies, mark, DateUtil.getEndOfDayIfTimeExcluded(onOrBefore));
+    synchronized (this) {
+      entries.put(key, entry);
+      Iterator<String> it = entries.keySet().iterator();
+      while (entries.size() > maxSize && it.hasNext()) {
+        it.next();
+        it.remove();
+      }
+    }
+  }
+
+  /** Drops all cached cohorts */
+  public synchronized void clear() {
+    entries.clear();
+  }
+
+  /** @return the number of cached cohorts */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  private boolean isChanged(Entry entry) {
+    Map<String, Object> parameterValues = new HashMap<String, Object>();
+    parameterValues.put("onOrBefore", entry.onOrBefore);
+    parameterValues.put("since", entry.mark.since);
+    parameterValues.put("obsId", entry.mark.obsId);
+    List<Object[]> rows =
+        Context.getService(EhrReportsService.class)
+            .getRows(EncounterQueries.DATA_CHANGED_SINCE, parameterValues);
+    return ((Number) rows.get(0)[0]).intValue() != 0;
+  }
+
+  private static String sorted(Map<String, ?> values) {
+    return values == null ? "" : new TreeMap<String, Object>(values).toString();
+  }
+
+  /** Where the change checks of a cohort start, see {@link #getChangeMark()} */
+  public static final class ChangeMark {
+
+    private final Date since;
+
+    private final int obsId;
+
+    private ChangeMark(Date since, int obsId) {
+      this.since = since;
+      this.obsId = obsId;
+    }
+  }
+
+  private static class Entry {
+
+    private final Map<String, PatientIdSet> partitions;
+
+    private final ChangeMark mark;
+
+    private final Date onOrBefore;
+
+    private final long cachedAt = System.currentTimeMillis();
+
+    Entry(Map<String, PatientIdSet> partitions, ChangeMark mark, Date onOrBefore) {
+      this.partitions = partitions;
+      this.mark = mark;
+      this.onOrBefore = onOrBefore;
+    }
+  }
+}
@@ -0,0 +1,276 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.ehrreports.reporting.cohort;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.AbstractSet;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Set of patient ids stored as a bitmap indexed by id. Patient ids are dense positive integers so
+ * this takes one bit per id up to the highest id, instead of a boxed Integer and a hash entry per
+ * member, and intersections and unions are word-wise operations.
+ */
+public class PatientIdSet extends AbstractSet<Integer> {
+
+  private final BitSet bits;
+
+  private int size;
+
+  private int modCount;
+
+  /** Creates an empty set */
+  public PatientIdSet() {
+    this(new BitSet());
+  }
+
+  private PatientIdSet(BitSet bits) {
+    this.bits = bits;
+    this.size = bits.cardinality();
+  }
+
+  /**
+   * Creates a set holding a copy of the given ids
+   *
+   * @param ids the patient ids
+   * @return the new set
+   */
+  public static PatientIdSet copyOf(Collection<Integer> ids) {
+    if (ids instanceof PatientIdSet) {
+      return new PatientIdSet((BitSet) ((PatientIdSet) ids).bits.clone());
+    }
+    PatientIdSet ret = new PatientIdSet();
+    if (ids != null) {
+      for (Integer id : ids) {
+        ret.add(id);
+      }
+    }
+    return ret;
+  }
+
+  /**
+   * Returns the given ids as a patient id set, copying them only if they are not one already
+   *
+   * @param ids the patient ids
+   * @return the ids as a patient id set
+   */
+  public static PatientIdSet of(Collection<Integer> ids) {
+    return ids instanceof PatientIdSet ? (PatientIdSet) ids : copyOf(ids);
+  }
+
+  /**
+   * Adds a patient id without boxing
+   *
+   * @param id the patient id
+   * @return true if the id was not already in the set
+   */
+  public boolean add(int id) {
+    if (id < 0) {
+      throw new IllegalArgumentException("Patient ids can not be negative: " + id);
+    }
+    if (bits.get(id)) {
+      return false;
+    }
+    bits.set(id);
+    size++;
+    modCount++;
+    return true;
+  }
+
+  /**
+   * Checks a patient id without boxing
+   *
+   * @param id the patient id
+   * @return true if the id is in the set
+   */
+  public boolean contains(int id) {
+    return id >= 0 && bits.get(id);
+  }
+
+  @Override
+  public boolean add(Integer id) {
+    if (id == null) {
+      throw new IllegalArgumentException("Patient ids can not be null");
+    }
+    return add(id.intValue());
+  }
+
+  @Override
+  public boolean contains(Object o) {
+    return o instanceof Integer && contains(((Integer) o).intValue());
+  }
+
+  @Override
+  public boolean remove(Object o) {
+    if (!contains(o)) {
+      return false;
+    }
+    bits.clear((Integer) o);
+    size--;
+    modCount++;
+    return true;
+  }
+
+  @Override
+  public boolean retainAll(Collection<?> c) {
+    if (c instanceof PatientIdSet) {
+      int before = size;
+      bits.and(((PatientIdSet) c).bits);
+      return updateSize(before);
+    }
+    return super.retainAll(c);
+  }
+
+  @Override
+  public boolean removeAll(Collection<?> c) {
+    if (c instanceof PatientIdSet) {
+      int before = size;
+      bits.andNot(((PatientIdSet) c).bits);
+      return updateSize(before);
+    }
+    return super.removeAll(c);
+  }
+
+  @Override
+  public boolean addAll(Collection<? extends Integer> c) {
+    if (c instanceof PatientIdSet) {
+      int before = size;
+      bits.or(((PatientIdSet) c).bits);
+      return updateSize(before);
+    }
+    return super.addAll(c);
+  }
+
+  @Override
+  public void clear() {
+    bits.clear();
+    size = 0;
+    modCount++;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public Iterator<Integer> iterator() {
+    return new Iterator<Integer>() {
+
+      private int next = bits.nextSetBit(0);
+
+      private int last = -1;
+
+      private int expectedModCount = modCount;
+
+      @Override
+      public boolean hasNext() {
+        return next >= 0;
+      }
+
+      @Override
+      public Integer next() {
+        if (expectedModCount != modCount) {
+          throw new ConcurrentModificationException();
+        }
+        if (next < 0) {
+          throw new NoSuchElementException();
+        }
+        last = next;
+        next = bits.nextSetBit(next + 1);
+        return last;
+      }
+
+      @Override
+      public void remove() {
+        if (last < 0) {
+          throw new IllegalStateException();
+        }
+        PatientIdSet.this.remove(last);
+        last = -1;
+        expectedModCount = modCount;
+      }
+    };
+  }
+
+  /**
+   * @param other the other ids
+   * @return a new set with the ids in both this set and the other
+   */
+  public PatientIdSet and(Collection<Integer> other) {
+    PatientIdSet ret = copyOf(this);
+    ret.retainAll(of(other));
+    return ret;
+  }
+
+  /**
+   * @param other the other ids
+   * @return a new set with the ids in this set or the other
+   */
+  public PatientIdSet or(Collection<Integer> other) {
+    PatientIdSet ret = copyOf(this);
+    ret.addAll(of(other));
+    return ret;
+  }
+
+  /**
+   * @param other the other ids
+   * @return a new set with the ids in this set but not in the other
+   */
+  public PatientIdSet andNot(Collection<Integer> other) {
+    PatientIdSet ret = copyOf(this);
+    ret.removeAll(of(other));
+    return ret;
+  }
+
+  /**
+   * SHA-1 of the ids, the same for equal sets, so a cohort can be part of a cache key without the
+   * collisions of its size and hash code
+   *
+   * @return the hex digest
+   */
+  public String digest() {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-1");
+      ByteBuffer word = ByteBuffer.allocate(8);
+      for (long bitsWord : bits.toLongArray()) {
+        word.clear();
+        word.putLong(bitsWord);
+        digest.update(word.array());
+      }
+      StringBuilder ret = new StringBuilder();
+      for (byte b : digest.digest()) {
+        ret.append(String.format("%02x", b));
+      }
+      return ret.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private boolean updateSize(int before) {
+    size = bits.cardinality();
+    if (size != before) {
+      modCount++;
+      return true;
+    }
+    return false;
+  }
+}
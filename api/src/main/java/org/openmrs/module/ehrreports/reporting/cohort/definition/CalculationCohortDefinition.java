@@ -21,9 +21,11 @@ import org.openmrs.Location;
 import org.openmrs.calculation.patient.PatientCalculation;
 import org.openmrs.module.ehrreports.reporting.calculation.CalculationWithResultFinder;
 import org.openmrs.module.reporting.cohort.definition.BaseCohortDefinition;
+import org.openmrs.module.reporting.cohort.definition.CohortDefinition;
 import org.openmrs.module.reporting.definition.configuration.ConfigurationProperty;
 import org.openmrs.module.reporting.definition.configuration.ConfigurationPropertyAndParameterCachingStrategy;
 import org.openmrs.module.reporting.evaluation.caching.Caching;
+import org.openmrs.module.reporting.evaluation.parameter.Mapped;
 
 /** Cohort definition based on a calculation */
 @Caching(strategy = ConfigurationPropertyAndParameterCachingStrategy.class)
@@ -50,6 +52,9 @@ public class CalculationCohortDefinition extends BaseCohortDefinition {
   @ConfigurationProperty(group = "calculation")
   private Location location;
 
+  @ConfigurationProperty(group = "calculation")
+  private Mapped<CohortDefinition> candidates;
+
   /** Default constructor */
   public CalculationCohortDefinition() {}
 
@@ -175,4 +180,22 @@ public class CalculationCohortDefinition extends BaseCohortDefinition {
   public void setWithResultFinder(CalculationWithResultFinder withResultFinder) {
     this.withResultFinder = withResultFinder;
   }
+
+  /**
+   * Gets the cohort of candidate patients, the calculation is only evaluated for them
+   *
+   * @return the candidate cohort definition
+   */
+  public Mapped<CohortDefinition> getCandidates() {
+    return candidates;
+  }
+
+  /**
+   * Sets the cohort of candidate patients, the calculation is only evaluated for them
+   *
+   * @param candidates the candidate cohort definition
+   */
+  public void setCandidates(Mapped<CohortDefinition> candidates) {
+    this.candidates = candidates;
+  }
 }
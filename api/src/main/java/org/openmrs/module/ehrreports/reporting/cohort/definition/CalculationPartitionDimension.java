@@ -0,0 +1,171 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+package org.openmrs.module.ehrreports.reporting.cohort.definition;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.openmrs.Location;
+import org.openmrs.calculation.patient.PatientCalculation;
+import org.openmrs.module.reporting.cohort.definition.CohortDefinition;
+import org.openmrs.module.reporting.definition.configuration.ConfigurationProperty;
+import org.openmrs.module.reporting.evaluation.parameter.Mapped;
+import org.openmrs.module.reporting.indicator.dimension.CohortDefinitionDimension;
+
+/**
+ * Dimension whose options are the values of an enum returned by a calculation. The calculation is
+ * evaluated once and every patient is put in the option matching their result, so all the options
+ * come out of a single pass.
+ */
+public class CalculationPartitionDimension extends CohortDefinitionDimension {
+
+  @ConfigurationProperty(required = true, group = "calculation")
+  private PatientCalculation calculation;
+
+  @ConfigurationProperty(group = "calculation")
+  private Date onOrAfter;
+
+  @ConfigurationProperty(group = "calculation")
+  private Date onOrBefore;
+
+  @ConfigurationProperty(group = "calculation")
+  private Map<String, Object> calculationParameters;
+
+  @ConfigurationProperty(group = "calculation")
+  private Location location;
+
+  @ConfigurationProperty(group = "calculation")
+  private Mapped<CohortDefinition> candidates;
+
+  /** option key to the name of the enum value that puts a patient in that option */
+  @ConfigurationProperty(required = true, group = "calculation")
+  private Map<String, String> options = new LinkedHashMap<String, String>();
+
+  /** Default constructor */
+  public CalculationPartitionDimension() {}
+
+  /**
+   * Constructor to populate name and calculation
+   *
+   * @param name the name
+   * @param calculation the calculation
+   */
+  public CalculationPartitionDimension(String name, PatientCalculation calculation) {
+    setName(name);
+    setCalculation(calculation);
+  }
+
+  /** @see CohortDefinitionDimension#getOptionKeys() */
+  @Override
+  public List<String> getOptionKeys() {
+    return new ArrayList<String>(options.keySet());
+  }
+
+  /**
+   * Adds an option to the dimension
+   *
+   * @param key the option key used in column dimension mappings
+   * @param value the calculation result value of patients in the option
+   */
+  public void addOption(String key, Enum<?> value) {
+    options.put(key, value.name());
+  }
+
+  /** @return the calculation */
+  public PatientCalculation getCalculation() {
+    return calculation;
+  }
+
+  /** @param calculation the calculation to set */
+  public void setCalculation(PatientCalculation calculation) {
+    this.calculation = calculation;
+  }
+
+  public Date getOnOrAfter() {
+    return onOrAfter;
+  }
+
+  public void setOnOrAfter(Date onOrAfter) {
+    this.onOrAfter = onOrAfter;
+  }
+
+  public Date getOnOrBefore() {
+    return onOrBefore;
+  }
+
+  public void setOnOrBefore(Date onOrBefore) {
+    this.onOrBefore = onOrBefore;
+  }
+
+  public Map<String, Object> getCalculationParameters() {
+    return calculationParameters;
+  }
+
+  public void setCalculationParameters(Map<String, Object> calculationParameters) {
+    this.calculationParameters = calculationParameters;
+  }
+
+  /**
+   * Adds a calculation parameter
+   *
+   * @param name the name
+   * @param value the value
+   */
+  public void addCalculationParameter(String name, Object value) {
+    if (calculationParameters == null) {
+      calculationParameters = new HashMap<String, Object>();
+    }
+    if (value != null) {
+      calculationParameters.put(name, value);
+    }
+  }
+
+  public Location getLocation() {
+    return location;
+  }
+
+  public void setLocation(Location location) {
+    this.location = location;
+  }
+
+  public Map<String, String> getOptions() {
+    return options;
+  }
+
+  public void setOptions(Map<String, String> options) {
+    this.options = options;
+  }
+
+  /**
+   * Gets the cohort of candidate patients, the calculation is only evaluated for them
+   *
+   * @return the candidate cohort definition
+   */
+  public Mapped<CohortDefinition> getCandidates() {
+    return candidates;
+  }
+
+  /**
+   * Sets the cohort of candidate patients, the calculation is only evaluated for them
+   *
+   * @param candidates the candidate cohort definition
+   */
+  public void setCandidates(Mapped<CohortDefinition> candidates) {
+    this.candidates = candidates;
+  }
+}
@@ -0,0 +1,134 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.ehrreports.reporting.cohort.definition;
+
+import java.util.Date;
+import java.util.List;
+import org.openmrs.module.ehrreports.reporting.library.queries.moh717.Moh717Queries;
+import org.openmrs.module.reporting.cohort.definition.BaseCohortDefinition;
+import org.openmrs.module.reporting.definition.configuration.ConfigurationProperty;
+import org.openmrs.module.reporting.definition.configuration.ConfigurationPropertyAndParameterCachingStrategy;
+import org.openmrs.module.reporting.evaluation.caching.Caching;
+
+/**
+ * Patients with an encounter of one of the encounter types between ${startDate} and ${endDate}
+ * having a coded obs of the question answered with {@link #getAnswer()}. The obs are scanned once
+ * for all of {@link #getAnswers()}, so definitions that only differ by answer share one query.
+ */
+@Caching(strategy = ConfigurationPropertyAndParameterCachingStrategy.class)
+public class CodedObsAnswersCohortDefinition extends BaseCohortDefinition {
+
+  @ConfigurationProperty(required = true)
+  private List<Integer> encounterTypeIds;
+
+  @ConfigurationProperty(required = true)
+  private Integer question;
+
+  @ConfigurationProperty(required = true)
+  private List<Integer> answers;
+
+  @ConfigurationProperty(required = true)
+  private Integer answer;
+
+  @ConfigurationProperty
+  private String queryName = Moh717Queries.SPECIAL_CLINIC_PATIENTS_BY_ANSWER.getName();
+
+  @ConfigurationProperty private Date startDate;
+
+  @ConfigurationProperty private Date endDate;
+
+  /** Default constructor */
+  public CodedObsAnswersCohortDefinition() {}
+
+  public List<Integer> getEncounterTypeIds() {
+    return encounterTypeIds;
+  }
+
+  public void setEncounterTypeIds(List<Integer> encounterTypeIds) {
+    this.encounterTypeIds = encounterTypeIds;
+  }
+
+  public Integer getQuestion() {
+    return question;
+  }
+
+  public void setQuestion(Integer question) {
+    this.question = question;
+  }
+
+  /**
+   * Gets the answers scanned together
+   *
+   * @return the answer concept ids
+   */
+  public List<Integer> getAnswers() {
+    return answers;
+  }
+
+  /**
+   * Sets the answers scanned together, should include {@link #getAnswer()}
+   *
+   * @param answers the answer concept ids
+   */
+  public void setAnswers(List<Integer> answers) {
+    this.answers = answers;
+  }
+
+  /**
+   * Gets the answer of the patients in this cohort
+   *
+   * @return the answer concept id
+   */
+  public Integer getAnswer() {
+    return answer;
+  }
+
+  /**
+   * Sets the answer of the patients in this cohort
+   *
+   * @param answer the answer concept id
+   */
+  public void setAnswer(Integer answer) {
+    this.answer = answer;
+  }
+
+  /**
+   * Gets the name of the query scanning the answers, it selects the answer and the patient id
+   *
+   * @return the query name
+   */
+  public String getQueryName() {
+    return queryName;
+  }
+
+  public void setQueryName(String queryName) {
+    this.queryName = queryName;
+  }
+
+  public Date getStartDate() {
+    return startDate;
+  }
+
+  public void setStartDate(Date startDate) {
+    this.startDate = startDate;
+  }
+
+  public Date getEndDate() {
+    return endDate;
+  }
+
+  public void setEndDate(Date endDate) {
+    this.endDate = endDate;
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.ehrreports.reporting.cohort.definition;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import org.openmrs.module.ehrreports.reporting.library.queries.ReportQueries;
+import org.openmrs.module.ehrreports.reporting.library.queries.ReportQuery;
+import org.openmrs.module.reporting.cohort.definition.BaseCohortDefinition;
+import org.openmrs.module.reporting.definition.configuration.ConfigurationProperty;
+import org.openmrs.module.reporting.definition.configuration.ConfigurationPropertyAndParameterCachingStrategy;
+import org.openmrs.module.reporting.evaluation.caching.Caching;
+
+/**
+ * Patients returned by a registered {@link ReportQuery}. The metadata ids are bound as query
+ * parameters instead of being written into the SQL, and ${startDate} and ${endDate} are bound as
+ * the startDate and endDate parameters.
+ */
+@Caching(strategy = ConfigurationPropertyAndParameterCachingStrategy.class)
+public class ReportQueryCohortDefinition extends BaseCohortDefinition {
+
+  @ConfigurationProperty(required = true)
+  private String queryName;
+
+  @ConfigurationProperty private Map<String, Object> queryParameters;
+
+  @ConfigurationProperty private Date startDate;
+
+  @ConfigurationProperty private Date endDate;
+
+  /** Default constructor */
+  public ReportQueryCohortDefinition() {}
+
+  /**
+   * Constructor to populate name and query
+   *
+   * @param name the name
+   * @param query the query, must be registered in {@link ReportQueries}
+   */
+  public ReportQueryCohortDefinition(String name, ReportQuery query) {
+    setName(name);
+    setQueryName(query.getName());
+  }
+
+  public String getQueryName() {
+    return queryName;
+  }
+
+  public void setQueryName(String queryName) {
+    this.queryName = queryName;
+  }
+
+  /**
+   * Gets the values of the query parameters other than startDate and endDate
+   *
+   * @return the parameter values
+   */
+  public Map<String, Object> getQueryParameters() {
+    return queryParameters;
+  }
+
+  public void setQueryParameters(Map<String, Object> queryParameters) {
+    this.queryParameters = queryParameters;
+  }
+
+  /**
+   * Adds a query parameter value
+   *
+   * @param name the parameter name
+   * @param value the value, a collection for list parameters
+   */
+  public void addQueryParameter(String name, Object value) {
+    if (queryParameters == null) {
+      queryParameters = new HashMap<String, Object>();
+    }
+    queryParameters.put(name, value);
+  }
+
+  public Date getStartDate() {
+    return startDate;
+  }
+
+  public void setStartDate(Date startDate) {
+    this.startDate = startDate;
+  }
+
+  public Date getEndDate() {
+    return endDate;
+  }
+
+  public void setEndDate(Date endDate) {
+    this.endDate = endDate;
+  }
+}
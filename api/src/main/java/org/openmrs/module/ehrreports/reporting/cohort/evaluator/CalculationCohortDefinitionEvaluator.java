@@ -14,12 +14,11 @@
 package org.openmrs.module.ehrreports.reporting.cohort.evaluator;
 
 import java.util.Set;
-import org.openmrs.Cohort;
 import org.openmrs.annotation.Handler;
 import org.openmrs.api.context.Context;
-import org.openmrs.calculation.patient.PatientCalculationContext;
-import org.openmrs.calculation.patient.PatientCalculationService;
 import org.openmrs.calculation.result.CalculationResultMap;
+import org.openmrs.module.ehrreports.reporting.cohort.BitSetCohort;
+import org.openmrs.module.ehrreports.reporting.cohort.CalculationCohortCache;
 import org.openmrs.module.ehrreports.reporting.cohort.definition.CalculationCohortDefinition;
 import org.openmrs.module.ehrreports.reporting.utils.EhrCalculationUtils;
 import org.openmrs.module.reporting.cohort.EvaluatedCohort;
@@ -28,7 +27,10 @@ import org.openmrs.module.reporting.cohort.definition.evaluator.CohortDefinition
 import org.openmrs.module.reporting.evaluation.EvaluationContext;
 import org.openmrs.module.reporting.evaluation.EvaluationException;
 
-/** Evaluator for calculation based cohorts */
+/**
+ * Evaluator for calculation based cohorts. The passing patients are kept in the {@link
+ * CalculationCohortCache} so a rerun for the same dates is answered without the calculation.
+ */
 @Handler(supports = CalculationCohortDefinition.class)
 public class CalculationCohortDefinitionEvaluator implements CohortDefinitionEvaluator {
 
@@ -40,14 +42,28 @@ public class CalculationCohortDefinitionEvaluator implements CohortDefinitionEva
   @Override
   public EvaluatedCohort evaluate(CohortDefinition cohortDefinition, EvaluationContext context)
       throws EvaluationException {
-    CalculationResultMap map = doCalculation(cohortDefinition, context);
-
     CalculationCohortDefinition cd = (CalculationCohortDefinition) cohortDefinition;
+    CalculationCohortCache cache =
+        Context.getRegisteredComponents(CalculationCohortCache.class).get(0);
+    String key = cache.getKey(cd, context);
+    CalculationCohortCache.ChangeMark mark = null;
+    if (key != null) {
+      Set<Integer> cached = cache.get(key);
+      if (cached != null) {
+        return new BitSetCohort(cached, cohortDefinition, context);
+      }
+      mark = cache.getChangeMark();
+    }
+
+    CalculationResultMap map = doCalculation(cohortDefinition, context);
     Set<Integer> passing =
         EhrCalculationUtils.patientsThatPass(
             map, cd.getWithResult(), cd.getWithResultFinder(), context);
 
-    return new EvaluatedCohort(new Cohort(passing), cohortDefinition, context);
+    if (key != null) {
+      cache.put(key, mark, cd.getOnOrBefore(), passing);
+    }
+    return new BitSetCohort(passing, cohortDefinition, context);
   }
 
   /**
@@ -60,19 +76,13 @@ public class CalculationCohortDefinitionEvaluator implements CohortDefinitionEva
   protected CalculationResultMap doCalculation(
       CohortDefinition cohortDefinition, EvaluationContext context) {
     CalculationCohortDefinition cd = (CalculationCohortDefinition) cohortDefinition;
-
-    PatientCalculationService pcs = Context.getService(PatientCalculationService.class);
-    PatientCalculationContext calcContext = pcs.createCalculationContext();
-    calcContext.addToCache("location", cd.getLocation());
-    calcContext.addToCache("onOrAfter", cd.getOnOrAfter());
-    calcContext.addToCache("onOrBefore", cd.getOnOrBefore());
-
-    Cohort cohort = context.getBaseCohort();
-    if (cohort == null) {
-      cohort = Context.getPatientSetService().getAllPatients();
-    }
-
-    return pcs.evaluate(
-        cohort.getMemberIds(), cd.getCalculation(), cd.getCalculationParameters(), calcContext);
+    return EhrCalculationUtils.evaluateCalculation(
+        cd.getCalculation(),
+        cd.getCalculationParameters(),
+        cd.getOnOrAfter(),
+        cd.getOnOrBefore(),
+        cd.getLocation(),
+        cd.getCandidates(),
+        context);
   }
 }
@@ -0,0 +1,222 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.ehrreports.reporting.cohort.evaluator;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import org.openmrs.Cohort;
+import org.openmrs.annotation.Handler;
+import org.openmrs.api.context.Context;
+import org.openmrs.calculation.patient.PatientCalculation;
+import org.openmrs.calculation.result.CalculationResult;
+import org.openmrs.calculation.result.CalculationResultMap;
+import org.openmrs.module.ehrreports.EhrReportsConfig;
+import org.openmrs.module.ehrreports.reporting.calculation.FirstVisitOccurenceCalculation;
+import org.openmrs.module.ehrreports.reporting.calculation.PatientOccurenceCalculation;
+import org.openmrs.module.ehrreports.reporting.cohort.BitSetCohort;
+import org.openmrs.module.ehrreports.reporting.cohort.CalculationCohortCache;
+import org.openmrs.module.ehrreports.reporting.cohort.PatientIdSet;
+import org.openmrs.module.ehrreports.reporting.cohort.definition.CalculationPartitionDimension;
+import org.openmrs.module.ehrreports.reporting.utils.EhrCalculationUtils;
+import org.openmrs.module.reporting.evaluation.EvaluationContext;
+import org.openmrs.module.reporting.evaluation.EvaluationException;
+import org.openmrs.module.reporting.evaluation.caching.ConfigurationPropertyCachingStrategy;
+import org.openmrs.module.reporting.indicator.dimension.CohortDimensionResult;
+import org.openmrs.module.reporting.indicator.dimension.Dimension;
+import org.openmrs.module.reporting.indicator.dimension.evaluator.DimensionEvaluator;
+
+/**
+ * Evaluator for {@link CalculationPartitionDimension}. The calculation runs once per evaluation
+ * context and the partitions are kept in the context cache, so every option of the dimension is
+ * served from the same pass. The partitions are also kept in the {@link CalculationCohortCache}
+ * between report runs. When {@link EhrReportsConfig#GP_USE_OPD_VISIT_FACT_TABLE} is set the
+ * NEW/REVISIT calculation is replaced by its counterpart on the first visit table. Ordered before
+ * the reporting {@code CohortDefinitionDimension} evaluator.
+ */
+@Handler(supports = CalculationPartitionDimension.class, order = 50)
+public class CalculationPartitionDimensionEvaluator implements DimensionEvaluator {
+
+  private final ConfigurationPropertyCachingStrategy cachingStrategy =
+      new ConfigurationPropertyCachingStrategy();
+
+  /**
+   * @see
+   *     org.openmrs.module.reporting.indicator.dimension.evaluator.DimensionEvaluator#evaluate(org.openmrs.module.reporting.indicator.dimension.Dimension,
+   *     org.openmrs.module.reporting.evaluation.EvaluationContext)
+   */
+  @Override
+  @SuppressWarnings("unchecked")
+  public CohortDimensionResult evaluate(Dimension dimension, EvaluationContext context)
+      throws EvaluationException {
+    CalculationPartitionDimension dim = (CalculationPartitionDimension) dimension;
+    PatientCalculation calculation = getCalculation(dim);
+    Date onOrAfter = dateOrParameter(dim.getOnOrAfter(), "onOrAfter", context);
+    Date onOrBefore = dateOrParameter(dim.getOnOrBefore(), "onOrBefore", context);
+
+    String cacheKey = getCacheKey(dim, calculation, onOrAfter, onOrBefore, context);
+    Map<String, Cohort> partitions =
+        cacheKey == null ? null : (Map<String, Cohort>) context.getFromCache(cacheKey);
+    if (partitions == null) {
+      partitions = new LinkedHashMap<String, Cohort>();
+      for (Map.Entry<String, Set<Integer>> e :
+          partitionMembers(dim, calculation, onOrAfter, onOrBefore, context).entrySet()) {
+        partitions.put(e.getKey(), new BitSetCohort(e.getValue(), null, context));
+      }
+      if (cacheKey != null) {
+        context.addToCache(cacheKey, partitions);
+      }
+    }
+
+    CohortDimensionResult ret = new CohortDimensionResult(dim, context);
+    ret.getOptionCohorts().putAll(partitions);
+    return ret;
+  }
+
+  /**
+   * Gets the members of each option from the {@link CalculationCohortCache}, or partitions the
+   * patients and caches them there for the next runs
+   *
+   * @return option key to patient ids
+   */
+  private Map<String, Set<Integer>> partitionMembers(
+      CalculationPartitionDimension dim,
+      PatientCalculation calculation,
+      Date onOrAfter,
+      Date onOrBefore,
+      EvaluationContext context) {
+    CalculationCohortCache cache =
+        Context.getRegisteredComponents(CalculationCohortCache.class).get(0);
+    String key = cache.getKey(dim, calculation, onOrAfter, onOrBefore, context);
+    if (key == null) {
+      return partition(dim, calculation, onOrAfter, onOrBefore, context);
+    }
+    Map<String, Set<Integer>> members = cache.getPartitions(key);
+    if (members == null) {
+      CalculationCohortCache.ChangeMark mark = cache.getChangeMark();
+      members = partition(dim, calculation, onOrAfter, onOrBefore, context);
+      cache.putPartitions(key, mark, onOrBefore, members);
+    }
+    return members;
+  }
+
+  /**
+   * Runs the calculation and puts each patient in the options matching their result
+   *
+   * @return option key to patient ids, every option is present even when empty
+   */
+  protected Map<String, Set<Integer>> partition(
+      CalculationPartitionDimension dim,
+      PatientCalculation calculation,
+      Date onOrAfter,
+      Date onOrBefore,
+      EvaluationContext context) {
+    CalculationResultMap results =
+        EhrCalculationUtils.evaluateCalculation(
+            calculation,
+            dim.getCalculationParameters(),
+            onOrAfter,
+            onOrBefore,
+            dim.getLocation(),
+            dim.getCandidates(),
+            context);
+
+    Map<String, List<Set<Integer>>> membersByValue = new HashMap<String, List<Set<Integer>>>();
+    Map<String, Set<Integer>> members = new LinkedHashMap<String, Set<Integer>>();
+    for (Map.Entry<String, String> option : dim.getOptions().entrySet()) {
+      Set<Integer> optionMembers = new PatientIdSet();
+      members.put(option.getKey(), optionMembers);
+      List<Set<Integer>> sameValue = membersByValue.get(option.getValue());
+      if (sameValue == null) {
+        sameValue = new ArrayList<Set<Integer>>();
+        membersByValue.put(option.getValue(), sameValue);
+      }
+      sameValue.add(optionMembers);
+    }
+
+    for (Map.Entry<Integer, CalculationResult> e : results.entrySet()) {
+      Object value = e.getValue() == null ? null : e.getValue().getValue();
+      if (value instanceof Enum) {
+        List<Set<Integer>> targets = membersByValue.get(((Enum<?>) value).name());
+        if (targets != null) {
+          for (Set<Integer> target : targets) {
+            target.add(e.getKey());
+          }
+        }
+      }
+    }
+
+    return members;
+  }
+
+  /**
+   * Gets the calculation to run, the counterpart of the dimension's calculation on the first visit
+   * table when the OPD visit fact table is enabled. Read at each evaluation like the fact table
+   * queries, so switching the global property takes effect without setting the reports up again.
+   *
+   * @param dim the dimension
+   * @return the calculation
+   */
+  protected PatientCalculation getCalculation(CalculationPartitionDimension dim) {
+    if (dim.getCalculation() instanceof PatientOccurenceCalculation
+        && EhrReportsConfig.isOpdVisitFactTableEnabled()) {
+      return Context.getRegisteredComponents(FirstVisitOccurenceCalculation.class).get(0);
+    }
+    return dim.getCalculation();
+  }
+
+  private Date dateOrParameter(Date value, String parameterName, EvaluationContext context) {
+    if (value != null) {
+      return value;
+    }
+    Object parameterValue = context.getParameterValue(parameterName);
+    return parameterValue instanceof Date ? (Date) parameterValue : null;
+  }
+
+  /** @return the key of the partitions in the context cache, null if they can not be cached */
+  private String getCacheKey(
+      CalculationPartitionDimension dim,
+      PatientCalculation calculation,
+      Date onOrAfter,
+      Date onOrBefore,
+      EvaluationContext context) {
+    StringBuilder key = new StringBuilder(CalculationPartitionDimension.class.getName());
+    key.append(":").append(calculation.getClass().getName());
+    key.append(":").append(dim.getCalculationParameters());
+    key.append(":").append(onOrAfter == null ? "" : String.valueOf(onOrAfter.getTime()));
+    key.append(":").append(onOrBefore == null ? "" : String.valueOf(onOrBefore.getTime()));
+    key.append(":").append(dim.getLocation() == null ? "" : dim.getLocation().getUuid());
+    key.append(":").append(new TreeMap<String, String>(dim.getOptions()));
+    if (dim.getCandidates() != null) {
+      String candidatesKey = cachingStrategy.getCacheKey(dim.getCandidates().getParameterizable());
+      if (candidatesKey == null) {
+        return null;
+      }
+      key.append(":").append(candidatesKey);
+      key.append(":")
+          .append(new TreeMap<String, Object>(dim.getCandidates().getParameterMappings()));
+      key.append(":").append(new TreeMap<String, Object>(context.getParameterValues()));
+    }
+    Cohort baseCohort = context.getBaseCohort();
+    if (baseCohort != null) {
+      key.append(":").append(PatientIdSet.of(baseCohort.getMemberIds()).digest());
+    }
+    return key.toString();
+  }
+}
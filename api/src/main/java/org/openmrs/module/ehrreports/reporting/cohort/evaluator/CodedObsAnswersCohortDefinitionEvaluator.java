@@ -0,0 +1,128 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.ehrreports.reporting.cohort.evaluator;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.openmrs.Cohort;
+import org.openmrs.annotation.Handler;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.ehrreports.EhrReportsConfig;
+import org.openmrs.module.ehrreports.api.EhrReportsService;
+import org.openmrs.module.ehrreports.reporting.cohort.BitSetCohort;
+import org.openmrs.module.ehrreports.reporting.cohort.PatientIdSet;
+import org.openmrs.module.ehrreports.reporting.cohort.definition.CodedObsAnswersCohortDefinition;
+import org.openmrs.module.ehrreports.reporting.library.queries.ReportQueries;
+import org.openmrs.module.ehrreports.reporting.library.queries.ReportQuery;
+import org.openmrs.module.ehrreports.reporting.library.queries.moh717.Moh717Queries;
+import org.openmrs.module.reporting.cohort.EvaluatedCohort;
+import org.openmrs.module.reporting.cohort.definition.CohortDefinition;
+import org.openmrs.module.reporting.cohort.definition.evaluator.CohortDefinitionEvaluator;
+import org.openmrs.module.reporting.evaluation.EvaluationContext;
+import org.openmrs.module.reporting.evaluation.EvaluationException;
+
+/**
+ * Evaluator for {@link CodedObsAnswersCohortDefinition}. The patients of every answer are fetched
+ * with one query and kept in the context cache, later definitions for another answer of the same
+ * scan only read their slice.
+ */
+@Handler(supports = CodedObsAnswersCohortDefinition.class)
+public class CodedObsAnswersCohortDefinitionEvaluator implements CohortDefinitionEvaluator {
+
+  /**
+   * @see
+   *     org.openmrs.module.reporting.cohort.definition.evaluator.CohortDefinitionEvaluator#evaluate(org.openmrs.module.reporting.cohort.definition.CohortDefinition,
+   *     org.openmrs.module.reporting.evaluation.EvaluationContext)
+   */
+  @Override
+  @SuppressWarnings("unchecked")
+  public EvaluatedCohort evaluate(CohortDefinition cohortDefinition, EvaluationContext context)
+      throws EvaluationException {
+    CodedObsAnswersCohortDefinition cd = (CodedObsAnswersCohortDefinition) cohortDefinition;
+
+    ReportQuery query;
+    try {
+      query = getQuery(cd);
+    } catch (IllegalArgumentException ex) {
+      throw new EvaluationException(cd.getName(), ex);
+    }
+    String cacheKey = getCacheKey(cd, query);
+    Map<Integer, PatientIdSet> patientsByAnswer =
+        (Map<Integer, PatientIdSet>) context.getFromCache(cacheKey);
+    if (patientsByAnswer == null) {
+      try {
+        patientsByAnswer = scan(cd, query);
+      } catch (IllegalArgumentException ex) {
+        throw new EvaluationException(cd.getName(), ex);
+      }
+      context.addToCache(cacheKey, patientsByAnswer);
+    }
+
+    PatientIdSet patients = PatientIdSet.copyOf(patientsByAnswer.get(cd.getAnswer()));
+    Cohort baseCohort = context.getBaseCohort();
+    if (baseCohort != null) {
+      patients.retainAll(baseCohort.getMemberIds());
+    }
+    return new BitSetCohort(patients, cohortDefinition, context);
+  }
+
+  /**
+   * Fetches the patients of all the answers
+   *
+   * @param query the query selecting the answer and the patient_id
+   * @return answer concept id to patient ids
+   */
+  protected Map<Integer, PatientIdSet> scan(CodedObsAnswersCohortDefinition cd, ReportQuery query) {
+    Map<String, Object> parameterValues = new HashMap<String, Object>();
+    parameterValues.put("encounterTypes", cd.getEncounterTypeIds());
+    parameterValues.put("question", cd.getQuestion());
+    parameterValues.put("answers", cd.getAnswers());
+    parameterValues.put("startDate", cd.getStartDate());
+    parameterValues.put("endDate", cd.getEndDate());
+
+    Map<Integer, PatientIdSet> ret = new HashMap<Integer, PatientIdSet>();
+    for (Integer answer : cd.getAnswers()) {
+      ret.put(answer, new PatientIdSet());
+    }
+    for (Object[] row :
+        Context.getService(EhrReportsService.class).getRows(query, parameterValues)) {
+      PatientIdSet patients = ret.get(((Number) row[0]).intValue());
+      if (patients != null) {
+        patients.add(((Number) row[1]).intValue());
+      }
+    }
+    return ret;
+  }
+
+  /** The query of the definition, on the OPD visit fact table when it is enabled */
+  private ReportQuery getQuery(CodedObsAnswersCohortDefinition cd) {
+    return ReportQueries.get(
+        cd.getQueryName() == null
+            ? Moh717Queries.SPECIAL_CLINIC_PATIENTS_BY_ANSWER.getName()
+            : cd.getQueryName(),
+        EhrReportsConfig.isOpdVisitFactTableEnabled());
+  }
+
+  private String getCacheKey(CodedObsAnswersCohortDefinition cd, ReportQuery query) {
+    StringBuilder sb = new StringBuilder(CodedObsAnswersCohortDefinition.class.getName());
+    sb.append("|").append(query.getName());
+    sb.append("|").append(cd.getEncounterTypeIds());
+    sb.append("|").append(cd.getQuestion());
+    sb.append("|").append(cd.getAnswers());
+    sb.append("|")
+        .append(cd.getStartDate() == null ? "" : String.valueOf(cd.getStartDate().getTime()));
+    sb.append("|").append(cd.getEndDate() == null ? "" : String.valueOf(cd.getEndDate().getTime()));
+    return sb.toString();
+  }
+}
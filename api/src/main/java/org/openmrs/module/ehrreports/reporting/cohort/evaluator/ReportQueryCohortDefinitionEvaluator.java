@@ -0,0 +1,67 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.ehrreports.reporting.cohort.evaluator;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.openmrs.annotation.Handler;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.ehrreports.EhrReportsConfig;
+import org.openmrs.module.ehrreports.api.EhrReportsService;
+import org.openmrs.module.ehrreports.reporting.cohort.BitSetCohort;
+import org.openmrs.module.ehrreports.reporting.cohort.definition.ReportQueryCohortDefinition;
+import org.openmrs.module.ehrreports.reporting.library.queries.ReportQueries;
+import org.openmrs.module.reporting.cohort.EvaluatedCohort;
+import org.openmrs.module.reporting.cohort.definition.CohortDefinition;
+import org.openmrs.module.reporting.cohort.definition.evaluator.CohortDefinitionEvaluator;
+import org.openmrs.module.reporting.common.DateUtil;
+import org.openmrs.module.reporting.evaluation.EvaluationContext;
+import org.openmrs.module.reporting.evaluation.EvaluationException;
+
+/** Evaluator for {@link ReportQueryCohortDefinition} */
+@Handler(supports = ReportQueryCohortDefinition.class)
+public class ReportQueryCohortDefinitionEvaluator implements CohortDefinitionEvaluator {
+
+  /**
+   * @see
+   *     org.openmrs.module.reporting.cohort.definition.evaluator.CohortDefinitionEvaluator#evaluate(org.openmrs.module.reporting.cohort.definition.CohortDefinition,
+   *     org.openmrs.module.reporting.evaluation.EvaluationContext)
+   */
+  @Override
+  public EvaluatedCohort evaluate(CohortDefinition cohortDefinition, EvaluationContext context)
+      throws EvaluationException {
+    ReportQueryCohortDefinition cd = (ReportQueryCohortDefinition) cohortDefinition;
+    Map<String, Object> parameterValues = new HashMap<String, Object>();
+    if (cd.getQueryParameters() != null) {
+      parameterValues.putAll(cd.getQueryParameters());
+    }
+    parameterValues.put("startDate", cd.getStartDate());
+    parameterValues.put("endDate", cd.getEndDate());
+    if (cd.getEndDate() != null) {
+      parameterValues.put("endOfDay", DateUtil.getEndOfDayIfTimeExcluded(cd.getEndDate()));
+    }
+    try {
+      return new BitSetCohort(
+          Context.getService(EhrReportsService.class)
+              .getPatientIds(
+                  ReportQueries.get(
+                      cd.getQueryName(), EhrReportsConfig.isOpdVisitFactTableEnabled()),
+                  parameterValues),
+          cohortDefinition,
+          context);
+    } catch (IllegalArgumentException ex) {
+      throw new EvaluationException(cd.getName(), ex);
+    }
+  }
+}
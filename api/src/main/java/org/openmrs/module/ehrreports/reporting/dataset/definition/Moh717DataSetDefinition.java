@@ -0,0 +1,158 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.ehrreports.reporting.dataset.definition;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.openmrs.module.ehrreports.reporting.cohort.definition.ReportQueryCohortDefinition;
+import org.openmrs.module.ehrreports.reporting.library.datasets.BaseDataSet.ColumnParameters;
+import org.openmrs.module.reporting.dataset.definition.BaseDataSetDefinition;
+import org.openmrs.module.reporting.definition.configuration.ConfigurationProperty;
+
+/**
+ * MOH 717 data set evaluated with a single grouped query. Every row is a patient query and every
+ * column a combination of the gender (M/F), age (&lt;5/5+) and state (NEW/RVT) dimensions, with the
+ * same keys as the cohort indicator version of the data set.
+ */
+public class Moh717DataSetDefinition extends BaseDataSetDefinition {
+
+  @ConfigurationProperty(required = true)
+  private List<Row> rows = new ArrayList<Row>();
+
+  @ConfigurationProperty(required = true)
+  private List<Integer> revisitEncounterTypeIds = new ArrayList<Integer>();
+
+  /** Default constructor */
+  public Moh717DataSetDefinition() {}
+
+  /**
+   * Adds a row
+   *
+   * @param key the row key, the base of the column names
+   * @param label the row label
+   * @param patients the patients of the row, its query is run with the startDate and endDate of the
+   *     data set
+   * @param columns the columns of the row
+   */
+  public void addRow(
+      String key,
+      String label,
+      ReportQueryCohortDefinition patients,
+      List<ColumnParameters> columns) {
+    rows.add(new Row(key, label, patients.getQueryName(), patients.getQueryParameters(), columns));
+  }
+
+  /**
+   * Adds a row out of a grouped patient query, which also selects a row_value column. Rows with the
+   * same query and parameters share one scan.
+   *
+   * @param key the row key, the base of the column names
+   * @param label the row label
+   * @param patients the patients of all the rows of the group, its query is run with the startDate
+   *     and endDate of the data set
+   * @param rowValue the row_value of the patients of this row
+   * @param columns the columns of the row
+   */
+  public void addRow(
+      String key,
+      String label,
+      ReportQueryCohortDefinition patients,
+      Object rowValue,
+      List<ColumnParameters> columns) {
+    Row row = new Row(key, label, patients.getQueryName(), patients.getQueryParameters(), columns);
+    row.rowValue = rowValue;
+    rows.add(row);
+  }
+
+  public List<Row> getRows() {
+    return rows;
+  }
+
+  public void setRows(List<Row> rows) {
+    this.rows = rows;
+  }
+
+  public List<Integer> getRevisitEncounterTypeIds() {
+    return revisitEncounterTypeIds;
+  }
+
+  public void setRevisitEncounterTypeIds(List<Integer> revisitEncounterTypeIds) {
+    this.revisitEncounterTypeIds = revisitEncounterTypeIds;
+  }
+
+  /** A row of the data set */
+  public static class Row {
+
+    private String key;
+
+    private String label;
+
+    private String queryName;
+
+    private Map<String, Object> queryParameters;
+
+    private Object rowValue;
+
+    private List<ColumnParameters> columns;
+
+    /** Default constructor */
+    public Row() {}
+
+    /**
+     * @param key the row key
+     * @param label the row label
+     * @param queryName the name of the registered patient query
+     * @param queryParameters the values of the query parameters other than startDate and endDate
+     * @param columns the columns
+     */
+    public Row(
+        String key,
+        String label,
+        String queryName,
+        Map<String, Object> queryParameters,
+        List<ColumnParameters> columns) {
+      this.key = key;
+      this.label = label;
+      this.queryName = queryName;
+      this.queryParameters = queryParameters;
+      this.columns = columns;
+    }
+
+    public String getKey() {
+      return key;
+    }
+
+    public String getLabel() {
+      return label;
+    }
+
+    public String getQueryName() {
+      return queryName;
+    }
+
+    public Map<String, Object> getQueryParameters() {
+      return queryParameters;
+    }
+
+    /** @return the row_value of a row of a grouped query, null for a row with a query of its own */
+    public Object getRowValue() {
+      return rowValue;
+    }
+
+    public List<ColumnParameters> getColumns() {
+      return columns;
+    }
+  }
+}
@@ -0,0 +1,185 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.ehrreports.reporting.dataset.evaluator;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.apache.commons.lang.ObjectUtils;
+import org.apache.commons.lang.StringUtils;
+import org.openmrs.annotation.Handler;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.ehrreports.EhrReportsConfig;
+import org.openmrs.module.ehrreports.api.EhrReportsService;
+import org.openmrs.module.ehrreports.reporting.dataset.definition.Moh717DataSetDefinition;
+import org.openmrs.module.ehrreports.reporting.library.datasets.BaseDataSet.ColumnParameters;
+import org.openmrs.module.ehrreports.reporting.library.queries.ReportQueries;
+import org.openmrs.module.ehrreports.reporting.library.queries.ReportQuery;
+import org.openmrs.module.ehrreports.reporting.library.queries.moh717.Moh717Queries;
+import org.openmrs.module.reporting.common.DateUtil;
+import org.openmrs.module.reporting.dataset.DataSet;
+import org.openmrs.module.reporting.dataset.DataSetColumn;
+import org.openmrs.module.reporting.dataset.MapDataSet;
+import org.openmrs.module.reporting.dataset.definition.DataSetDefinition;
+import org.openmrs.module.reporting.dataset.definition.evaluator.DataSetEvaluator;
+import org.openmrs.module.reporting.evaluation.EvaluationContext;
+import org.openmrs.module.reporting.evaluation.EvaluationException;
+
+/**
+ * Evaluator for {@link Moh717DataSetDefinition}. Runs {@link Moh717Queries#getWorkloadSummary} once
+ * and fills every cell by adding up the counts of the groups matching its dimensions.
+ */
+@Handler(supports = Moh717DataSetDefinition.class)
+public class Moh717DataSetEvaluator implements DataSetEvaluator {
+
+  private static final String[] DIMENSIONS = {"gender", "age", "state"};
+
+  @Override
+  public DataSet evaluate(DataSetDefinition dataSetDefinition, EvaluationContext context)
+      throws EvaluationException {
+    Moh717DataSetDefinition dsd = (Moh717DataSetDefinition) dataSetDefinition;
+    Date startDate = (Date) context.getParameterValue("startDate");
+    Date endDate = (Date) context.getParameterValue("endDate");
+    if (startDate == null || endDate == null) {
+      throw new EvaluationException("MOH 717 data set without startDate and endDate");
+    }
+
+    // read once, so the rows and the revisits come from the same table
+    boolean fromOpdVisits = EhrReportsConfig.isOpdVisitFactTableEnabled();
+    Map<String, ReportQuery> rowQueries = new LinkedHashMap<String, ReportQuery>();
+    Map<String, Object> parameterValues = new HashMap<String, Object>();
+    // the rows of a grouped query are run once, under the key of the first of them
+    List<Moh717DataSetDefinition.Row> groupedRows = new ArrayList<Moh717DataSetDefinition.Row>();
+    Map<String, String> rowKeys = new HashMap<String, String>();
+    for (Moh717DataSetDefinition.Row row : dsd.getRows()) {
+      if (row.getRowValue() == null) {
+        rowKeys.put(row.getKey(), row.getKey());
+        addRowQuery(row, fromOpdVisits, rowQueries, parameterValues);
+        continue;
+      }
+      Moh717DataSetDefinition.Row group = getGroup(groupedRows, row);
+      if (group == null) {
+        group = row;
+        groupedRows.add(row);
+        addRowQuery(row, fromOpdVisits, rowQueries, parameterValues);
+      }
+      rowKeys.put(Moh717Queries.getSummaryRowKey(group.getKey(), row.getRowValue()), row.getKey());
+    }
+    Set<String> groupKeys = new HashSet<String>();
+    for (Moh717DataSetDefinition.Row group : groupedRows) {
+      groupKeys.add(group.getKey());
+    }
+    parameterValues.put("revisitEncounterTypes", dsd.getRevisitEncounterTypeIds());
+    parameterValues.put("startDate", startDate);
+    parameterValues.put("endDate", endDate);
+    parameterValues.put("endOfDay", DateUtil.getEndOfDayIfTimeExcluded(endDate));
+
+    Map<String, List<Object[]>> groupsByRow = new HashMap<String, List<Object[]>>();
+    for (Object[] group :
+        Context.getService(EhrReportsService.class)
+            .getRows(
+                Moh717Queries.getWorkloadSummary(rowQueries, groupKeys, fromOpdVisits),
+                parameterValues)) {
+      String rowKey = rowKeys.get(String.valueOf(group[0]));
+      if (rowKey == null) {
+        continue;
+      }
+      List<Object[]> groups = groupsByRow.get(rowKey);
+      if (groups == null) {
+        groups = new ArrayList<Object[]>();
+        groupsByRow.put(rowKey, groups);
+      }
+      groups.add(group);
+    }
+
+    MapDataSet ret = new MapDataSet(dataSetDefinition, context);
+    for (Moh717DataSetDefinition.Row row : dsd.getRows()) {
+      List<Object[]> groups = groupsByRow.get(row.getKey());
+      for (ColumnParameters column : row.getColumns()) {
+        ret.addData(
+            new DataSetColumn(
+                row.getKey() + "-" + column.getColumn(),
+                row.getLabel() + " (" + column.getLabel() + ")",
+                Integer.class),
+            count(groups, parseDimensions(column.getDimensions())));
+      }
+    }
+    return ret;
+  }
+
+  private void addRowQuery(
+      Moh717DataSetDefinition.Row row,
+      boolean fromOpdVisits,
+      Map<String, ReportQuery> rowQueries,
+      Map<String, Object> parameterValues) {
+    rowQueries.put(row.getKey(), ReportQueries.get(row.getQueryName(), fromOpdVisits));
+    if (row.getQueryParameters() != null) {
+      String prefix = Moh717Queries.getSummaryRowPrefix(row.getKey());
+      for (Map.Entry<String, Object> e : row.getQueryParameters().entrySet()) {
+        parameterValues.put(prefix + e.getKey(), e.getValue());
+      }
+    }
+  }
+
+  /** The first grouped row with the same query and parameters as the row, if any */
+  private Moh717DataSetDefinition.Row getGroup(
+      List<Moh717DataSetDefinition.Row> groupedRows, Moh717DataSetDefinition.Row row) {
+    for (Moh717DataSetDefinition.Row group : groupedRows) {
+      if (group.getQueryName().equals(row.getQueryName())
+          && ObjectUtils.equals(group.getQueryParameters(), row.getQueryParameters())) {
+        return group;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Adds up the patients of the groups matching the dimension options. Group columns are row key,
+   * gender, age band, state and patient count.
+   */
+  private Integer count(List<Object[]> groups, Map<String, String> dimensions) {
+    int count = 0;
+    if (groups != null) {
+      for (Object[] group : groups) {
+        boolean matches = true;
+        for (int i = 0; i < DIMENSIONS.length && matches; i++) {
+          String option = dimensions.get(DIMENSIONS[i]);
+          matches =
+              option == null || (group[i + 1] != null && option.equals(group[i + 1].toString()));
+        }
+        if (matches) {
+          count += ((Number) group[4]).intValue();
+        }
+      }
+    }
+    return count;
+  }
+
+  /** Parses column dimensions such as "gender=M|age=5+|state=NEW" */
+  private Map<String, String> parseDimensions(String dimensions) {
+    Map<String, String> ret = new HashMap<String, String>();
+    if (StringUtils.isNotBlank(dimensions)) {
+      for (String dimension : dimensions.split("\\|")) {
+        String[] option = dimension.split("=", 2);
+        ret.put(option[0].trim(), option[1].trim());
+      }
+    }
+    return ret;
+  }
+}
@@ -11,15 +11,19 @@
  */
 package org.openmrs.module.ehrreports.reporting.library.cohorts;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
-import org.openmrs.api.context.Context;
+import java.util.List;
+import org.openmrs.module.ehrreports.EhrReportsConfig;
 import org.openmrs.module.ehrreports.metadata.OutpatientMetadata;
-import org.openmrs.module.ehrreports.reporting.calculation.PatientOccurenceCalculation;
-import org.openmrs.module.ehrreports.reporting.cohort.definition.CalculationCohortDefinition;
+import org.openmrs.module.ehrreports.reporting.cohort.definition.CodedObsAnswersCohortDefinition;
+import org.openmrs.module.ehrreports.reporting.cohort.definition.ReportQueryCohortDefinition;
+import org.openmrs.module.ehrreports.reporting.library.queries.ReportQuery;
 import org.openmrs.module.ehrreports.reporting.library.queries.moh717.Moh717Queries;
-import org.openmrs.module.ehrreports.reporting.utils.EhrReportConstants;
+import org.openmrs.module.ehrreports.reporting.utils.EhrReportUtils;
 import org.openmrs.module.reporting.cohort.definition.CohortDefinition;
-import org.openmrs.module.reporting.cohort.definition.SqlCohortDefinition;
+import org.openmrs.module.reporting.evaluation.parameter.Mapped;
 import org.openmrs.module.reporting.evaluation.parameter.Parameter;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
@@ -29,14 +33,20 @@ public class Moh717CohortQueries {
 
   @Autowired private OutpatientMetadata outpatientMetadata;
 
-  public CohortDefinition getOutPatients() {
+  @Autowired private CommonLibrary commonLibrary;
 
-    SqlCohortDefinition cd = new SqlCohortDefinition();
-    cd.setName("Outpatient");
-    cd.addParameter(new Parameter("startDate", "StartDate", Date.class));
-    cd.addParameter(new Parameter("endDate", "End Date", Date.class));
-    cd.setQuery(
-        Moh717Queries.getOutPatientClinicPatients(
+  /**
+   * Get outpatients, patients with an outpatient encounter between ${startDate} and ${endDate}.
+   * Read from the OPD visit fact table when {@link EhrReportsConfig#GP_USE_OPD_VISIT_FACT_TABLE} is
+   * set when the cohort is evaluated
+   *
+   * @return CohortDefinition
+   */
+  public ReportQueryCohortDefinition getOutPatients() {
+    ReportQueryCohortDefinition cd = newQueryCohort("Outpatient", Moh717Queries.OUT_PATIENTS);
+    cd.addQueryParameter(
+        "encounterTypes",
+        Arrays.asList(
             outpatientMetadata.getAdultsInitialEncounterType().getEncounterTypeId(),
             outpatientMetadata.getAdultReturnEncounterType().getEncounterTypeId(),
             outpatientMetadata.getPedsInitialEncounterType().getEncounterTypeId(),
@@ -48,56 +58,102 @@ public class Moh717CohortQueries {
   }
 
   /**
-   * Get special clinic patients
+   * Get special clinic patients. The ENT, EYE, TB and Leprosy, STI, Psychiatry and Orthopedic
+   * clinics are fetched together by the first of them to be evaluated, the others reuse that
+   * result. Read from the OPD visit fact table when {@link
+   * EhrReportsConfig#GP_USE_OPD_VISIT_FACT_TABLE} is set when the cohort is evaluated
    *
-   * @param
-   * @return
+   * @param answer the clinic concept id
+   * @return CohortDefinition
    */
   public CohortDefinition getSpecialClinicPatients(int answer) {
-    SqlCohortDefinition cd = new SqlCohortDefinition();
+    CodedObsAnswersCohortDefinition cd = new CodedObsAnswersCohortDefinition();
     cd.setName("Special Clinic Patients");
     cd.addParameter(new Parameter("startDate", "StartDate", Date.class));
     cd.addParameter(new Parameter("endDate", "End Date", Date.class));
-    cd.setQuery(
-        Moh717Queries.getSpecialClinicPatients(
-            outpatientMetadata.getAdultsInitialEncounterType().getEncounterTypeId(),
-            outpatientMetadata.getAdultReturnEncounterType().getEncounterTypeId(),
-            outpatientMetadata.getPedsInitialEncounterType().getEncounterTypeId(),
-            outpatientMetadata.getPedsReturnEncounterType().getEncounterTypeId(),
-            outpatientMetadata.getCheckInEncounterType().getEncounterTypeId(),
-            outpatientMetadata.getAncEncounterType().getEncounterTypeId(),
-            outpatientMetadata.getSpecialClinicConcept().getConceptId(),
-            answer));
+    cd.setEncounterTypeIds(getSpecialClinicEncounterTypeIds());
+    cd.setQuestion(outpatientMetadata.getSpecialClinicConcept().getConceptId());
+    List<Integer> answers = getSpecialClinicAnswers();
+    if (!answers.contains(answer)) {
+      answers.add(answer);
+    }
+    cd.setAnswers(answers);
+    cd.setAnswer(answer);
+    return cd;
+  }
+
+  /**
+   * The special clinics with a row of their own in MOH 717
+   *
+   * @return the clinic concept ids
+   */
+  private List<Integer> getSpecialClinicAnswers() {
+    List<Integer> ret = new ArrayList<Integer>();
+    ret.add(outpatientMetadata.getENTClinicConcept().getConceptId());
+    ret.add(outpatientMetadata.getEYEClinicConcept().getConceptId());
+    ret.add(outpatientMetadata.getTbLeprosyClinicConcept().getConceptId());
+    ret.add(outpatientMetadata.getSTIClinicConcept().getConceptId());
+    ret.add(outpatientMetadata.getPsycthricClinicConcept().getConceptId());
+    ret.add(outpatientMetadata.getOrthopedicClinicConcept().getConceptId());
+    return ret;
+  }
+
+  /**
+   * Get the patients of the ENT, EYE, TB and Leprosy, STI, Psychiatry and Orthopedic clinics in one
+   * scan, with the clinic concept id as row_value. Read from the OPD visit fact table when {@link
+   * EhrReportsConfig#GP_USE_OPD_VISIT_FACT_TABLE} is set when the cohort is evaluated
+   *
+   * @return CohortDefinition
+   */
+  public ReportQueryCohortDefinition getSpecialClinicPatientsByAnswer() {
+    ReportQueryCohortDefinition cd =
+        newQueryCohort("Special Clinic Patients", Moh717Queries.SPECIAL_CLINIC_PATIENTS_BY_ANSWER);
+    cd.addQueryParameter("encounterTypes", getSpecialClinicEncounterTypeIds());
+    cd.addQueryParameter("question", outpatientMetadata.getSpecialClinicConcept().getConceptId());
+    cd.addQueryParameter("answers", getSpecialClinicAnswers());
     return cd;
   }
 
+  private List<Integer> getSpecialClinicEncounterTypeIds() {
+    return Arrays.asList(
+        outpatientMetadata.getAdultsInitialEncounterType().getEncounterTypeId(),
+        outpatientMetadata.getAdultReturnEncounterType().getEncounterTypeId(),
+        outpatientMetadata.getPedsInitialEncounterType().getEncounterTypeId(),
+        outpatientMetadata.getPedsReturnEncounterType().getEncounterTypeId(),
+        outpatientMetadata.getCheckInEncounterType().getEncounterTypeId(),
+        outpatientMetadata.getAncEncounterType().getEncounterTypeId());
+  }
+
   /**
    * Get patients who are queued as casuality during facility visit
    *
    * @return
    */
-  public CohortDefinition getPatientsQueuedAsCasuality() {
-    SqlCohortDefinition cd = new SqlCohortDefinition();
-    cd.setName("Casuality Patients");
-    cd.addParameter(new Parameter("startDate", "StartDate", Date.class));
-    cd.addParameter(new Parameter("endDate", "End Date", Date.class));
-    cd.setQuery(
-        Moh717Queries.getPatientsInCasuality(
+  public ReportQueryCohortDefinition getPatientsQueuedAsCasuality() {
+    ReportQueryCohortDefinition cd =
+        newQueryCohort("Casuality Patients", Moh717Queries.CASUALITY_PATIENTS);
+    cd.addQueryParameter(
+        "questions",
+        Arrays.asList(
             outpatientMetadata.getTriageConcept().getConceptId(),
-            outpatientMetadata.getOpdWardConcept().getConceptId(),
+            outpatientMetadata.getOpdWardConcept().getConceptId()));
+    cd.addQueryParameter(
+        "answers",
+        Arrays.asList(
             outpatientMetadata.getCasualityOpdConcept().getConceptId(),
             outpatientMetadata.getCasualityTriageConcept().getConceptId()));
     return cd;
   }
 
-  public CohortDefinition getPatientStates(EhrReportConstants.OccurenceStates state) {
-    CalculationCohortDefinition cd =
-        new CalculationCohortDefinition(
-            "On ART for at least 3 months",
-            Context.getRegisteredComponents(PatientOccurenceCalculation.class).get(0));
-    cd.addParameter(new Parameter("onOrBefore", "End Date", Date.class));
-    cd.addCalculationParameter("state", state);
-    return cd;
+  /**
+   * Patients who had any encounter between ${onOrAfter} and ${onOrBefore}, used to narrow down the
+   * patients a calculation is evaluated for
+   *
+   * @return the mapped cohort definition
+   */
+  public Mapped<CohortDefinition> getPatientsWithVisitCandidates() {
+    return EhrReportUtils.map(
+        commonLibrary.hasEncounter(), "onOrAfter=${onOrAfter},onOrBefore=${onOrBefore}");
   }
 
   /**
@@ -105,16 +161,15 @@ public class Moh717CohortQueries {
    *
    * @return CohortDefinition
    */
-  public CohortDefinition getMchBaseCohortPatients() {
-    SqlCohortDefinition cd = new SqlCohortDefinition();
-    cd.setName("MCH Patients");
-    cd.addParameter(new Parameter("startDate", "StartDate", Date.class));
-    cd.addParameter(new Parameter("endDate", "End Date", Date.class));
-    cd.setQuery(
-        Moh717Queries.getMchBaseQueries(
+  public ReportQueryCohortDefinition getMchBaseCohortPatients() {
+    ReportQueryCohortDefinition cd =
+        newQueryCohort("MCH Patients", Moh717Queries.MCH_BASE_PATIENTS);
+    cd.addQueryParameter(
+        "questions",
+        Arrays.asList(
             outpatientMetadata.getTriageConcept().getConceptId(),
-            outpatientMetadata.getSpecialClinicConcept().getConceptId(),
-            outpatientMetadata.getMchClinicConcept().getConceptId()));
+            outpatientMetadata.getSpecialClinicConcept().getConceptId()));
+    cd.addQueryParameter("answer", outpatientMetadata.getMchClinicConcept().getConceptId());
     return cd;
   }
 
@@ -123,15 +178,34 @@ public class Moh717CohortQueries {
    *
    * @return CohortDefinition
    */
-  public CohortDefinition getFpBaseCohortPatients() {
-    SqlCohortDefinition cd = new SqlCohortDefinition();
-    cd.setName("FP Patients");
+  public ReportQueryCohortDefinition getFpBaseCohortPatients() {
+    ReportQueryCohortDefinition cd = newQueryCohort("FP Patients", Moh717Queries.FP_BASE_PATIENTS);
+    cd.addQueryParameter("question", outpatientMetadata.getSpecialClinicConcept().getConceptId());
+    cd.addQueryParameter("answer", outpatientMetadata.getMchClinicConcept().getConceptId());
+    return cd;
+  }
+
+  /**
+   * Get patients with a coded obs of the question answered with one of the answers between
+   * ${startDate} and ${endDate}
+   *
+   * @param question the question concept id
+   * @param answers the answer concept ids
+   * @return CohortDefinition
+   */
+  public ReportQueryCohortDefinition getPatientsWithCodedObs(
+      Integer question, List<Integer> answers) {
+    ReportQueryCohortDefinition cd =
+        newQueryCohort("Coded Obs Patients", Moh717Queries.CODED_OBS_PATIENTS);
+    cd.addQueryParameter("question", question);
+    cd.addQueryParameter("answers", answers);
+    return cd;
+  }
+
+  private ReportQueryCohortDefinition newQueryCohort(String name, ReportQuery query) {
+    ReportQueryCohortDefinition cd = new ReportQueryCohortDefinition(name, query);
     cd.addParameter(new Parameter("startDate", "StartDate", Date.class));
     cd.addParameter(new Parameter("endDate", "End Date", Date.class));
-    cd.setQuery(
-        Moh717Queries.getFpBaseQueries(
-            outpatientMetadata.getSpecialClinicConcept().getConceptId(),
-            outpatientMetadata.getMchClinicConcept().getConceptId()));
     return cd;
   }
 }
@@ -11,9 +11,13 @@
  */
 package org.openmrs.module.ehrreports.reporting.library.datasets;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import org.openmrs.Concept;
 import org.openmrs.module.ehrreports.metadata.OutpatientMetadata;
+import org.openmrs.module.ehrreports.reporting.cohort.definition.ReportQueryCohortDefinition;
+import org.openmrs.module.ehrreports.reporting.dataset.definition.Moh717DataSetDefinition;
 import org.openmrs.module.ehrreports.reporting.library.cohorts.CommonLibrary;
 import org.openmrs.module.ehrreports.reporting.library.cohorts.Moh717CohortQueries;
 import org.openmrs.module.ehrreports.reporting.library.dimensions.AgeDimensionCohortInterface;
@@ -43,6 +47,13 @@ public class Moh717Dataset extends BaseDataSet {
   @Qualifier("commonAgeDimensionCohort")
   private AgeDimensionCohortInterface ageDimensionCohort;
 
+  /**
+   * MOH 717 cohort indicator data set, every cell an indicator evaluated with the gender, age and
+   * NEW/REVISIT state dimensions. Used instead of {@link #constructMoh717SummaryDataset()} when
+   * {@link org.openmrs.module.ehrreports.EhrReportsConfig#GP_MOH717_INDICATOR_DATA_SET} is set.
+   *
+   * @return the data set definition
+   */
   public DataSetDefinition constructMoh717Dataset() {
 
     CohortIndicatorDataSetDefinition dsd = new CohortIndicatorDataSetDefinition();
@@ -55,7 +66,10 @@ public class Moh717Dataset extends BaseDataSet {
     dsd.addDimension(
         "age",
         EhrReportUtils.map(ehrCommonDimension.age(ageDimensionCohort), "effectiveDate=${endDate}"));
-    dsd.addDimension("state", EhrReportUtils.map(ehrCommonDimension.state(), "endDate=${endDate}"));
+    dsd.addDimension(
+        "state",
+        EhrReportUtils.map(
+            ehrCommonDimension.state(), "onOrAfter=${startDate},onOrBefore=${endDate}"));
     // add your dataset here, construct it here
     addRow(
         dsd,
@@ -174,19 +188,7 @@ public class Moh717Dataset extends BaseDataSet {
                 EhrReportUtils.map(
                     commonLibrary.hasObs(
                         outpatientMetadata.getSpecialClinicConcept(),
-                        outpatientMetadata.getMopcMedicalClinicConcept(),
-                        outpatientMetadata.getPopsPediatricClinicConcept(),
-                        outpatientMetadata.getCccClinicConcept(),
-                        outpatientMetadata.getMopsDmDiabeticClinicConcept(),
-                        outpatientMetadata.getFnaClinicConcept(),
-                        outpatientMetadata.getGpcClinicConcept(),
-                        outpatientMetadata.getMchClinicConcept(),
-                        outpatientMetadata.getMopsClinicConcept(),
-                        outpatientMetadata.getPallativeClinicConcept(),
-                        outpatientMetadata.getSurgicalClinicConcept(),
-                        outpatientMetadata.getChestAndSkinClinicConcept(),
-                        outpatientMetadata.getDentalClinicConcept(),
-                        outpatientMetadata.getFamilyPlanningClinicConcept()),
+                        getOtherSpecialClinicConcepts()),
                     obsMappings)),
             mappings),
         getSpecialClinicsCategories());
@@ -205,6 +207,109 @@ public class Moh717Dataset extends BaseDataSet {
     return dsd;
   }
 
+  /**
+   * MOH 717 data set with the same rows and columns as {@link #constructMoh717Dataset()}, filled
+   * from one grouped query by {@link
+   * org.openmrs.module.ehrreports.reporting.dataset.evaluator.Moh717DataSetEvaluator} instead of an
+   * indicator and dimension evaluation per cell
+   *
+   * @return the data set definition
+   */
+  public DataSetDefinition constructMoh717SummaryDataset() {
+    Moh717DataSetDefinition dsd = new Moh717DataSetDefinition();
+    dsd.setName("MOH 717 Data Set");
+    dsd.addParameters(getParameters());
+    dsd.setRevisitEncounterTypeIds(
+        Arrays.asList(
+            outpatientMetadata.getRegReturnEncounterType().getEncounterTypeId(),
+            outpatientMetadata.getAdultReturnEncounterType().getEncounterTypeId(),
+            outpatientMetadata.getPedsReturnEncounterType().getEncounterTypeId()));
+
+    dsd.addRow(
+        "A",
+        "OUTPATIENT SERVICES",
+        moh717CohortQueries.getOutPatients(),
+        getAdultChildrenColumns());
+    dsd.addRow(
+        "CA",
+        "Casuality CLINIC",
+        moh717CohortQueries.getPatientsQueuedAsCasuality(),
+        getSpecialClinicsCategories());
+    // the special clinics share one scan, grouped by clinic
+    ReportQueryCohortDefinition specialClinics =
+        moh717CohortQueries.getSpecialClinicPatientsByAnswer();
+    dsd.addRow(
+        "ENT",
+        "ENT CLINIC",
+        specialClinics,
+        outpatientMetadata.getENTClinicConcept().getConceptId(),
+        getSpecialClinicsCategories());
+    dsd.addRow(
+        "EYE",
+        "EYE CLINIC",
+        specialClinics,
+        outpatientMetadata.getEYEClinicConcept().getConceptId(),
+        getSpecialClinicsCategories());
+    dsd.addRow(
+        "TBLP",
+        "TB and Leprosy CLINIC",
+        specialClinics,
+        outpatientMetadata.getTbLeprosyClinicConcept().getConceptId(),
+        getSpecialClinicsCategories());
+    dsd.addRow(
+        "STI",
+        "STI CLINIC",
+        specialClinics,
+        outpatientMetadata.getSTIClinicConcept().getConceptId(),
+        getSpecialClinicsCategories());
+    dsd.addRow(
+        "Psy",
+        "Psychiatry CLINIC",
+        specialClinics,
+        outpatientMetadata.getPsycthricClinicConcept().getConceptId(),
+        getSpecialClinicsCategories());
+    dsd.addRow(
+        "Ort",
+        "Orthopedic CLINIC",
+        specialClinics,
+        outpatientMetadata.getOrthopedicClinicConcept().getConceptId(),
+        getSpecialClinicsCategories());
+    List<Integer> otherClinics = new ArrayList<Integer>();
+    for (Concept clinic : getOtherSpecialClinicConcepts()) {
+      otherClinics.add(clinic.getConceptId());
+    }
+    dsd.addRow(
+        "Oher",
+        "Other CLINIC",
+        moh717CohortQueries.getPatientsWithCodedObs(
+            outpatientMetadata.getSpecialClinicConcept().getConceptId(), otherClinics),
+        getSpecialClinicsCategories());
+    dsd.addRow(
+        "FP",
+        "Family Planning Services",
+        moh717CohortQueries.getFpBaseCohortPatients(),
+        getSpecialClinicsCategories());
+    return dsd;
+  }
+
+  private Concept[] getOtherSpecialClinicConcepts() {
+    return new Concept[] {
+      outpatientMetadata.getMopcMedicalClinicConcept(),
+      outpatientMetadata.getPopsPediatricClinicConcept(),
+      outpatientMetadata.getCccClinicConcept(),
+      outpatientMetadata.getMopsDmDiabeticClinicConcept(),
+      outpatientMetadata.getFnaClinicConcept(),
+      outpatientMetadata.getGpcClinicConcept(),
+      outpatientMetadata.getMchClinicConcept(),
+      outpatientMetadata.getMopsClinicConcept(),
+      outpatientMetadata.getPallativeClinicConcept(),
+      outpatientMetadata.getSurgicalClinicConcept(),
+      outpatientMetadata.getChestAndSkinClinicConcept(),
+      outpatientMetadata.getDentalClinicConcept(),
+      outpatientMetadata.getFamilyPlanningClinicConcept()
+    };
+  }
+
   private List<ColumnParameters> getAdultChildrenColumns() {
     // Male
     ColumnParameters over5YearsMaleN =
@@ -12,6 +12,9 @@
 package org.openmrs.module.ehrreports.reporting.library.dimensions;
 
 import java.util.Date;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.ehrreports.reporting.calculation.PatientOccurenceCalculation;
+import org.openmrs.module.ehrreports.reporting.cohort.definition.CalculationPartitionDimension;
 import org.openmrs.module.ehrreports.reporting.library.cohorts.GenderCohortQueries;
 import org.openmrs.module.ehrreports.reporting.library.cohorts.Moh717CohortQueries;
 import org.openmrs.module.ehrreports.reporting.utils.EhrReportConstants;
@@ -58,24 +61,23 @@ public class EhrCommonDimension {
   }
 
   /**
-   * State of patient, whether new or revisit
+   * State of patient, whether new or revisit. Both options are answered by the SQL backed {@link
+   * org.openmrs.module.ehrreports.reporting.calculation.PatientOccurenceClassifier} so no
+   * encounters are loaded, and both come out of a single evaluation of the calculation over the
+   * patients who had an encounter in the period
    *
    * @return {@link org.openmrs.module.reporting.indicator.dimension.CohortDimension}
    */
   public CohortDefinitionDimension state() {
-    CohortDefinitionDimension dim = new CohortDefinitionDimension();
-    dim.setName("Patient State");
-    dim.addParameter(new Parameter("endDate", "End Date", Date.class));
-    dim.addCohortDefinition(
-        "NEW",
-        EhrReportUtils.map(
-            moh717CohortQueries.getPatientStates(EhrReportConstants.OccurenceStates.NEW),
-            "onOrBefore=${endDate}"));
-    dim.addCohortDefinition(
-        "RVT",
-        EhrReportUtils.map(
-            moh717CohortQueries.getPatientStates(EhrReportConstants.OccurenceStates.REVISIT),
-            "onOrBefore=${endDate}"));
+    CalculationPartitionDimension dim =
+        new CalculationPartitionDimension(
+            "Patient State",
+            Context.getRegisteredComponents(PatientOccurenceCalculation.class).get(0));
+    dim.addParameter(new Parameter("onOrAfter", "Start Date", Date.class));
+    dim.addParameter(new Parameter("onOrBefore", "End Date", Date.class));
+    dim.setCandidates(moh717CohortQueries.getPatientsWithVisitCandidates());
+    dim.addOption("NEW", EhrReportConstants.OccurenceStates.NEW);
+    dim.addOption("RVT", EhrReportConstants.OccurenceStates.REVISIT);
     return dim;
   }
 }
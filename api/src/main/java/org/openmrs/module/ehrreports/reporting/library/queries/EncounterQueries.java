@@ -0,0 +1,91 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.ehrreports.reporting.library.queries;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Projection queries on the encounter table, reading columns instead of encounter entities, and the
+ * change checks of the cached report results
+ */
+public class EncounterQueries {
+
+  /**
+   * The (patient_id, encounter_datetime, encounter_type) of the non voided encounters of the
+   * patients between :onOrAfter and :onOrBefore, ordered by patient and date
+   */
+  public static final ReportQuery ENCOUNTER_TIMES =
+      ReportQuery.builder("encounter.encounterTimes")
+          .sql(
+              " SELECT e.patient_id, e.encounter_datetime, e.encounter_type FROM encounter e "
+                  + " WHERE e.voided=0 AND e.patient_id IN(:patients) "
+                  + " AND e.encounter_datetime BETWEEN :onOrAfter AND :onOrBefore "
+                  + " ORDER BY e.patient_id, e.encounter_datetime, e.encounter_id ")
+          .listParameter("patients", Integer.class)
+          .parameter("onOrAfter", Date.class)
+          .parameter("onOrBefore", Date.class)
+          .build();
+
+  /** {@link #ENCOUNTER_TIMES} restricted to encounters of the :encounterTypes */
+  public static final ReportQuery ENCOUNTER_TIMES_OF_TYPES =
+      ReportQuery.builder("encounter.encounterTimesOfTypes")
+          .sql(
+              " SELECT e.patient_id, e.encounter_datetime, e.encounter_type FROM encounter e "
+                  + " WHERE e.voided=0 AND e.patient_id IN(:patients) AND e.encounter_type IN(:encounterTypes) "
+                  + " AND e.encounter_datetime BETWEEN :onOrAfter AND :onOrBefore "
+                  + " ORDER BY e.patient_id, e.encounter_datetime, e.encounter_id ")
+          .listParameter("patients", Integer.class)
+          .listParameter("encounterTypes", Integer.class)
+          .parameter("onOrAfter", Date.class)
+          .parameter("onOrBefore", Date.class)
+          .build();
+
+  /** The current time of the database */
+  public static final ReportQuery DATABASE_NOW =
+      ReportQuery.builder("encounter.databaseNow").sql(" SELECT NOW() ").build();
+
+  /** The current time of the database and the highest obs id */
+  public static final ReportQuery CHANGE_MARK =
+      ReportQuery.builder("encounter.changeMark")
+          .sql(" SELECT NOW(), (SELECT MAX(o.obs_id) FROM obs o) ")
+          .build();
+
+  /**
+   * 1 if an encounter dated on or before :onOrBefore has been created, changed or voided after
+   * :since, or an obs dated on or before :onOrBefore has been created after :since, 0 otherwise.
+   * The encounter date columns have indexes and the obs are read from :obsId on by their primary
+   * key, so only the recent changes are read without indexing the obs dates. An obs voided on its
+   * own is not seen, an edited obs is voided and created again.
+   */
+  public static final ReportQuery DATA_CHANGED_SINCE =
+      ReportQuery.builder("encounter.dataChangedSince")
+          .sql(
+              " SELECT CASE WHEN EXISTS (SELECT 1 FROM encounter e WHERE e.encounter_datetime <= :onOrBefore "
+                  + "   AND (e.date_created > :since OR e.date_changed > :since OR e.date_voided > :since)) "
+                  + " OR EXISTS (SELECT 1 FROM obs o WHERE o.obs_id > :obsId "
+                  + "   AND o.obs_datetime <= :onOrBefore AND o.date_created > :since) "
+                  + " THEN 1 ELSE 0 END ")
+          .parameter("onOrBefore", Date.class)
+          .parameter("since", Date.class)
+          .parameter("obsId", Integer.class)
+          .build();
+
+  /** @return the encounter queries */
+  public static List<ReportQuery> getQueries() {
+    return Arrays.asList(
+        ENCOUNTER_TIMES, ENCOUNTER_TIMES_OF_TYPES, CHANGE_MARK, DATA_CHANGED_SINCE);
+  }
+}
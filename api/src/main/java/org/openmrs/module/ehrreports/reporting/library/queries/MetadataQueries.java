@@ -0,0 +1,48 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.ehrreports.reporting.library.queries;
+
+import java.util.Arrays;
+import java.util.List;
+
+/** The (uuid, id) of the concepts, encounter types and programs of a list of uuids */
+public class MetadataQueries {
+
+  /** The (uuid, concept_id) of the concepts with one of the :uuids */
+  public static final ReportQuery CONCEPT_IDS =
+      ReportQuery.builder("metadata.conceptIds")
+          .sql(" SELECT c.uuid, c.concept_id FROM concept c WHERE c.uuid IN(:uuids) ")
+          .listParameter("uuids", String.class)
+          .build();
+
+  /** The (uuid, encounter_type_id) of the encounter types with one of the :uuids */
+  public static final ReportQuery ENCOUNTER_TYPE_IDS =
+      ReportQuery.builder("metadata.encounterTypeIds")
+          .sql(
+              " SELECT et.uuid, et.encounter_type_id FROM encounter_type et WHERE et.uuid IN(:uuids) ")
+          .listParameter("uuids", String.class)
+          .build();
+
+  /** The (uuid, program_id) of the programs with one of the :uuids */
+  public static final ReportQuery PROGRAM_IDS =
+      ReportQuery.builder("metadata.programIds")
+          .sql(" SELECT p.uuid, p.program_id FROM program p WHERE p.uuid IN(:uuids) ")
+          .listParameter("uuids", String.class)
+          .build();
+
+  /** @return the metadata queries */
+  public static List<ReportQuery> getQueries() {
+    return Arrays.asList(CONCEPT_IDS, ENCOUNTER_TYPE_IDS, PROGRAM_IDS);
+  }
+}
@@ -0,0 +1,272 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.ehrreports.reporting.library.queries;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.openmrs.module.ehrreports.reporting.library.queries.moh717.Moh717Queries;
+
+/**
+ * Queries on the ehrreports_opd_visit fact table, which holds one row per outpatient encounter and
+ * special clinic with the patient's gender and birthdate copied in, and on the
+ * ehrreports_patient_visit table holding the first visit and first return visit date of each
+ * patient. The select queries take the same parameters as their counterparts in the MOH 717 queries
+ * so either can back a cohort.
+ */
+public class OpdVisitQueries {
+
+  /** Outpatients, patients with a visit of one of the types between :startDate and :endDate */
+  public static final ReportQuery OUT_PATIENTS =
+      ReportQuery.builder("opdVisit.outPatients")
+          .sql(
+              " SELECT v.patient_id FROM ehrreports_opd_visit v WHERE v.encounter_type IN(:encounterTypes) "
+                  + " AND v.visit_date BETWEEN :startDate AND :endDate ")
+          .listParameter("encounterTypes", Integer.class)
+          .parameter("startDate", Date.class)
+          .parameter("endDate", Date.class)
+          .build();
+
+  /** Patients of a special clinic between :startDate and :endDate */
+  public static final ReportQuery SPECIAL_CLINIC_PATIENTS =
+      ReportQuery.builder("opdVisit.specialClinicPatients")
+          .sql(
+              " SELECT v.patient_id FROM ehrreports_opd_visit v WHERE v.clinic=:answer "
+                  + " AND v.encounter_type IN(:encounterTypes) AND v.visit_date BETWEEN :startDate AND :endDate ")
+          .listParameter("encounterTypes", Integer.class)
+          .parameter("answer", Integer.class)
+          .parameter("startDate", Date.class)
+          .parameter("endDate", Date.class)
+          .build();
+
+  /**
+   * Patients of several special clinics in one scan, selecting the clinic as row_value and the
+   * patient_id
+   */
+  public static final ReportQuery SPECIAL_CLINIC_PATIENTS_BY_ANSWER =
+      ReportQuery.builder("opdVisit.specialClinicPatientsByAnswer")
+          .sql(
+              " SELECT v.clinic AS row_value, v.patient_id FROM ehrreports_opd_visit v WHERE v.clinic IN(:answers) "
+                  + " AND v.encounter_type IN(:encounterTypes) AND v.visit_date BETWEEN :startDate AND :endDate "
+                  + " GROUP BY v.clinic, v.patient_id ")
+          .listParameter("encounterTypes", Integer.class)
+          .listParameter("answers", Integer.class)
+          .parameter("startDate", Date.class)
+          .parameter("endDate", Date.class)
+          .build();
+
+  /** The :patients with a visit of one of the types on or before :onOrBefore */
+  public static final ReportQuery PATIENTS_WITH_ENCOUNTER_ON_OR_BEFORE =
+      ReportQuery.builder("opdVisit.patientsWithEncounterOnOrBefore")
+          .sql(
+              " SELECT v.patient_id FROM ehrreports_opd_visit v WHERE v.patient_id IN(:patients) "
+                  + " AND v.encounter_type IN(:encounterTypes) AND v.visit_date <= :onOrBefore "
+                  + " GROUP BY v.patient_id ")
+          .listParameter("patients", Integer.class)
+          .listParameter("encounterTypes", Integer.class)
+          .parameter("onOrBefore", Date.class)
+          .build();
+
+  /** The :patients whose first return visit is on or before :onOrBefore, primary key lookups */
+  public static final ReportQuery PATIENTS_WITH_RETURN_VISIT_ON_OR_BEFORE =
+      ReportQuery.builder("opdVisit.patientsWithReturnVisitOnOrBefore")
+          .sql(
+              " SELECT pv.patient_id FROM ehrreports_patient_visit pv WHERE pv.patient_id IN(:patients) "
+                  + " AND pv.first_return_date <= :onOrBefore ")
+          .listParameter("patients", Integer.class)
+          .parameter("onOrBefore", Date.class)
+          .build();
+
+  /** The highest encounter id, the upper bound of the copy */
+  public static final ReportQuery MAX_ENCOUNTER_ID =
+      ReportQuery.builder("opdVisit.maxEncounterId")
+          .sql(" SELECT MAX(e.encounter_id) FROM encounter e ")
+          .build();
+
+  /**
+   * Selects the visits of the non voided encounters of the types, one row per special clinic
+   * answered in the encounter or a single row with no clinic. A visit is flagged as first visit
+   * when the patient has no earlier encounter of the types at the time it is copied.
+   */
+  private static final String SELECT_VISITS =
+      " SELECT DISTINCT e.encounter_id, e.patient_id, e.encounter_datetime, e.encounter_type, o.value_coded, "
+          + " pr.gender, pr.birthdate, "
+          + " CASE WHEN EXISTS (SELECT 1 FROM encounter pe WHERE pe.patient_id=e.patient_id AND pe.voided=0 "
+          + "   AND pe.encounter_type IN(:encounterTypes) AND (pe.encounter_datetime < e.encounter_datetime "
+          + "   OR (pe.encounter_datetime = e.encounter_datetime AND pe.encounter_id < e.encounter_id))) "
+          + " THEN 0 ELSE 1 END "
+          + " FROM encounter e INNER JOIN patient p ON p.patient_id=e.patient_id "
+          + " INNER JOIN person pr ON pr.person_id=e.patient_id "
+          + " LEFT JOIN obs o ON o.encounter_id=e.encounter_id AND o.concept_id=:clinicQuestion AND o.voided=0 "
+          + " WHERE e.voided=0 AND p.voided=0 AND e.encounter_type IN(:encounterTypes) ";
+
+  private static final String INSERT_VISIT_COLUMNS =
+      " INSERT INTO ehrreports_opd_visit "
+          + " (encounter_id, patient_id, visit_date, encounter_type, clinic, gender, birthdate, first_visit) ";
+
+  /** Copies the visits of the encounters with an id in (:fromEncounterId, :toEncounterId] */
+  public static final ReportQuery INSERT_VISITS =
+      ReportQuery.builder("opdVisit.insertVisits")
+          .sql(
+              INSERT_VISIT_COLUMNS
+                  + SELECT_VISITS
+                  + " AND e.encounter_id > :fromEncounterId AND e.encounter_id <= :toEncounterId ")
+          .listParameter("encounterTypes", Integer.class)
+          .parameter("clinicQuestion", Integer.class)
+          .parameter("fromEncounterId", Integer.class)
+          .parameter("toEncounterId", Integer.class)
+          .build();
+
+  /** Copies again the visits of the :patients with an encounter id up to :toEncounterId */
+  public static final ReportQuery INSERT_PATIENT_OPD_VISITS =
+      ReportQuery.builder("opdVisit.insertPatientOpdVisits")
+          .sql(
+              INSERT_VISIT_COLUMNS
+                  + SELECT_VISITS
+                  + " AND e.patient_id IN(:patients) AND e.encounter_id <= :toEncounterId ")
+          .listParameter("encounterTypes", Integer.class)
+          .parameter("clinicQuestion", Integer.class)
+          .listParameter("patients", Integer.class)
+          .parameter("toEncounterId", Integer.class)
+          .build();
+
+  /** Removes the visits of the :patients with an encounter id up to :toEncounterId */
+  public static final ReportQuery DELETE_PATIENT_OPD_VISITS =
+      ReportQuery.builder("opdVisit.deletePatientOpdVisits")
+          .sql(
+              " DELETE FROM ehrreports_opd_visit WHERE patient_id IN(:patients) "
+                  + " AND encounter_id <= :toEncounterId ")
+          .listParameter("patients", Integer.class)
+          .parameter("toEncounterId", Integer.class)
+          .build();
+
+  /**
+   * Patients with an encounter up to :toEncounterId created or changed after :since, which catches
+   * encounters committed after a higher id was copied and edited dates, types and patients, or with
+   * a special clinic obs created or voided after :since, as editing an obs voids it and creates a
+   * new one. The encounter branches read one indexed date column, the obs branches the obs of the
+   * special clinic question.
+   */
+  public static final ReportQuery CHANGED_VISIT_PATIENTS =
+      ReportQuery.builder("opdVisit.changedVisitPatients")
+          .sql(
+              " SELECT e.patient_id FROM encounter e WHERE e.date_created > :since AND e.encounter_id <= :toEncounterId "
+                  + " UNION SELECT e.patient_id FROM encounter e WHERE e.date_changed > :since AND e.encounter_id <= :toEncounterId "
+                  + " UNION SELECT v.patient_id FROM encounter e INNER JOIN ehrreports_opd_visit v ON v.encounter_id=e.encounter_id "
+                  + "   WHERE e.date_changed > :since AND e.encounter_id <= :toEncounterId "
+                  + " UNION SELECT o.person_id FROM obs o WHERE o.date_created > :since AND o.concept_id=:clinicQuestion "
+                  + "   AND o.encounter_id <= :toEncounterId "
+                  + " UNION SELECT o.person_id FROM obs o WHERE o.date_voided > :since AND o.concept_id=:clinicQuestion "
+                  + "   AND o.encounter_id <= :toEncounterId ")
+          .parameter("since", Date.class)
+          .parameter("clinicQuestion", Integer.class)
+          .parameter("toEncounterId", Integer.class)
+          .build();
+
+  /**
+   * Merges the visits copied for the encounter ids in (:fromEncounterId, :toEncounterId] into the
+   * first visit dates of their patients, keeping the earliest dates
+   */
+  public static final ReportQuery MERGE_PATIENT_VISITS =
+      ReportQuery.builder("opdVisit.mergePatientVisits")
+          .sql(
+              " INSERT INTO ehrreports_patient_visit (patient_id, first_visit_date, first_return_date) "
+                  + " SELECT v.patient_id, MIN(v.visit_date), "
+                  + " MIN(CASE WHEN v.encounter_type IN(:returnEncounterTypes) THEN v.visit_date END) "
+                  + " FROM ehrreports_opd_visit v WHERE v.encounter_id > :fromEncounterId AND v.encounter_id <= :toEncounterId "
+                  + " GROUP BY v.patient_id "
+                  + " ON DUPLICATE KEY UPDATE first_visit_date=LEAST(first_visit_date, VALUES(first_visit_date)), "
+                  + " first_return_date=COALESCE(LEAST(first_return_date, VALUES(first_return_date)), "
+                  + " first_return_date, VALUES(first_return_date)) ")
+          .listParameter("returnEncounterTypes", Integer.class)
+          .parameter("fromEncounterId", Integer.class)
+          .parameter("toEncounterId", Integer.class)
+          .build();
+
+  /** Recomputes the first visit dates of the :patients from the visits they have left */
+  public static final ReportQuery INSERT_PATIENT_VISITS =
+      ReportQuery.builder("opdVisit.insertPatientVisits")
+          .sql(
+              " INSERT INTO ehrreports_patient_visit (patient_id, first_visit_date, first_return_date) "
+                  + " SELECT v.patient_id, MIN(v.visit_date), "
+                  + " MIN(CASE WHEN v.encounter_type IN(:returnEncounterTypes) THEN v.visit_date END) "
+                  + " FROM ehrreports_opd_visit v WHERE v.patient_id IN(:patients) GROUP BY v.patient_id ")
+          .listParameter("returnEncounterTypes", Integer.class)
+          .listParameter("patients", Integer.class)
+          .build();
+
+  /** Removes the first visit dates of the :patients */
+  public static final ReportQuery DELETE_PATIENT_VISITS =
+      ReportQuery.builder("opdVisit.deletePatientVisits")
+          .sql(" DELETE FROM ehrreports_patient_visit WHERE patient_id IN(:patients) ")
+          .listParameter("patients", Integer.class)
+          .build();
+
+  /** Patients with a visit whose encounter or patient has been voided since it was copied */
+  public static final ReportQuery VOIDED_VISIT_PATIENTS =
+      ReportQuery.builder("opdVisit.voidedVisitPatients")
+          .sql(
+              " SELECT v.patient_id FROM ehrreports_opd_visit v INNER JOIN encounter e ON e.encounter_id=v.encounter_id "
+                  + " INNER JOIN patient p ON p.patient_id=e.patient_id WHERE e.voided=1 OR p.voided=1 "
+                  + " GROUP BY v.patient_id ")
+          .build();
+
+  /** Removes the visits whose encounter or patient has been voided since it was copied */
+  public static final ReportQuery DELETE_VOIDED_VISITS =
+      ReportQuery.builder("opdVisit.deleteVoidedVisits")
+          .sql(
+              " DELETE v FROM ehrreports_opd_visit v INNER JOIN encounter e ON e.encounter_id=v.encounter_id "
+                  + " INNER JOIN patient p ON p.patient_id=e.patient_id WHERE e.voided=1 OR p.voided=1 ")
+          .build();
+
+  /** Removes all the visits, before the table is copied again from the first encounter */
+  public static final ReportQuery DELETE_ALL_VISITS =
+      ReportQuery.builder("opdVisit.deleteAllVisits")
+          .sql(" DELETE FROM ehrreports_opd_visit ")
+          .build();
+
+  /**
+   * Removes all the first visit dates, before the table is copied again from the first encounter
+   */
+  public static final ReportQuery DELETE_ALL_PATIENT_VISITS =
+      ReportQuery.builder("opdVisit.deleteAllPatientVisits")
+          .sql(" DELETE FROM ehrreports_patient_visit ")
+          .build();
+
+  /** @return the select queries on the fact table */
+  public static List<ReportQuery> getQueries() {
+    return Arrays.asList(
+        OUT_PATIENTS,
+        SPECIAL_CLINIC_PATIENTS,
+        SPECIAL_CLINIC_PATIENTS_BY_ANSWER,
+        PATIENTS_WITH_ENCOUNTER_ON_OR_BEFORE,
+        PATIENTS_WITH_RETURN_VISIT_ON_OR_BEFORE);
+  }
+
+  /** @return the fact table queries by the name of the MOH 717 encounter query they replace */
+  public static Map<String, ReportQuery> getCounterparts() {
+    Map<String, ReportQuery> ret = new HashMap<String, ReportQuery>();
+    ret.put(Moh717Queries.OUT_PATIENTS.getName(), OUT_PATIENTS);
+    ret.put(Moh717Queries.SPECIAL_CLINIC_PATIENTS.getName(), SPECIAL_CLINIC_PATIENTS);
+    ret.put(
+        Moh717Queries.SPECIAL_CLINIC_PATIENTS_BY_ANSWER.getName(),
+        SPECIAL_CLINIC_PATIENTS_BY_ANSWER);
+    ret.put(
+        Moh717Queries.PATIENTS_WITH_ENCOUNTER_ON_OR_BEFORE.getName(),
+        PATIENTS_WITH_ENCOUNTER_ON_OR_BEFORE);
+    return ret;
+  }
+}
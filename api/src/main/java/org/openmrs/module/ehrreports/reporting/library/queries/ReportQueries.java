@@ -0,0 +1,79 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.ehrreports.reporting.library.queries;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.openmrs.module.ehrreports.reporting.library.queries.moh717.Moh717Queries;
+
+/** Registry of the module's {@link ReportQuery}s by name */
+public final class ReportQueries {
+
+  private static final Map<String, ReportQuery> QUERIES = new LinkedHashMap<String, ReportQuery>();
+
+  private static final Map<String, ReportQuery> OPD_VISIT_COUNTERPARTS =
+      OpdVisitQueries.getCounterparts();
+
+  static {
+    for (ReportQuery query : Moh717Queries.getQueries()) {
+      QUERIES.put(query.getName(), query);
+    }
+    for (ReportQuery query : OpdVisitQueries.getQueries()) {
+      QUERIES.put(query.getName(), query);
+    }
+    for (ReportQuery query : EncounterQueries.getQueries()) {
+      QUERIES.put(query.getName(), query);
+    }
+    for (ReportQuery query : MetadataQueries.getQueries()) {
+      QUERIES.put(query.getName(), query);
+    }
+  }
+
+  private ReportQueries() {}
+
+  /**
+   * Gets a registered query
+   *
+   * @param name the query name
+   * @return the query
+   * @throws IllegalArgumentException if there is no query with that name
+   */
+  public static ReportQuery get(String name) {
+    ReportQuery ret = QUERIES.get(name);
+    if (ret == null) {
+      throw new IllegalArgumentException("No report query named " + name);
+    }
+    return ret;
+  }
+
+  /**
+   * Gets a registered query, or its counterpart on the OPD visit fact table
+   *
+   * @param name the query name
+   * @param fromOpdVisits whether the fact table counterpart of the query is used, if it has one
+   * @return the query
+   * @throws IllegalArgumentException if there is no query with that name
+   */
+  public static ReportQuery get(String name, boolean fromOpdVisits) {
+    ReportQuery ret = fromOpdVisits ? OPD_VISIT_COUNTERPARTS.get(name) : null;
+    return ret == null ? get(name) : ret;
+  }
+
+  /** @return all the registered queries */
+  public static Collection<ReportQuery> getAll() {
+    return Collections.unmodifiableCollection(QUERIES.values());
+  }
+}
@@ -0,0 +1,355 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.ehrreports.reporting.library.queries;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A report query with typed named parameters (:name). Every parameter is sent to the database as a
+ * bind variable, so the statement text does not depend on the configured metadata and is prepared
+ * and planned once. List parameters are expanded to one placeholder per value, padded to the next
+ * power of two by repeating the last value so only a handful of IN-list sizes ever reach the
+ * database. List parameters must therefore only be used in IN(...) conditions.
+ */
+public final class ReportQuery {
+
+  private final String name;
+
+  private final String sql;
+
+  private final Map<String, QueryParameter> parameters;
+
+  private ReportQuery(String name, String sql, Map<String, QueryParameter> parameters) {
+    this.name = name;
+    this.sql = sql;
+    this.parameters = Collections.unmodifiableMap(parameters);
+  }
+
+  /**
+   * Starts building a query
+   *
+   * @param name the unique name of the query
+   * @return the builder
+   */
+  public static Builder builder(String name) {
+    return new Builder(name);
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /** @return the SQL with its named parameters */
+  public String getSql() {
+    return sql;
+  }
+
+  /** @return the declared parameters by name */
+  public Map<String, QueryParameter> getParameters() {
+    return parameters;
+  }
+
+  /**
+   * Gets the SQL with every parameter renamed to prefix + name, except the shared ones. Used to
+   * embed the query in a larger one next to other queries with the same parameter names.
+   *
+   * @param prefix the prefix
+   * @param shared the parameters which keep their name
+   * @return the SQL
+   */
+  public String getSql(String prefix, Collection<String> shared) {
+    StringBuilder ret = new StringBuilder();
+    for (Object token : tokenize(sql)) {
+      if (token instanceof Placeholder) {
+        String parameter = ((Placeholder) token).name;
+        ret.append(':').append(shared.contains(parameter) ? parameter : prefix + parameter);
+      } else {
+        ret.append(token);
+      }
+    }
+    return ret.toString();
+  }
+
+  /**
+   * Binds parameter values, checking them against the declared types
+   *
+   * @param values the values by parameter name
+   * @return the JDBC statement and its arguments
+   * @throws IllegalArgumentException if a value is missing or of the wrong type
+   */
+  public BoundQuery bind(Map<String, Object> values) {
+    StringBuilder jdbcSql = new StringBuilder();
+    List<Object> arguments = new ArrayList<Object>();
+    for (Object token : tokenize(sql)) {
+      if (!(token instanceof Placeholder)) {
+        jdbcSql.append(token);
+        continue;
+      }
+      QueryParameter parameter = parameters.get(((Placeholder) token).name);
+      Object value = values == null ? null : values.get(parameter.getName());
+      if (parameter.isList()) {
+        List<Object> list = checkList(parameter, value);
+        for (int i = 0; i < list.size(); i++) {
+          jdbcSql.append(i == 0 ? "?" : ", ?");
+          arguments.add(list.get(i));
+        }
+      } else {
+        if (!parameter.getType().isInstance(value)) {
+          throw new IllegalArgumentException(
+              name + ": " + parameter.getName() + " must be a " + parameter.getType().getName());
+        }
+        jdbcSql.append('?');
+        arguments.add(value);
+      }
+    }
+    return new BoundQuery(jdbcSql.toString(), arguments);
+  }
+
+  private List<Object> checkList(QueryParameter parameter, Object value) {
+    if (!(value instanceof Collection) || ((Collection<?>) value).isEmpty()) {
+      throw new IllegalArgumentException(
+          name + ": " + parameter.getName() + " must be a non empty collection");
+    }
+    List<Object> ret = new ArrayList<Object>((Collection<?>) value);
+    for (Object element : ret) {
+      if (!parameter.getType().isInstance(element)) {
+        throw new IllegalArgumentException(
+            name
+                + ": "
+                + parameter.getName()
+                + " must only contain "
+                + parameter.getType().getName());
+      }
+    }
+    int size = 1;
+    while (size < ret.size()) {
+      size <<= 1;
+    }
+    Object last = ret.get(ret.size() - 1);
+    while (ret.size() < size) {
+      ret.add(last);
+    }
+    return ret;
+  }
+
+  /** Splits SQL into literal text and placeholders, ignoring colons in quoted strings */
+  private static List<Object> tokenize(String sql) {
+    List<Object> ret = new ArrayList<Object>();
+    StringBuilder text = new StringBuilder();
+    boolean quoted = false;
+    int i = 0;
+    while (i < sql.length()) {
+      char c = sql.charAt(i);
+      if (c == '\'') {
+        quoted = !quoted;
+      }
+      if (!quoted
+          && c == ':'
+          && i + 1 < sql.length()
+          && Character.isJavaIdentifierStart(sql.charAt(i + 1))) {
+        int end = i + 1;
+        while (end < sql.length() && Character.isJavaIdentifierPart(sql.charAt(end))) {
+          end++;
+        }
+        ret.add(text.toString());
+        text.setLength(0);
+        ret.add(new Placeholder(sql.substring(i + 1, end)));
+        i = end;
+        continue;
+      }
+      text.append(c);
+      i++;
+    }
+    ret.add(text.toString());
+    return ret;
+  }
+
+  private static class Placeholder {
+
+    private final String name;
+
+    private Placeholder(String name) {
+      this.name = name;
+    }
+  }
+
+  /** A declared query parameter */
+  public static final class QueryParameter {
+
+    private final String name;
+
+    private final Class<?> type;
+
+    private final boolean list;
+
+    private QueryParameter(String name, Class<?> type, boolean list) {
+      this.name = name;
+      this.type = type;
+      this.list = list;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    /** @return the type of the value, or of the elements for a list parameter */
+    public Class<?> getType() {
+      return type;
+    }
+
+    public boolean isList() {
+      return list;
+    }
+  }
+
+  /** A query ready to be run through JDBC */
+  public static final class BoundQuery {
+
+    private final String sql;
+
+    private final List<Object> arguments;
+
+    private BoundQuery(String sql, List<Object> arguments) {
+      this.sql = sql;
+      this.arguments = arguments;
+    }
+
+    /** @return the SQL with ? placeholders */
+    public String getSql() {
+      return sql;
+    }
+
+    public List<Object> getArguments() {
+      return arguments;
+    }
+
+    /**
+     * Sets the arguments on a statement prepared from {@link #getSql()}
+     *
+     * @param statement the statement
+     * @throws SQLException if an argument can not be set
+     */
+    public void bindTo(PreparedStatement statement) throws SQLException {
+      for (int i = 0; i < arguments.size(); i++) {
+        Object argument = arguments.get(i);
+        if (argument instanceof Date) {
+          statement.setTimestamp(i + 1, new Timestamp(((Date) argument).getTime()));
+        } else if (argument instanceof Integer) {
+          statement.setInt(i + 1, (Integer) argument);
+        } else if (argument instanceof String) {
+          statement.setString(i + 1, (String) argument);
+        } else {
+          statement.setObject(i + 1, argument);
+        }
+      }
+    }
+  }
+
+  /** Builds a {@link ReportQuery}, checking every placeholder of the SQL is declared */
+  public static final class Builder {
+
+    private final String name;
+
+    private String sql;
+
+    private final Map<String, QueryParameter> parameters =
+        new LinkedHashMap<String, QueryParameter>();
+
+    private Builder(String name) {
+      this.name = name;
+    }
+
+    /**
+     * @param sql the SQL with named parameters
+     * @return this builder
+     */
+    public Builder sql(String sql) {
+      this.sql = sql;
+      return this;
+    }
+
+    /**
+     * Declares a single valued parameter
+     *
+     * @param name the parameter name
+     * @param type the value type
+     * @return this builder
+     */
+    public Builder parameter(String name, Class<?> type) {
+      parameters.put(name, new QueryParameter(name, type, false));
+      return this;
+    }
+
+    /**
+     * Declares a list parameter, used in an IN(...) condition
+     *
+     * @param name the parameter name
+     * @param elementType the type of the elements
+     * @return this builder
+     */
+    public Builder listParameter(String name, Class<?> elementType) {
+      parameters.put(name, new QueryParameter(name, elementType, true));
+      return this;
+    }
+
+    /**
+     * Declares the parameters of another query
+     *
+     * @param query the query
+     * @param prefix the prefix added to the names of non shared parameters
+     * @param shared the parameters which keep their name
+     * @return this builder
+     */
+    public Builder parametersOf(ReportQuery query, String prefix, Collection<String> shared) {
+      for (QueryParameter p : query.getParameters().values()) {
+        String parameterName = shared.contains(p.getName()) ? p.getName() : prefix + p.getName();
+        parameters.put(parameterName, new QueryParameter(parameterName, p.getType(), p.isList()));
+      }
+      return this;
+    }
+
+    /**
+     * @return the query
+     * @throws IllegalStateException if the SQL uses an undeclared parameter
+     */
+    public ReportQuery build() {
+      if (sql == null) {
+        throw new IllegalStateException(name + ": no SQL");
+      }
+      Set<String> used = new LinkedHashSet<String>();
+      for (Object token : tokenize(sql)) {
+        if (token instanceof Placeholder) {
+          used.add(((Placeholder) token).name);
+        }
+      }
+      for (String parameter : used) {
+        if (!parameters.containsKey(parameter)) {
+          throw new IllegalStateException(name + ": undeclared parameter " + parameter);
+        }
+      }
+      return new ReportQuery(name, sql, new LinkedHashMap<String, QueryParameter>(parameters));
+    }
+  }
+}
@@ -0,0 +1,149 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.ehrreports.reporting.library.queries;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.ehrreports.api.EhrReportsService;
+import org.springframework.stereotype.Component;
+
+/**
+ * Checks the execution plans of the registered {@link ReportQueries}. Each query is explained with
+ * placeholder parameter values, and every table the database reads with a full scan (MySQL access
+ * type ALL) is flagged.
+ */
+@Component
+public class ReportQueryAdvisor {
+
+  protected final Log log = LogFactory.getLog(getClass());
+
+  /**
+   * Explains every registered query
+   *
+   * @return one entry per table access of every query
+   */
+  public List<TableAccess> checkRegisteredQueries() {
+    List<TableAccess> ret = new ArrayList<TableAccess>();
+    for (ReportQuery query : ReportQueries.getAll()) {
+      try {
+        for (Map<String, Object> row :
+            Context.getService(EhrReportsService.class)
+                .explainReportQuery(query, getPlaceholderValues(query))) {
+          ret.add(
+              new TableAccess(
+                  query.getName(),
+                  toString(row.get("table")),
+                  toString(row.get("type")),
+                  toString(row.get("key")),
+                  row.get("rows") instanceof Number ? ((Number) row.get("rows")).longValue() : null,
+                  null));
+        }
+      } catch (RuntimeException ex) {
+        log.warn("Unable to explain report query " + query.getName(), ex);
+        ret.add(new TableAccess(query.getName(), null, null, null, null, ex.getMessage()));
+      }
+    }
+    return ret;
+  }
+
+  /** Values of the declared types, enough for the database to plan the query */
+  private Map<String, Object> getPlaceholderValues(ReportQuery query) {
+    Map<String, Object> ret = new HashMap<String, Object>();
+    for (ReportQuery.QueryParameter parameter : query.getParameters().values()) {
+      Object value;
+      if (Date.class.equals(parameter.getType())) {
+        value = new Date();
+      } else if (String.class.equals(parameter.getType())) {
+        value = "";
+      } else {
+        value = 0;
+      }
+      ret.put(parameter.getName(), parameter.isList() ? Arrays.asList(value) : value);
+    }
+    return ret;
+  }
+
+  private String toString(Object value) {
+    return value == null ? null : value.toString();
+  }
+
+  /** How one table is read by a query */
+  public static class TableAccess {
+
+    private final String queryName;
+
+    private final String table;
+
+    private final String accessType;
+
+    private final String key;
+
+    private final Long rows;
+
+    private final String error;
+
+    public TableAccess(
+        String queryName, String table, String accessType, String key, Long rows, String error) {
+      this.queryName = queryName;
+      this.table = table;
+      this.accessType = accessType;
+      this.key = key;
+      this.rows = rows;
+      this.error = error;
+    }
+
+    public String getQueryName() {
+      return queryName;
+    }
+
+    public String getTable() {
+      return table;
+    }
+
+    /** @return the access type, ALL for a full table scan */
+    public String getAccessType() {
+      return accessType;
+    }
+
+    /** @return the index used, null when none */
+    public String getKey() {
+      return key;
+    }
+
+    /** @return the estimated number of rows read */
+    public Long getRows() {
+      return rows;
+    }
+
+    /** @return the error if the query could not be explained */
+    public String getError() {
+      return error;
+    }
+
+    /**
+     * @return true if a database table is read with a full scan, derived tables and unions are not
+     *     flagged
+     */
+    public boolean isFullScan() {
+      return "ALL".equalsIgnoreCase(accessType) && table != null && !table.startsWith("<");
+    }
+  }
+}
@@ -0,0 +1,29 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.ehrreports.reporting.library.queries;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/** Receives the rows of a report query streamed from the database */
+public interface RowHandler {
+
+  /**
+   * Handles the current row of the result set, must not move the cursor
+   *
+   * @param rs the result set positioned on the row
+   * @throws SQLException if a column can not be read
+   */
+  void handle(ResultSet rs) throws SQLException;
+}
@@ -13,93 +13,258 @@
  */
 package org.openmrs.module.ehrreports.reporting.library.queries.moh717;
 
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import org.openmrs.module.ehrreports.reporting.library.queries.ReportQuery;
+
 public class Moh717Queries {
 
+  /** Outpatient query */
+  public static final ReportQuery OUT_PATIENTS =
+      ReportQuery.builder("moh717.outPatients")
+          .sql(
+              " SELECT p.patient_id FROM patient p INNER JOIN encounter e ON p.patient_id=e.patient_id "
+                  + " WHERE e.encounter_type IN(:encounterTypes) AND e.encounter_datetime BETWEEN :startDate AND :endDate AND p.voided=0 AND e.voided=0")
+          .listParameter("encounterTypes", Integer.class)
+          .parameter("startDate", Date.class)
+          .parameter("endDate", Date.class)
+          .build();
+
+  /** Special clinic query */
+  public static final ReportQuery SPECIAL_CLINIC_PATIENTS =
+      ReportQuery.builder("moh717.specialClinicPatients")
+          .sql(
+              " SELECT p.patient_id FROM patient p INNER JOIN encounter e ON p.patient_id=e.patient_id INNER JOIN obs o "
+                  + " ON e.encounter_id=o.encounter_id WHERE e.encounter_type IN(:encounterTypes) AND "
+                  + " o.concept_id=:question AND o.value_coded=:answer AND e.encounter_datetime BETWEEN :startDate AND :endDate AND p.voided=0 AND e.voided=0 AND o.voided=0 ")
+          .listParameter("encounterTypes", Integer.class)
+          .parameter("question", Integer.class)
+          .parameter("answer", Integer.class)
+          .parameter("startDate", Date.class)
+          .parameter("endDate", Date.class)
+          .build();
+
   /**
-   * Outpatient query
-   *
-   * @return String
+   * Special clinic patients of several clinics in one scan, selecting the clinic (value_coded) as
+   * row_value and the patient_id
    */
-  public static String getOutPatientClinicPatients(
-      int ADULTINITIAL_OUTPATIENT,
-      int ADULTRETURN_OUTPATIENT,
-      int PEDSINITIAL_OUTPATIENT,
-      int PEDSRETURN_OUTPATIENT,
-      int REGINITIAL_OUTPATIENT,
-      int REGREVISIT_OUTPATIENT,
-      int OPDENCOUNTER_OUTPATIENT) {
-    String sql =
-        " SELECT p.patient_id FROM patient p INNER JOIN encounter e ON p.patient_id=e.patient_id "
-            + " WHERE e.encounter_type in(%d, %d, %d, %d, %d, %d, %d) AND e.encounter_datetime BETWEEN :startDate AND :endDate AND p.voided=0 AND e.voided=0";
-
-    return String.format(
-        sql,
-        ADULTINITIAL_OUTPATIENT,
-        ADULTRETURN_OUTPATIENT,
-        PEDSINITIAL_OUTPATIENT,
-        PEDSRETURN_OUTPATIENT,
-        REGINITIAL_OUTPATIENT,
-        REGREVISIT_OUTPATIENT,
-        OPDENCOUNTER_OUTPATIENT);
+  public static final ReportQuery SPECIAL_CLINIC_PATIENTS_BY_ANSWER =
+      ReportQuery.builder("moh717.specialClinicPatientsByAnswer")
+          .sql(
+              " SELECT o.value_coded AS row_value, p.patient_id FROM patient p INNER JOIN encounter e ON p.patient_id=e.patient_id INNER JOIN obs o "
+                  + " ON e.encounter_id=o.encounter_id WHERE e.encounter_type IN(:encounterTypes) AND "
+                  + " o.concept_id=:question AND o.value_coded IN(:answers) AND e.encounter_datetime BETWEEN :startDate AND :endDate AND p.voided=0 AND e.voided=0 AND o.voided=0 "
+                  + " GROUP BY o.value_coded, p.patient_id ")
+          .listParameter("encounterTypes", Integer.class)
+          .parameter("question", Integer.class)
+          .listParameter("answers", Integer.class)
+          .parameter("startDate", Date.class)
+          .parameter("endDate", Date.class)
+          .build();
+
+  /** Casuality query */
+  public static final ReportQuery CASUALITY_PATIENTS =
+      ReportQuery.builder("moh717.casualityPatients")
+          .sql(
+              " SELECT p.patient_id FROM patient p INNER JOIN encounter e ON p.patient_id=e.patient_id INNER JOIN obs o "
+                  + " ON e.encounter_id=o.encounter_id WHERE o.concept_id IN(:questions) AND o.value_coded IN(:answers) AND e.encounter_datetime BETWEEN :startDate AND :endDate AND p.voided=0 AND e.voided=0 AND o.voided=0 ")
+          .listParameter("questions", Integer.class)
+          .listParameter("answers", Integer.class)
+          .parameter("startDate", Date.class)
+          .parameter("endDate", Date.class)
+          .build();
+
+  /** MCH base query */
+  public static final ReportQuery MCH_BASE_PATIENTS =
+      ReportQuery.builder("moh717.mchBasePatients")
+          .sql(
+              " SELECT p.patient_id FROM patient p INNER JOIN encounter e ON p.patient_id=e.patient_id INNER JOIN obs o "
+                  + " ON e.encounter_id=o.encounter_id WHERE o.concept_id IN(:questions) AND o.value_coded=:answer AND e.encounter_datetime BETWEEN :startDate AND :endDate AND p.voided=0 AND e.voided=0 AND o.voided=0 ")
+          .listParameter("questions", Integer.class)
+          .parameter("answer", Integer.class)
+          .parameter("startDate", Date.class)
+          .parameter("endDate", Date.class)
+          .build();
+
+  /** MCH/FP base query */
+  public static final ReportQuery FP_BASE_PATIENTS =
+      ReportQuery.builder("moh717.fpBasePatients")
+          .sql(
+              " SELECT p.patient_id FROM patient p INNER JOIN encounter e ON p.patient_id=e.patient_id INNER JOIN obs o "
+                  + " ON e.encounter_id=o.encounter_id WHERE o.concept_id=:question AND o.value_coded=:answer AND e.encounter_datetime BETWEEN :startDate AND :endDate AND p.voided=0 AND e.voided=0 AND o.voided=0 ")
+          .parameter("question", Integer.class)
+          .parameter("answer", Integer.class)
+          .parameter("startDate", Date.class)
+          .parameter("endDate", Date.class)
+          .build();
+
+  /**
+   * Patients with a coded obs answered with one of the answers between :startDate and :endOfDay,
+   * the end of the :endDate day as obs_datetime carries the time of the observation
+   */
+  public static final ReportQuery CODED_OBS_PATIENTS =
+      ReportQuery.builder("moh717.codedObsPatients")
+          .sql(
+              " SELECT o.person_id AS patient_id FROM obs o INNER JOIN person pr ON pr.person_id=o.person_id "
+                  + " WHERE o.voided=0 AND pr.voided=0 AND o.concept_id=:question AND o.value_coded IN(:answers) "
+                  + " AND o.obs_datetime BETWEEN :startDate AND :endOfDay ")
+          .parameter("question", Integer.class)
+          .listParameter("answers", Integer.class)
+          .parameter("startDate", Date.class)
+          .parameter("endOfDay", Date.class)
+          .build();
+
+  /**
+   * The :patients with an encounter of one of the types on or before :onOrBefore, read through the
+   * (patient_id, encounter_type, encounter_datetime) index
+   */
+  public static final ReportQuery PATIENTS_WITH_ENCOUNTER_ON_OR_BEFORE =
+      ReportQuery.builder("moh717.patientsWithEncounterOnOrBefore")
+          .sql(
+              "select e.patient_id from encounter e where e.voided = 0 "
+                  + "and e.patient_id in (:patients) and e.encounter_type in (:encounterTypes) "
+                  + "and e.encounter_datetime <= :onOrBefore group by e.patient_id")
+          .listParameter("patients", Integer.class)
+          .listParameter("encounterTypes", Integer.class)
+          .parameter("onOrBefore", Date.class)
+          .build();
+
+  /** Parameters every row query of the workload summary shares */
+  private static final List<String> SUMMARY_SHARED_PARAMETERS =
+      Arrays.asList("startDate", "endDate", "endOfDay");
+
+  /** @return the queries of the MOH 717 report */
+  public static List<ReportQuery> getQueries() {
+    return Arrays.asList(
+        OUT_PATIENTS,
+        SPECIAL_CLINIC_PATIENTS,
+        SPECIAL_CLINIC_PATIENTS_BY_ANSWER,
+        CASUALITY_PATIENTS,
+        MCH_BASE_PATIENTS,
+        FP_BASE_PATIENTS,
+        CODED_OBS_PATIENTS,
+        PATIENTS_WITH_ENCOUNTER_ON_OR_BEFORE);
   }
 
   /**
-   * Special clinic query
+   * Prefix of the parameters of a row query in the workload summary
    *
-   * @return String
+   * @param rowKey the row key
+   * @return the prefix
    */
-  public static String getSpecialClinicPatients(
-      int enc1,
-      int enc2,
-      int enc3,
-      int enc4,
-      int enc12,
-      int enc19,
-      int conceptsQsn,
-      int conceptAns) {
-    String sql =
-        " SELECT p.patient_id FROM patient p INNER JOIN encounter e ON p.patient_id=e.patient_id INNER JOIN obs o "
-            + " ON e.encounter_id=o.encounter_id WHERE e.encounter_type IN(%d, %d, %d, %d, %d, %d) AND "
-            + " o.concept_id IN(%d) AND o.value_coded IN(%d) AND e.encounter_datetime BETWEEN :startDate AND :endDate ";
-    return String.format(sql, enc1, enc2, enc3, enc4, enc12, enc19, conceptsQsn, conceptAns);
+  public static String getSummaryRowPrefix(String rowKey) {
+    return rowKey + "_";
   }
 
   /**
-   * Casulaity query
+   * MOH 717 workload summary. Counts the distinct patients of every row query by gender, age band
+   * (<5 or 5+ at :endDate) and state. The state is only set for patients with an encounter between
+   * :startDate and :endOfDay, and is RVT when they have one of the :revisitEncounterTypes on or
+   * before :endOfDay, NEW otherwise. The parameters of each row query other than :startDate,
+   * :endDate and :endOfDay are prefixed with {@link #getSummaryRowPrefix(String)}.
+   *
+   * <p>The age band uses TIMESTAMPDIFF, so the query only runs on MySQL (and MariaDB), the database
+   * OpenMRS supports. {@link
+   * org.openmrs.module.ehrreports.EhrReportsConfig#GP_MOH717_INDICATOR_DATA_SET} switches MOH 717
+   * back to the cohort indicator data set, which does not use it.
    *
-   * @return String
+   * @param rowQueries the patient queries keyed by row, each selecting a patient_id column
+   * @return the query
    */
-  public static String getPatientsInCasuality(
-      int conceptQn1, int conceptQn2, int conceptAns1, int conceptAns2) {
-    String sql =
-        " SELECT p.patient_id FROM patient p INNER JOIN encounter e ON p.patient_id=e.patient_id INNER JOIN obs o "
-            + " ON e.encounter_id=o.encounter_id WHERE  o.concept_id IN(%d, %d) AND o.value_coded IN(%d, %d) AND e.encounter_datetime BETWEEN :startDate AND :endDate ";
-    return String.format(sql, conceptQn1, conceptQn2, conceptAns1, conceptAns2);
+  public static ReportQuery getWorkloadSummary(Map<String, ReportQuery> rowQueries) {
+    return getWorkloadSummary(rowQueries, false);
   }
 
   /**
-   * Get MCH base query
+   * MOH 717 workload summary, see {@link #getWorkloadSummary(Map)}
    *
-   * @return String
+   * @param rowQueries the patient queries keyed by row, each selecting a patient_id column
+   * @param revisitsFromOpdVisits whether the first return visit dates of the
+   *     ehrreports_patient_visit table are used instead of the :revisitEncounterTypes encounters
+   * @return the query
    */
-  public static String getMchBaseQueries(int conceptQn1, int conceptQn2, int valueCoded) {
-    String sql =
-        " SELECT p.patient_id FROM patient p INNER JOIN encounter e ON p.patient_id=e.patient_id INNER JOIN obs o "
-            + " ON e.encounter_id=o.encounter_id WHERE  o.concept_id IN(%d, %d) AND o.value_coded IN(%d) AND e.encounter_datetime BETWEEN :startDate AND :endDate ";
+  public static ReportQuery getWorkloadSummary(
+      Map<String, ReportQuery> rowQueries, boolean revisitsFromOpdVisits) {
+    return getWorkloadSummary(rowQueries, Collections.<String>emptySet(), revisitsFromOpdVisits);
+  }
 
-    return String.format(sql, conceptQn1, conceptQn2, valueCoded);
+  /**
+   * Row key of the patients of a grouped row query with the given row_value
+   *
+   * @param rowKey the key of the grouped row query
+   * @param rowValue the row_value
+   * @return the row key in the workload summary
+   */
+  public static String getSummaryRowKey(String rowKey, Object rowValue) {
+    return rowKey + ":" + rowValue;
   }
 
   /**
-   * Get MCH/FP base query
+   * MOH 717 workload summary, see {@link #getWorkloadSummary(Map)}. The grouped row queries also
+   * select a row_value column, such as {@link #SPECIAL_CLINIC_PATIENTS_BY_ANSWER}, so several rows
+   * come out of one scan. Their patients are counted under {@link #getSummaryRowKey(String,
+   * Object)} for every row_value, cast to CHAR as MySQL may return the concatenation with a number
+   * as a binary string.
    *
-   * @return String
+   * @param rowQueries the patient queries keyed by row, each selecting a patient_id column
+   * @param groupedRows the keys of the row queries which select a row_value column
+   * @param revisitsFromOpdVisits whether the first return visit dates of the
+   *     ehrreports_patient_visit table are used instead of the :revisitEncounterTypes encounters
+   * @return the query
    */
-  public static String getFpBaseQueries(int conceptQn1, int valueCoded) {
+  public static ReportQuery getWorkloadSummary(
+      Map<String, ReportQuery> rowQueries,
+      Collection<String> groupedRows,
+      boolean revisitsFromOpdVisits) {
+    ReportQuery.Builder builder = ReportQuery.builder("moh717.workloadSummary");
+    StringBuilder rows = new StringBuilder();
+    for (Map.Entry<String, ReportQuery> row : rowQueries.entrySet()) {
+      if (!row.getKey().matches("[A-Za-z0-9_]+")) {
+        throw new IllegalArgumentException("Invalid row key: " + row.getKey());
+      }
+      String prefix = getSummaryRowPrefix(row.getKey());
+      if (rows.length() > 0) {
+        rows.append(" UNION ALL ");
+      }
+      rows.append(
+          String.format(
+              groupedRows.contains(row.getKey())
+                  ? " SELECT CAST(CONCAT('%s:', q.row_value) AS CHAR) AS row_key, q.patient_id FROM (%s) q "
+                  : " SELECT '%s' AS row_key, q.patient_id FROM (%s) q ",
+              row.getKey(),
+              row.getValue().getSql(prefix, SUMMARY_SHARED_PARAMETERS)));
+      builder.parametersOf(row.getValue(), prefix, SUMMARY_SHARED_PARAMETERS);
+    }
     String sql =
-        " SELECT p.patient_id FROM patient p INNER JOIN encounter e ON p.patient_id=e.patient_id INNER JOIN obs o "
-            + " ON e.encounter_id=o.encounter_id WHERE  o.concept_id IN(%d) AND o.value_coded IN(%d) AND e.encounter_datetime BETWEEN :startDate AND :endDate ";
-
-    return String.format(sql, conceptQn1, valueCoded);
+        " SELECT r.row_key, "
+            + " CASE WHEN pr.voided=0 THEN pr.gender END AS gender_option, "
+            + " CASE WHEN pr.voided=0 AND pr.birthdate <= :endDate THEN "
+            + "   CASE WHEN TIMESTAMPDIFF(YEAR, pr.birthdate, :endDate) < 5 THEN '<5' "
+            + "   WHEN TIMESTAMPDIFF(YEAR, pr.birthdate, :endDate) <= 200 THEN '5+' END "
+            + " END AS age_option, "
+            + " CASE WHEN NOT EXISTS (SELECT 1 FROM encounter v WHERE v.patient_id=r.patient_id AND v.voided=0 "
+            + "   AND v.encounter_datetime BETWEEN :startDate AND :endOfDay) THEN NULL "
+            + " WHEN EXISTS (%s) THEN 'RVT' "
+            + " ELSE 'NEW' END AS state_option, "
+            + " COUNT(DISTINCT r.patient_id) AS patients "
+            + " FROM (%s) r LEFT JOIN person pr ON pr.person_id=r.patient_id "
+            + " GROUP BY r.row_key, gender_option, age_option, state_option ";
+    String revisits =
+        revisitsFromOpdVisits
+            ? "SELECT 1 FROM ehrreports_patient_visit rv WHERE rv.patient_id=r.patient_id "
+                + " AND rv.first_return_date <= :endOfDay"
+            : "SELECT 1 FROM encounter rv WHERE rv.patient_id=r.patient_id AND rv.voided=0 "
+                + " AND rv.encounter_type IN(:revisitEncounterTypes) AND rv.encounter_datetime <= :endOfDay";
+    return builder
+        .sql(String.format(sql, revisits, rows))
+        .listParameter("revisitEncounterTypes", Integer.class)
+        .parameter("startDate", Date.class)
+        .parameter("endDate", Date.class)
+        .parameter("endOfDay", Date.class)
+        .build();
   }
 }
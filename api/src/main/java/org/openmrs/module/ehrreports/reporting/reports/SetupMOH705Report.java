@@ -37,6 +37,11 @@ public class SetupMOH705Report extends EhrDataExportManager {
     return "1.0-SNAPSHOT";
   }
 
+  @Override
+  public String getExcelTemplateName() {
+    return "MOH_705.xls";
+  }
+
   @Override
   public String getExcelDesignUuid() {
     return "a09387b4-8f73-11ea-8aa4-570ef4b78b59";
@@ -61,7 +66,11 @@ public class SetupMOH705Report extends EhrDataExportManager {
     try {
       reportDesign =
           createXlsReportDesign(
-              reportDefinition, "MOH_705.xls", "MOH 705 REPORT", getExcelDesignUuid(), null);
+              reportDefinition,
+              getExcelTemplateName(),
+              "MOH 705 REPORT",
+              getExcelDesignUuid(),
+              null);
       Properties props = new Properties();
       props.put("sortWeight", "5000");
       reportDesign.setProperties(props);
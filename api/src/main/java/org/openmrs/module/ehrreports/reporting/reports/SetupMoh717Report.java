@@ -4,6 +4,7 @@ import java.io.IOException;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Properties;
+import org.openmrs.module.ehrreports.EhrReportsConfig;
 import org.openmrs.module.ehrreports.reporting.library.datasets.Moh717Dataset;
 import org.openmrs.module.ehrreports.reporting.reports.manager.EhrDataExportManager;
 import org.openmrs.module.reporting.ReportingException;
@@ -18,6 +19,11 @@ public class SetupMoh717Report extends EhrDataExportManager {
 
   @Autowired private Moh717Dataset moh717Dataset;
 
+  @Override
+  public String getExcelTemplateName() {
+    return "MOH_717.xls";
+  }
+
   @Override
   public String getExcelDesignUuid() {
     return "8e26e9aa-8f72-11ea-8404-0be251dd2c08";
@@ -47,7 +53,12 @@ public class SetupMoh717Report extends EhrDataExportManager {
     rd.setParameters(moh717Dataset.getParameters());
     rd.setDescription(getDescription());
     // tie the dataset here, you can add more than one data set definition
-    rd.addDataSetDefinition("A", Mapped.mapStraightThrough(moh717Dataset.constructMoh717Dataset()));
+    rd.addDataSetDefinition(
+        "A",
+        Mapped.mapStraightThrough(
+            EhrReportsConfig.isMoh717IndicatorDataSetEnabled()
+                ? moh717Dataset.constructMoh717Dataset()
+                : moh717Dataset.constructMoh717SummaryDataset()));
     return rd;
   }
 
@@ -62,7 +73,11 @@ public class SetupMoh717Report extends EhrDataExportManager {
     try {
       reportDesign =
           createXlsReportDesign(
-              reportDefinition, "MOH_717.xls", "MOH717-Report", getExcelDesignUuid(), null);
+              reportDefinition,
+              getExcelTemplateName(),
+              "MOH717-Report",
+              getExcelDesignUuid(),
+              null);
       Properties props = new Properties();
       props.put("sortWeight", "5000");
       reportDesign.setProperties(props);
@@ -35,6 +35,14 @@ public abstract class EhrDataExportManager extends EhrReportManager {
   /** @return the uuid for the report design for exporting to Excel */
   public abstract String getExcelDesignUuid();
 
+  /**
+   * @return the classpath name of the Excel template of the report design, null if the design has
+   *     no template
+   */
+  public String getExcelTemplateName() {
+    return null;
+  }
+
   @Override
   public List<ReportDesign> constructReportDesigns(ReportDefinition reportDefinition) {
     List<ReportDesign> l = new ArrayList<ReportDesign>();
@@ -14,6 +14,8 @@
 
 package org.openmrs.module.ehrreports.reporting.reports.manager;
 
+import java.util.Collections;
+import java.util.List;
 import org.openmrs.module.reporting.common.ObjectUtil;
 import org.openmrs.module.reporting.data.encounter.definition.EncounterDataDefinition;
 import org.openmrs.module.reporting.data.encounter.definition.PatientToEncounterDataDefinition;
@@ -30,6 +32,14 @@ import org.openmrs.module.reporting.report.manager.BaseReportManager;
 /** Base implementation of ReportManager that provides some common method implementations */
 public abstract class EhrReportManager extends BaseReportManager {
 
+  /**
+   * @return the uuids of the reports which must be set up before this one, empty by default so the
+   *     report is set up in parallel with the others
+   */
+  public List<String> getDependencies() {
+    return Collections.emptyList();
+  }
+
   protected void addColumn(
       PatientDataSetDefinition dsd, String columnName, PatientDataDefinition pdd) {
     dsd.addColumn(columnName, pdd, Mapped.straightThroughMappings(pdd));
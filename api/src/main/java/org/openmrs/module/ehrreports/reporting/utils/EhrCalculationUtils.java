@@ -14,30 +14,42 @@
 package org.openmrs.module.ehrreports.reporting.utils;
 
 import java.util.ArrayList;
-import java.util.Calendar;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import org.joda.time.DateTime;
-import org.joda.time.Days;
-import org.joda.time.Months;
+import org.openmrs.BaseOpenmrsData;
 import org.openmrs.Cohort;
+import org.openmrs.Encounter;
+import org.openmrs.Location;
 import org.openmrs.Obs;
 import org.openmrs.api.APIException;
 import org.openmrs.api.context.Context;
 import org.openmrs.calculation.patient.PatientCalculation;
 import org.openmrs.calculation.patient.PatientCalculationContext;
+import org.openmrs.calculation.patient.PatientCalculationService;
 import org.openmrs.calculation.result.CalculationResult;
 import org.openmrs.calculation.result.CalculationResultMap;
 import org.openmrs.calculation.result.ListResult;
 import org.openmrs.calculation.result.ObsResult;
-import org.openmrs.calculation.result.ResultUtil;
 import org.openmrs.calculation.result.SimpleResult;
+import org.openmrs.module.ehrreports.EhrReportsConfig;
 import org.openmrs.module.ehrreports.reporting.calculation.BooleanResult;
+import org.openmrs.module.ehrreports.reporting.calculation.BooleanResultMap;
+import org.openmrs.module.ehrreports.reporting.calculation.CalculationResultPredicate;
 import org.openmrs.module.ehrreports.reporting.calculation.CalculationWithResultFinder;
+import org.openmrs.module.ehrreports.reporting.calculation.DateResultMap;
+import org.openmrs.module.ehrreports.reporting.calculation.EvaluatedDataCache;
+import org.openmrs.module.ehrreports.reporting.calculation.EvaluationBatchSizeController;
+import org.openmrs.module.ehrreports.reporting.calculation.PrimitiveResultMap;
+import org.openmrs.module.ehrreports.reporting.calculation.ShardedCalculationExecutor;
+import org.openmrs.module.ehrreports.reporting.cohort.BitSetCohort;
+import org.openmrs.module.ehrreports.reporting.cohort.PatientIdSet;
+import org.openmrs.module.reporting.cohort.definition.CohortDefinition;
+import org.openmrs.module.reporting.cohort.definition.service.CohortDefinitionService;
 import org.openmrs.module.reporting.data.DataDefinition;
 import org.openmrs.module.reporting.data.patient.EvaluatedPatientData;
 import org.openmrs.module.reporting.data.patient.definition.PatientDataDefinition;
@@ -48,10 +60,72 @@ import org.openmrs.module.reporting.data.person.definition.PersonDataDefinition;
 import org.openmrs.module.reporting.data.person.service.PersonDataService;
 import org.openmrs.module.reporting.evaluation.EvaluationContext;
 import org.openmrs.module.reporting.evaluation.EvaluationException;
+import org.openmrs.module.reporting.evaluation.parameter.Mapped;
 import org.openmrs.util.OpenmrsUtil;
 
 public class EhrCalculationUtils {
 
+  /** Calculation and reporting context cache key of the {@link EvaluatedDataCache} */
+  private static final String EVALUATED_DATA = "ehrreports.evaluatedData";
+
+  /** Turns the data evaluated for a batch of patients into results which hold no entities */
+  public interface BatchReducer {
+
+    /**
+     * @param data the evaluated data by patient id
+     * @param batch the patient ids of the batch
+     * @param calculation the calculation (optional)
+     * @param calculationContext the calculation context
+     * @return the results of the batch, usually a {@link PrimitiveResultMap}
+     */
+    CalculationResultMap reduce(
+        Map<Integer, Object> data,
+        Collection<Integer> batch,
+        PatientCalculation calculation,
+        PatientCalculationContext calculationContext);
+  }
+
+  /**
+   * Reduces the data of each patient to a date, that of an encounter or obs, or the latest of a
+   * list
+   */
+  public static final BatchReducer DATES =
+      new BatchReducer() {
+        @Override
+        public CalculationResultMap reduce(
+            Map<Integer, Object> data,
+            Collection<Integer> batch,
+            PatientCalculation calculation,
+            PatientCalculationContext calculationContext) {
+          DateResultMap ret = new DateResultMap(batch, calculation, calculationContext);
+          for (Integer ptId : batch) {
+            ret.put(ptId.intValue(), toDate(data.get(ptId)));
+          }
+          return ret;
+        }
+      };
+
+  /** Reduces the data of each patient to true when there is any, false for null or an empty list */
+  public static final BatchReducer EXISTS =
+      new BatchReducer() {
+        @Override
+        public CalculationResultMap reduce(
+            Map<Integer, Object> data,
+            Collection<Integer> batch,
+            PatientCalculation calculation,
+            PatientCalculationContext calculationContext) {
+          BooleanResultMap ret = new BooleanResultMap(calculation, calculationContext);
+          for (Integer ptId : batch) {
+            Object value = data.get(ptId);
+            boolean exists =
+                value != null
+                    && !(value instanceof Collection && ((Collection<?>) value).isEmpty());
+            ret.put(ptId.intValue(), Boolean.valueOf(exists));
+          }
+          return ret;
+        }
+      };
+
   /**
    * Ensures all patients exist in a result map. If map is missing entries for any of patientIds,
    * they are added with an empty list result
@@ -70,7 +144,9 @@ public class EhrCalculationUtils {
   }
 
   /**
-   * Evaluates a data definition on each patient using a reporting context
+   * Evaluates a data definition on each patient using a reporting context, in batches of {@link
+   * EhrReportsConfig#getCalculationBatchSize()} patients or of the size picked by the {@link
+   * EvaluationBatchSizeController} when it is not set
    *
    * @param dataDefinition the data definition
    * @param cohort the patient ids
@@ -85,49 +161,308 @@ public class EhrCalculationUtils {
       Map<String, Object> parameterValues,
       PatientCalculation calculation,
       PatientCalculationContext calculationContext) {
-    try {
-      EvaluationContext reportingContext =
-          ensureReportingContext(calculationContext, cohort, parameterValues);
-      Map<Integer, Object> data;
+    Integer batchSize = EhrReportsConfig.getCalculationBatchSize();
+    if (batchSize == null) {
+      batchSize =
+          getBatchSizeController().getBatchSize(dataDefinition.getClass().getName(), cohort.size());
+    }
+    return evaluateWithReporting(
+        dataDefinition, cohort, parameterValues, calculation, calculationContext, batchSize);
+  }
+
+  /**
+   * Evaluates a data definition on each patient using a reporting context. The cohort is split in
+   * batches, each batch is evaluated and turned into calculation results. The results keep the
+   * entities of every batch in the session, so data definitions returning encounters or obs should
+   * go through {@link #evaluateWithReporting(DataDefinition, Collection, Map, BatchReducer,
+   * PatientCalculation, PatientCalculationContext)} instead. The data of each batch is shared with
+   * the other calculations of the run unless it holds such entities.
+   *
+   * @param dataDefinition the data definition
+   * @param cohort the patient ids
+   * @param parameterValues the parameters for the reporting context
+   * @param calculation the calculation (optional)
+   * @param calculationContext the calculation context
+   * @param batchSize the number of patients per batch, 0 or less for a single batch
+   * @return the calculation result map
+   */
+  public static CalculationResultMap evaluateWithReporting(
+      DataDefinition dataDefinition,
+      Collection<Integer> cohort,
+      Map<String, Object> parameterValues,
+      PatientCalculation calculation,
+      PatientCalculationContext calculationContext,
+      int batchSize) {
+    CalculationResultMap ret = new CalculationResultMap();
+    for (List<Integer> batch : getBatches(cohort, batchSize)) {
+      Map<Integer, Object> data =
+          evaluateBatch(dataDefinition, batch, parameterValues, calculationContext);
+      for (Integer ptId : batch) {
+        ret.put(ptId, toCalculationResult(data.get(ptId), calculation, calculationContext));
+      }
+    }
+    return ret;
+  }
+
+  /**
+   * Evaluates a data definition on each patient using a reporting context, in batches of {@link
+   * EhrReportsConfig#getCalculationBatchSize()} patients or of the size picked by the {@link
+   * EvaluationBatchSizeController}. Each batch is reduced to results holding no entities, then the
+   * patient data entities it loaded, such as encounters and obs, are evicted from the session so
+   * they can be collected. Metadata and the other entities of the session are left attached. The
+   * reduced results of each batch are shared with the other calculations of the run, they must not
+   * be modified.
+   *
+   * @param dataDefinition the data definition
+   * @param cohort the patient ids
+   * @param parameterValues the parameters for the reporting context
+   * @param reducer turns the data of a batch into results
+   * @param calculation the calculation (optional)
+   * @param calculationContext the calculation context
+   * @return the calculation result map
+   */
+  public static CalculationResultMap evaluateWithReporting(
+      DataDefinition dataDefinition,
+      Collection<Integer> cohort,
+      Map<String, Object> parameterValues,
+      BatchReducer reducer,
+      PatientCalculation calculation,
+      PatientCalculationContext calculationContext) {
+    Integer batchSize = EhrReportsConfig.getCalculationBatchSize();
+    if (batchSize == null) {
+      batchSize =
+          getBatchSizeController().getBatchSize(dataDefinition.getClass().getName(), cohort.size());
+    }
+    EvaluatedDataCache dataCache = ensureEvaluatedDataCache(calculationContext);
+    String form = reducer.getClass().getName();
+    List<CalculationResultMap> parts = new ArrayList<CalculationResultMap>();
+    for (List<Integer> batch : getBatches(cohort, batchSize)) {
+      CalculationResultMap part =
+          (CalculationResultMap) dataCache.get(dataDefinition, batch, parameterValues, form);
+      if (part == null) {
+        // the data itself is not cached, its entities are evicted
+        Map<Integer, Object> data =
+            evaluateBatchData(dataDefinition, batch, parameterValues, calculationContext);
+        part = reducer.reduce(data, batch, calculation, calculationContext);
+        for (Object value : data.values()) {
+          evict(value);
+        }
+        dataCache.put(dataDefinition, batch, parameterValues, form, part);
+      }
+      parts.add(part);
+    }
+    return parts.isEmpty() ? new CalculationResultMap() : PrimitiveResultMap.combine(parts);
+  }
+
+  /** Splits the cohort in batches, a single batch when batchSize is 0 or less */
+  private static List<List<Integer>> getBatches(Collection<Integer> cohort, int batchSize) {
+    List<Integer> patients = new ArrayList<Integer>(cohort);
+    if (batchSize <= 0 || patients.size() <= batchSize) {
+      return Collections.singletonList(patients);
+    }
+    List<List<Integer>> ret = new ArrayList<List<Integer>>();
+    for (int from = 0; from < patients.size(); from += batchSize) {
+      ret.add(patients.subList(from, Math.min(from + batchSize, patients.size())));
+    }
+    return ret;
+  }
+
+  /** Evicts the patient data entities of an evaluated value, leaving metadata attached */
+  private static void evict(Object value) {
+    if (value instanceof Collection) {
+      for (Object item : (Collection<?>) value) {
+        evict(item);
+      }
+    } else if (value instanceof BaseOpenmrsData) {
+      Context.evictFromSession(value);
+    }
+  }
+
+  /** The date of an evaluated value, the latest for a list */
+  private static Date toDate(Object value) {
+    if (value instanceof Collection) {
+      Date ret = null;
+      for (Object item : (Collection<?>) value) {
+        Date date = toDate(item);
+        if (date != null && (ret == null || date.after(ret))) {
+          ret = date;
+        }
+      }
+      return ret;
+    } else if (value instanceof Date) {
+      return (Date) value;
+    } else if (value instanceof Encounter) {
+      return ((Encounter) value).getEncounterDatetime();
+    } else if (value instanceof Obs) {
+      return ((Obs) value).getObsDatetime();
+    }
+    return null;
+  }
 
+  private static EvaluationBatchSizeController getBatchSizeController() {
+    return Context.getRegisteredComponents(EvaluationBatchSizeController.class).get(0);
+  }
+
+  /** Evaluates one batch, reusing the data already evaluated for the same batch in this run */
+  @SuppressWarnings("unchecked")
+  private static Map<Integer, Object> evaluateBatch(
+      DataDefinition dataDefinition,
+      Collection<Integer> cohort,
+      Map<String, Object> parameterValues,
+      PatientCalculationContext calculationContext) {
+    EvaluatedDataCache dataCache = ensureEvaluatedDataCache(calculationContext);
+    Map<Integer, Object> data =
+        (Map<Integer, Object>)
+            dataCache.get(dataDefinition, cohort, parameterValues, EvaluatedDataCache.DATA);
+    if (data == null) {
+      data = evaluateBatchData(dataDefinition, cohort, parameterValues, calculationContext);
+      // the entities are only kept for as long as the caller holds its results
+      if (!holdsEntities(data.values())) {
+        dataCache.put(dataDefinition, cohort, parameterValues, EvaluatedDataCache.DATA, data);
+      }
+    }
+    return data;
+  }
+
+  /** Tells whether an evaluated value is or holds patient data entities */
+  private static boolean holdsEntities(Object value) {
+    if (value instanceof Collection) {
+      for (Object item : (Collection<?>) value) {
+        if (holdsEntities(item)) {
+          return true;
+        }
+      }
+      return false;
+    }
+    return value instanceof BaseOpenmrsData;
+  }
+
+  /**
+   * Evaluates one batch in a reporting context of its own, recording its heap growth with the
+   * {@link EvaluationBatchSizeController}
+   */
+  private static Map<Integer, Object> evaluateBatchData(
+      DataDefinition dataDefinition,
+      Collection<Integer> cohort,
+      Map<String, Object> parameterValues,
+      PatientCalculationContext calculationContext) {
+    EvaluationBatchSizeController controller = getBatchSizeController();
+    long heapUsedBefore = controller.getHeapUsed();
+    Map<Integer, Object> ret =
+        evaluateData(
+            dataDefinition, newReportingContext(calculationContext, cohort, parameterValues));
+    controller.recordBatch(
+        dataDefinition.getClass().getName(),
+        cohort.size(),
+        heapUsedBefore,
+        controller.getHeapUsed());
+    return ret;
+  }
+
+  private static Map<Integer, Object> evaluateData(
+      DataDefinition dataDefinition, EvaluationContext reportingContext) {
+    try {
       if (dataDefinition instanceof PersonDataDefinition) {
         EvaluatedPersonData result =
             Context.getService(PersonDataService.class)
                 .evaluate((PersonDataDefinition) dataDefinition, reportingContext);
-        data = result.getData();
+        return result.getData();
       } else if (dataDefinition instanceof PatientDataDefinition) {
         EvaluatedPatientData result =
             Context.getService(PatientDataService.class)
                 .evaluate((PatientDataDefinition) dataDefinition, reportingContext);
-        data = result.getData();
+        return result.getData();
       } else {
         throw new IllegalArgumentException(
             "Unknown DataDefinition type: " + dataDefinition.getClass());
       }
+    } catch (EvaluationException ex) {
+      throw new APIException(ex);
+    }
+  }
 
-      CalculationResultMap ret = new CalculationResultMap();
-      for (Integer ptId : cohort) {
-        Object reportingResult = data.get(ptId);
-        ret.put(ptId, toCalculationResult(reportingResult, calculation, calculationContext));
-      }
+  /**
+   * Evaluates a calculation for the patients of a reporting context. These are the candidate
+   * patients when a candidate cohort is given, narrowed to the base cohort of the context if it has
+   * one. Without candidates it is the base cohort, or all patients when there is no base cohort.
+   *
+   * @param calculation the calculation
+   * @param parameterValues the calculation parameters
+   * @param onOrAfter added to the calculation context cache as "onOrAfter"
+   * @param onOrBefore added to the calculation context cache as "onOrBefore"
+   * @param location added to the calculation context cache as "location"
+   * @param candidates the candidate patients (optional)
+   * @param context the reporting evaluation context
+   * @return the calculation results
+   */
+  public static CalculationResultMap evaluateCalculation(
+      PatientCalculation calculation,
+      Map<String, Object> parameterValues,
+      Date onOrAfter,
+      Date onOrBefore,
+      Location location,
+      Mapped<CohortDefinition> candidates,
+      EvaluationContext context) {
+    PatientCalculationService pcs = Context.getService(PatientCalculationService.class);
+    PatientCalculationContext calcContext = pcs.createCalculationContext();
+    calcContext.addToCache("location", location);
+    calcContext.addToCache("onOrAfter", onOrAfter);
+    calcContext.addToCache("onOrBefore", onOrBefore);
+    calcContext.addToCache(EVALUATED_DATA, ensureEvaluatedDataCache(context));
 
-      return ret;
+    Cohort cohort = context.getBaseCohort();
+    if (candidates != null) {
+      cohort = getCandidatePatients(candidates, context);
+    } else if (cohort == null) {
+      cohort = Context.getPatientSetService().getAllPatients();
+    }
+
+    return Context.getRegisteredComponents(ShardedCalculationExecutor.class)
+        .get(0)
+        .evaluate(
+            cohort.getMemberIds(),
+            calculation,
+            parameterValues,
+            calcContext,
+            Arrays.asList("location", "onOrAfter", "onOrBefore"));
+  }
+
+  /**
+   * Evaluates the candidate patients of a calculation, restricted to the base cohort of the context
+   * when it has one
+   *
+   * @param candidates the candidate cohort definition
+   * @param context the reporting evaluation context
+   * @return the candidate patients
+   */
+  protected static Cohort getCandidatePatients(
+      Mapped<CohortDefinition> candidates, EvaluationContext context) {
+    try {
+      BitSetCohort candidateCohort =
+          new BitSetCohort(
+              Context.getService(CohortDefinitionService.class)
+                  .evaluate(candidates, context)
+                  .getMemberIds(),
+              null,
+              context);
+      Cohort baseCohort = context.getBaseCohort();
+      return baseCohort == null ? candidateCohort : candidateCohort.and(baseCohort);
     } catch (EvaluationException ex) {
       throw new APIException(ex);
     }
   }
 
   /**
-   * Returns the reporting {@link EvaluationContext} stored in calculationContext, creating and
-   * storing a new one if necessary. (Note: for now we never store this, and always return a new
-   * one)
+   * Creates the reporting {@link EvaluationContext} of a batch. Every batch has a context of its
+   * own, so the results the reporting module caches in it can not be returned for another base
+   * cohort. The calculations of a run share their data through the {@link EvaluatedDataCache}.
    *
    * @param calculationContext the calculation context
    * @param cohort the patient ids
    * @param parameterValues the parameters for the reporting context
    * @return the reporting evaluation context
    */
-  protected static EvaluationContext ensureReportingContext(
+  protected static EvaluationContext newReportingContext(
       PatientCalculationContext calculationContext,
       Collection<Integer> cohort,
       Map<String, Object> parameterValues) {
@@ -135,7 +470,41 @@ public class EhrCalculationUtils {
     ret.setEvaluationDate(calculationContext.getNow());
     ret.setBaseCohort(new Cohort(cohort));
     ret.setParameterValues(parameterValues);
-    calculationContext.addToCache("reportingEvaluationContext", ret);
+    return ret;
+  }
+
+  /**
+   * Returns the {@link EvaluatedDataCache} stored in calculationContext, creating and storing a new
+   * one if necessary
+   *
+   * @param calculationContext the calculation context
+   * @return the evaluated data cache
+   */
+  protected static EvaluatedDataCache ensureEvaluatedDataCache(
+      PatientCalculationContext calculationContext) {
+    Object cached = calculationContext.getFromCache(EVALUATED_DATA);
+    if (cached instanceof EvaluatedDataCache) {
+      return (EvaluatedDataCache) cached;
+    }
+    EvaluatedDataCache ret = new EvaluatedDataCache();
+    calculationContext.addToCache(EVALUATED_DATA, ret);
+    return ret;
+  }
+
+  /**
+   * Returns the {@link EvaluatedDataCache} of a report run, stored in the cache of its reporting
+   * context, so the calculations of the run share their evaluated data
+   *
+   * @param context the reporting evaluation context
+   * @return the evaluated data cache
+   */
+  protected static EvaluatedDataCache ensureEvaluatedDataCache(EvaluationContext context) {
+    Object cached = context.getFromCache(EVALUATED_DATA);
+    if (cached instanceof EvaluatedDataCache) {
+      return (EvaluatedDataCache) cached;
+    }
+    EvaluatedDataCache ret = new EvaluatedDataCache();
+    context.addToCache(EVALUATED_DATA, ret);
     return ret;
   }
 
@@ -199,42 +568,28 @@ public class EhrCalculationUtils {
    *
    * @param results calculation result map
    * @param requiredResult the required result value
-   * @param context
-   * @return the extracted patient ids
+   * @param resultFinder how results are matched, compiled once into a {@link
+   *     CalculationResultPredicate}
+   * @param context the evaluation context
+   * @return the extracted patient ids, as a {@link PatientIdSet}
    */
   public static Set<Integer> patientsThatPass(
       CalculationResultMap results,
       Object requiredResult,
       CalculationWithResultFinder resultFinder,
       EvaluationContext context) {
-    Set<Integer> ret = new HashSet<Integer>();
+    if (results instanceof PrimitiveResultMap) {
+      return ((PrimitiveResultMap) results).patientsThatPass(resultFinder, requiredResult, context);
+    }
+    PatientIdSet ret = new PatientIdSet();
+    CalculationResultPredicate predicate =
+        CalculationResultPredicate.compile(resultFinder, requiredResult, context);
+    if (predicate == CalculationResultPredicate.NONE) {
+      return ret;
+    }
     for (Map.Entry<Integer, CalculationResult> e : results.entrySet()) {
-      CalculationResult result = e.getValue();
-
-      // If there is no required result, just check trueness of result,
-      // otherwise
-      // check result matches required result
-      boolean nullResultFinder =
-          CalculationWithResultFinder.NULL.equals(resultFinder)
-              && result.getValue() == null
-              && requiredResult == null;
-      boolean defaultResultFinder =
-          CalculationWithResultFinder.DEFAULT.equals(resultFinder)
-              && ((requiredResult == null
-                      && (ResultUtil.isTrue(result) || result.getValue() == null))
-                  || (result != null && result.getValue().equals(requiredResult)));
-      boolean dateOutsideResultFinder =
-          context != null
-              && CalculationWithResultFinder.DATE_OUTSIDE.equals(resultFinder)
-              && result.getValue() instanceof Date
-              && context.getParameterValue("startDate") instanceof Date
-              && context.getParameterValue("endDate") instanceof Date
-              && !dateBetween(
-                  (Date) context.getParameterValue("startDate"),
-                  (Date) context.getParameterValue("endDate"),
-                  (Date) result.getValue());
-      if (nullResultFinder || defaultResultFinder || dateOutsideResultFinder) {
-        ret.add(e.getKey());
+      if (predicate.test(e.getValue())) {
+        ret.add(e.getKey().intValue());
       }
     }
     return ret;
@@ -258,9 +613,7 @@ public class EhrCalculationUtils {
    * @return the number of days
    */
   public static int monthsSince(Date date1, Date date2) {
-    DateTime d1 = new DateTime(date1.getTime());
-    DateTime d2 = new DateTime(date2.getTime());
-    return Math.abs(Months.monthsBetween(d1, d2).getMonths());
+    return Math.abs(EhrDateUtils.monthsBetween(date1.getTime(), date2.getTime()));
   }
 
   /**
@@ -271,9 +624,7 @@ public class EhrCalculationUtils {
    * @return the number of days
    */
   public static int daysSince(Date date1, Date date2) {
-    DateTime d1 = new DateTime(date1.getTime());
-    DateTime d2 = new DateTime(date2.getTime());
-    return Math.abs(Days.daysBetween(d1, d2).getDays());
+    return Math.abs(EhrDateUtils.daysBetween(date1.getTime(), date2.getTime()));
   }
 
   /**
@@ -316,10 +667,7 @@ public class EhrCalculationUtils {
    * @return new date with added months
    */
   public static Date addMonths(Date date, int months) {
-    Calendar c = Calendar.getInstance();
-    c.setTime(date);
-    c.add(Calendar.MONTH, months);
-    return c.getTime();
+    return new Date(EhrDateUtils.plusMonths(date.getTime(), months));
   }
 
   /**
@@ -330,10 +678,7 @@ public class EhrCalculationUtils {
    * @return new date with added days
    */
   public static Date addDays(Date date, int days) {
-    Calendar c = Calendar.getInstance();
-    c.setTime(date);
-    c.add(Calendar.DATE, days);
-    return c.getTime();
+    return new Date(EhrDateUtils.plusDays(date.getTime(), days));
   }
 
   /**
@@ -0,0 +1,305 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.ehrreports.reporting.utils;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * Date arithmetic on epoch millis and epoch days in the report time zone, the default zone of the
+ * server read on each call like Joda time and {@link java.util.Calendar} do. Apart from that zone
+ * lookup nothing is allocated except the returned dates and strings, so the per-patient date logic
+ * of the calculations makes little garbage. The results match Joda time and Calendar in the same
+ * zone.
+ */
+public final class EhrDateUtils {
+
+  public static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+  private static final ThreadLocal<SimpleDateFormat> DATE_FORMAT =
+      new ThreadLocal<SimpleDateFormat>() {
+        @Override
+        protected SimpleDateFormat initialValue() {
+          return newFormat("dd-MM-yyyy");
+        }
+      };
+
+  private static final ThreadLocal<SimpleDateFormat> DATE_TIME_FORMAT =
+      new ThreadLocal<SimpleDateFormat>() {
+        @Override
+        protected SimpleDateFormat initialValue() {
+          return newFormat("dd-MM-yyyy HH:mm:ss");
+        }
+      };
+
+  private EhrDateUtils() {}
+
+  /** @return a copy of the report time zone */
+  public static TimeZone getReportTimeZone() {
+    return TimeZone.getDefault();
+  }
+
+  /**
+   * @param millis epoch millis
+   * @return the local wall time of the instant, as millis since the local epoch
+   */
+  public static long toLocalMillis(long millis) {
+    return toLocalMillis(getReportTimeZone(), millis);
+  }
+
+  /**
+   * Converts a wall time to an instant. A wall time repeated or skipped by a daylight saving change
+   * is read as standard time, like {@link java.util.Calendar}.
+   *
+   * @param localMillis the local wall time, as millis since the local epoch
+   * @return the epoch millis of the wall time
+   */
+  public static long fromLocalMillis(long localMillis) {
+    return fromLocalMillis(getReportTimeZone(), localMillis);
+  }
+
+  /**
+   * @param millis epoch millis
+   * @return the local day of the instant, as days since 1970-01-01
+   */
+  public static long epochDay(long millis) {
+    return floorDiv(toLocalMillis(millis), MILLIS_PER_DAY);
+  }
+
+  /**
+   * Counts the whole days between two instants, like Joda's Days.daysBetween
+   *
+   * @param from the start, epoch millis
+   * @param to the end, epoch millis
+   * @return the days, negative when the end is before the start
+   */
+  public static int daysBetween(long from, long to) {
+    TimeZone zone = getReportTimeZone();
+    return (int) ((toLocalMillis(zone, to) - toLocalMillis(zone, from)) / MILLIS_PER_DAY);
+  }
+
+  /**
+   * Counts the whole months between two instants, like Joda's Months.monthsBetween. A month ending
+   * on the last day of a shorter month counts as whole.
+   *
+   * @param from the start, epoch millis
+   * @param to the end, epoch millis
+   * @return the months, negative when the end is before the start
+   */
+  public static int monthsBetween(long from, long to) {
+    TimeZone zone = getReportTimeZone();
+    long start = toLocalMillis(zone, from);
+    long end = toLocalMillis(zone, to);
+    return end < start ? -monthDifference(start, end) : monthDifference(end, start);
+  }
+
+  /**
+   * Adds days to an instant, keeping the local time of day. Across a daylight saving change the
+   * offset is adjusted the way {@link java.util.Calendar#add} does.
+   *
+   * @param millis epoch millis
+   * @param days the days to add, may be negative
+   * @return the epoch millis of the result
+   */
+  public static long plusDays(long millis, int days) {
+    if (days == 0) {
+      return millis;
+    }
+    TimeZone zone = getReportTimeZone();
+    int offset = zone.getOffset(millis);
+    long local = millis + offset + days * MILLIS_PER_DAY;
+    long ret = local - offset;
+    int adjustment = offset - zone.getOffset(ret);
+    if (adjustment != 0
+        && floorDiv(toLocalMillis(zone, ret + adjustment), MILLIS_PER_DAY)
+            == floorDiv(local, MILLIS_PER_DAY)) {
+      ret += adjustment;
+    }
+    return ret;
+  }
+
+  /**
+   * Adds months to an instant, keeping the local time of day. The day is moved back to the last day
+   * of a shorter month, like {@link java.util.Calendar#add}.
+   *
+   * @param millis epoch millis
+   * @param months the months to add, may be negative
+   * @return the epoch millis of the result
+   */
+  public static long plusMonths(long millis, int months) {
+    if (months == 0) {
+      return millis;
+    }
+    TimeZone zone = getReportTimeZone();
+    long local = toLocalMillis(zone, millis);
+    long day = floorDiv(local, MILLIS_PER_DAY);
+    long millisOfDay = local - day * MILLIS_PER_DAY;
+    int civil = toCivil(day);
+    long month = (long) year(civil) * 12 + month(civil) - 1 + months;
+    int year = (int) floorDiv(month, 12);
+    int monthOfYear = (int) (month - year * 12L) + 1;
+    int dayOfMonth = Math.min(dayOfMonth(civil), lengthOfMonth(year, monthOfYear));
+    return fromLocalMillis(
+        zone, fromCivil(year, monthOfYear, dayOfMonth) * MILLIS_PER_DAY + millisOfDay);
+  }
+
+  /**
+   * Converts an epoch day to a date of the proleptic Gregorian calendar
+   *
+   * @param epochDay days since 1970-01-01
+   * @return the year, month and day packed as read by {@link #year}, {@link #month} and {@link
+   *     #dayOfMonth}
+   */
+  public static int toCivil(long epochDay) {
+    long z = epochDay + 719468;
+    long era = (z >= 0 ? z : z - 146096) / 146097;
+    long dayOfEra = z - era * 146097;
+    long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+    long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+    long shiftedMonth = (5 * dayOfYear + 2) / 153;
+    int day = (int) (dayOfYear - (153 * shiftedMonth + 2) / 5 + 1);
+    int month = (int) (shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9);
+    int year = (int) (yearOfEra + era * 400 + (month <= 2 ? 1 : 0));
+    return (year << 9) | (month << 5) | day;
+  }
+
+  /**
+   * Converts a date of the proleptic Gregorian calendar to an epoch day
+   *
+   * @param year the year
+   * @param month the month, 1 to 12
+   * @param dayOfMonth the day of the month, 1 to 31
+   * @return days since 1970-01-01
+   */
+  public static long fromCivil(int year, int month, int dayOfMonth) {
+    long y = month <= 2 ? year - 1 : year;
+    long era = (y >= 0 ? y : y - 399) / 400;
+    long yearOfEra = y - era * 400;
+    long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + dayOfMonth - 1;
+    long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+    return era * 146097 + dayOfEra - 719468;
+  }
+
+  /**
+   * @param civil a date packed by {@link #toCivil}
+   * @return the year
+   */
+  public static int year(int civil) {
+    return civil >> 9;
+  }
+
+  /**
+   * @param civil a date packed by {@link #toCivil}
+   * @return the month, 1 to 12
+   */
+  public static int month(int civil) {
+    return (civil >> 5) & 15;
+  }
+
+  /**
+   * @param civil a date packed by {@link #toCivil}
+   * @return the day of the month, 1 to 31
+   */
+  public static int dayOfMonth(int civil) {
+    return civil & 31;
+  }
+
+  /**
+   * @param year the year
+   * @param month the month, 1 to 12
+   * @return the number of days of the month
+   */
+  public static int lengthOfMonth(int year, int month) {
+    switch (month) {
+      case 2:
+        return (year % 4 == 0 && year % 100 != 0) || year % 400 == 0 ? 29 : 28;
+      case 4:
+      case 6:
+      case 9:
+      case 11:
+        return 30;
+      default:
+        return 31;
+    }
+  }
+
+  /**
+   * @param date the date
+   * @return the date as dd-MM-yyyy in the report time zone
+   */
+  public static String formatDate(Date date) {
+    return format(DATE_FORMAT.get(), date);
+  }
+
+  /**
+   * @param date the date
+   * @return the date as dd-MM-yyyy HH:mm:ss in the report time zone
+   */
+  public static String formatDateWithTime(Date date) {
+    return format(DATE_TIME_FORMAT.get(), date);
+  }
+
+  private static long toLocalMillis(TimeZone zone, long millis) {
+    return millis + zone.getOffset(millis);
+  }
+
+  private static long fromLocalMillis(TimeZone zone, long localMillis) {
+    int before = zone.getOffset(localMillis - MILLIS_PER_DAY);
+    int after = zone.getOffset(localMillis + MILLIS_PER_DAY);
+    if (before == after) {
+      return localMillis - before;
+    }
+    long earlier = localMillis - Math.max(before, after);
+    long later = localMillis - Math.min(before, after);
+    boolean earlierValid = earlier + zone.getOffset(earlier) == localMillis;
+    boolean laterValid = later + zone.getOffset(later) == localMillis;
+    return earlierValid && !laterValid ? earlier : later;
+  }
+
+  private static String format(SimpleDateFormat format, Date date) {
+    format.setTimeZone(getReportTimeZone());
+    return format.format(date);
+  }
+
+  private static int monthDifference(long minuend, long subtrahend) {
+    long minuendDay = floorDiv(minuend, MILLIS_PER_DAY);
+    long subtrahendDay = floorDiv(subtrahend, MILLIS_PER_DAY);
+    int minuendCivil = toCivil(minuendDay);
+    int subtrahendCivil = toCivil(subtrahendDay);
+    int minuendYear = year(minuendCivil);
+    int minuendMonth = month(minuendCivil);
+    int minuendDom = dayOfMonth(minuendCivil);
+    int subtrahendDom = dayOfMonth(subtrahendCivil);
+    int difference =
+        (minuendYear - year(subtrahendCivil)) * 12 + minuendMonth - month(subtrahendCivil);
+    if (minuendDom == lengthOfMonth(minuendYear, minuendMonth) && subtrahendDom > minuendDom) {
+      subtrahendDom = minuendDom;
+    }
+    long minuendRemainder =
+        (minuendDom - 1) * MILLIS_PER_DAY + minuend - minuendDay * MILLIS_PER_DAY;
+    long subtrahendRemainder =
+        (subtrahendDom - 1) * MILLIS_PER_DAY + subtrahend - subtrahendDay * MILLIS_PER_DAY;
+    return minuendRemainder < subtrahendRemainder ? difference - 1 : difference;
+  }
+
+  private static long floorDiv(long x, long y) {
+    long q = x / y;
+    return (x % y != 0 && (x ^ y) < 0) ? q - 1 : q;
+  }
+
+  private static SimpleDateFormat newFormat(String pattern) {
+    return new SimpleDateFormat(pattern);
+  }
+}
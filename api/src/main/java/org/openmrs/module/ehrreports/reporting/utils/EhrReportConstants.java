@@ -12,10 +12,9 @@
 
 package org.openmrs.module.ehrreports.reporting.utils;
 
-import java.util.ArrayList;
 import java.util.List;
 import org.openmrs.Program;
-import org.openmrs.ProgramWorkflowState;
+import org.openmrs.module.ehrreports.metadata.ProgramsMetadata;
 
 public final class EhrReportConstants {
 
@@ -96,10 +95,6 @@ public final class EhrReportConstants {
   }
 
   public static List<Integer> getProgramWorkflowStateIds(Program program) {
-    List<Integer> defaultStateIds = new ArrayList<>();
-    for (ProgramWorkflowState p : program.getAllWorkflows().iterator().next().getStates()) {
-      defaultStateIds.add(p.getProgramWorkflowStateId());
-    }
-    return defaultStateIds;
+    return ProgramsMetadata.getDefaultWorkflowStateIds(program);
   }
 }
@@ -14,20 +14,26 @@
 
 package org.openmrs.module.ehrreports.reporting.utils;
 
-import java.text.Format;
-import java.text.SimpleDateFormat;
-import java.util.ArrayList;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.security.MessageDigest;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Properties;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import org.apache.commons.lang.StringUtils;
 import org.openmrs.GlobalProperty;
 import org.openmrs.Program;
 import org.openmrs.ProgramWorkflowState;
 import org.openmrs.api.context.Context;
+import org.openmrs.module.ehrreports.metadata.ProgramsMetadata;
+import org.openmrs.module.ehrreports.reporting.reports.manager.EhrDataExportManager;
 import org.openmrs.module.reporting.ReportingException;
 import org.openmrs.module.reporting.cohort.definition.CohortDefinition;
 import org.openmrs.module.reporting.evaluation.parameter.Mapped;
@@ -38,10 +44,20 @@ import org.openmrs.module.reporting.report.definition.ReportDefinition;
 import org.openmrs.module.reporting.report.definition.service.ReportDefinitionService;
 import org.openmrs.module.reporting.report.manager.ReportManager;
 import org.openmrs.module.reporting.report.manager.ReportManagerUtil;
+import org.openmrs.module.reporting.serializer.ReportingSerializer;
+import org.openmrs.util.OpenmrsClassLoader;
+import org.openmrs.util.OpenmrsUtil;
 
 /** Epts Reports module utilities */
 public class EhrReportUtils {
 
+  /** The uuids of a serialized definition and of the objects it references, in group 1 or 2 */
+  private static final Pattern UUIDS = Pattern.compile("<uuid>([^<]*)</uuid>|uuid=\"([^\"]*)\"");
+
+  /** The creation dates of a serialized definition */
+  private static final Pattern DATES_CREATED =
+      Pattern.compile("<dateCreated[^>]*>[^<]*</dateCreated>");
+
   /**
    * Purges a Report Definition from the database
    *
@@ -60,9 +76,20 @@ public class EhrReportUtils {
       if (gp != null) {
         Context.getAdministrationService().purgeGlobalProperty(gp);
       }
+
+      GlobalProperty fingerprint =
+          Context.getAdministrationService()
+              .getGlobalPropertyObject(getFingerprintGlobalPropertyName(reportManager));
+      if (fingerprint != null) {
+        Context.getAdministrationService().purgeGlobalProperty(fingerprint);
+      }
     }
   }
 
+  private static String getFingerprintGlobalPropertyName(ReportManager reportManager) {
+    return "ehrreports.reportManager." + reportManager.getUuid() + ".fingerprint";
+  }
+
   /**
    * Returns the Report Definition matching the provided uuid.
    *
@@ -77,12 +104,108 @@ public class EhrReportUtils {
   }
 
   /**
-   * Setup a Report Definition in a database
+   * Setup a Report Definition in a database, unless its fingerprint is the one stored by the last
+   * setup and the definition is still there
    *
    * @param reportManager the Report Definition
+   * @return true if the report was set up, false if it was unchanged
+   * @see #getReportFingerprint(ReportManager)
    */
-  public static void setupReportDefinition(ReportManager reportManager) {
+  public static boolean setupReportDefinition(ReportManager reportManager) {
+    String fingerprint = getReportFingerprint(reportManager);
+    String gpName = getFingerprintGlobalPropertyName(reportManager);
+    GlobalProperty gp = Context.getAdministrationService().getGlobalPropertyObject(gpName);
+    ReportDefinitionService reportService = Context.getService(ReportDefinitionService.class);
+    if (gp != null
+        && fingerprint.equals(gp.getPropertyValue())
+        && reportService.getDefinitionByUuid(reportManager.getUuid()) != null) {
+      return false;
+    }
     ReportManagerUtil.setupReport(reportManager);
+    if (gp == null) {
+      gp =
+          new GlobalProperty(
+              gpName, fingerprint, "Fingerprint of the last setup of " + reportManager.getName());
+    } else {
+      gp.setPropertyValue(fingerprint);
+    }
+    Context.getAdministrationService().saveGlobalProperty(gp);
+    return true;
+  }
+
+  /**
+   * Gets the fingerprint of a report: a SHA-1 of its version, of its serialized definition without
+   * the generated uuids and dates, and of the bytes of its Excel template. The definition is
+   * constructed twice and only the uuids that differ between the two are dropped, so the uuids of
+   * referenced metadata and of definitions with a fixed uuid are still part of the fingerprint.
+   *
+   * @param reportManager the report manager
+   * @return the hex fingerprint
+   */
+  public static String getReportFingerprint(ReportManager reportManager) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-1");
+      digest.update(reportManager.getVersion().getBytes("UTF-8"));
+      ReportingSerializer serializer =
+          Context.getSerializationService().getSerializer(ReportingSerializer.class);
+      String definition = serializer.serialize(reportManager.constructReportDefinition());
+      String generated = serializer.serialize(reportManager.constructReportDefinition());
+      digest.update(removeGeneratedUuids(definition, generated).getBytes("UTF-8"));
+      if (reportManager instanceof EhrDataExportManager) {
+        String template = ((EhrDataExportManager) reportManager).getExcelTemplateName();
+        if (template != null) {
+          InputStream is = OpenmrsClassLoader.getInstance().getResourceAsStream(template);
+          if (is == null) {
+            throw new ReportingException(
+                "Excel template "
+                    + template
+                    + " of report "
+                    + reportManager.getName()
+                    + " not found");
+          }
+          ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+          try {
+            OpenmrsUtil.copyFile(is, bytes);
+          } finally {
+            is.close();
+          }
+          digest.update(bytes.toByteArray());
+        }
+      }
+      StringBuilder ret = new StringBuilder();
+      for (byte b : digest.digest()) {
+        ret.append(String.format("%02x", b));
+      }
+      return ret.toString();
+    } catch (ReportingException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new ReportingException("Unable to fingerprint report " + reportManager.getName(), e);
+    }
+  }
+
+  /**
+   * Removes the creation dates, and the uuids generated when the definition was constructed: the
+   * ones not found in a second construction of the same definition
+   *
+   * @param definition the serialized definition
+   * @param other another serialization of the same definition
+   * @return the definition without its generated values
+   */
+  static String removeGeneratedUuids(String definition, String other) {
+    Set<String> stable = new HashSet<String>();
+    Matcher matcher = UUIDS.matcher(other);
+    while (matcher.find()) {
+      stable.add(matcher.group(1) != null ? matcher.group(1) : matcher.group(2));
+    }
+    StringBuffer ret = new StringBuffer();
+    matcher = UUIDS.matcher(definition);
+    while (matcher.find()) {
+      String uuid = matcher.group(1) != null ? matcher.group(1) : matcher.group(2);
+      matcher.appendReplacement(ret, stable.contains(uuid) ? "$0" : "");
+    }
+    matcher.appendTail(ret);
+    return DATES_CREATED.matcher(ret).replaceAll("");
   }
 
   /**
@@ -137,10 +260,7 @@ public class EhrReportUtils {
    * @return
    */
   public static Parameter getProgramConfigurableParameter(Program program) {
-    List<ProgramWorkflowState> defaultStates = new ArrayList<>();
-    for (ProgramWorkflowState p : program.getAllWorkflows().iterator().next().getStates()) {
-      defaultStates.add(p);
-    }
+    List<ProgramWorkflowState> defaultStates = ProgramsMetadata.getDefaultWorkflowStates(program);
 
     Parameter parameter = new Parameter();
     parameter.setName("state");
@@ -159,16 +279,10 @@ public class EhrReportUtils {
   }
 
   public static String formatDateWithTime(Date date) {
-
-    Format formatter = new SimpleDateFormat("dd-MM-yyyy HH:mm:ss");
-
-    return formatter.format(date);
+    return EhrDateUtils.formatDateWithTime(date);
   }
 
   public static String formatDate(Date date) {
-
-    Format formatter = new SimpleDateFormat("dd-MM-yyyy");
-
-    return formatter.format(date);
+    return EhrDateUtils.formatDate(date);
   }
 }
@@ -0,0 +1,107 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.ehrreports.task;
+
+import java.util.Arrays;
+import java.util.List;
+import org.apache.commons.lang.math.NumberUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.ehrreports.api.EhrReportsService;
+import org.openmrs.module.ehrreports.metadata.OutpatientMetadata;
+import org.openmrs.scheduler.tasks.AbstractTask;
+
+/**
+ * Keeps the ehrreports_opd_visit fact table up to date. Every run copies the encounters created
+ * since the last run, batch by batch from the high-water mark, copies again the visits of the
+ * patients whose encounters or clinics below the mark changed since the last run, then drops the
+ * visits that have been voided since they were copied. The "batchSize" task property sets the
+ * number of encounter ids copied per transaction.
+ */
+public class OpdVisitFactTask extends AbstractTask {
+
+  public static final String BATCH_SIZE_PROPERTY = "batchSize";
+
+  public static final int DEFAULT_BATCH_SIZE = 10000;
+
+  private Log log = LogFactory.getLog(this.getClass());
+
+  @Override
+  public void execute() {
+    Context.openSession();
+    try {
+      OutpatientMetadata outpatientMetadata =
+          Context.getRegisteredComponents(OutpatientMetadata.class).get(0);
+      EhrReportsService service = Context.getService(EhrReportsService.class);
+      List<Integer> encounterTypeIds = getEncounterTypeIds(outpatientMetadata);
+      Integer clinicQuestion = outpatientMetadata.getSpecialClinicConcept().getConceptId();
+      int batchSize = getBatchSize();
+
+      List<Integer> returnEncounterTypeIds =
+          Arrays.asList(
+              outpatientMetadata.getRegReturnEncounterType().getEncounterTypeId(),
+              outpatientMetadata.getAdultReturnEncounterType().getEncounterTypeId(),
+              outpatientMetadata.getPedsReturnEncounterType().getEncounterTypeId());
+
+      int batches = 1;
+      while (service.updateOpdVisits(
+          encounterTypeIds, returnEncounterTypeIds, clinicQuestion, batchSize)) {
+        batches++;
+      }
+      int refreshed =
+          service.refreshChangedOpdVisits(encounterTypeIds, returnEncounterTypeIds, clinicQuestion);
+      int purged = service.purgeVoidedOpdVisits(returnEncounterTypeIds);
+      log.info(
+          "OPD visit facts updated in "
+              + batches
+              + " batches, "
+              + refreshed
+              + " changed patients copied again, "
+              + purged
+              + " voided visits removed");
+    } catch (Exception e) {
+      log.error("Error while updating the OPD visit facts", e);
+    } finally {
+      Context.closeSession();
+    }
+  }
+
+  /**
+   * The encounter types copied into the fact table, the outpatient encounters and the special
+   * clinic check in and ANC encounters
+   */
+  private List<Integer> getEncounterTypeIds(OutpatientMetadata outpatientMetadata) {
+    return Arrays.asList(
+        outpatientMetadata.getAdultsInitialEncounterType().getEncounterTypeId(),
+        outpatientMetadata.getAdultReturnEncounterType().getEncounterTypeId(),
+        outpatientMetadata.getPedsInitialEncounterType().getEncounterTypeId(),
+        outpatientMetadata.getPedsReturnEncounterType().getEncounterTypeId(),
+        outpatientMetadata.getRegInitialEncounterType().getEncounterTypeId(),
+        outpatientMetadata.getRegReturnEncounterType().getEncounterTypeId(),
+        outpatientMetadata.getOpdEncounterType().getEncounterTypeId(),
+        outpatientMetadata.getCheckInEncounterType().getEncounterTypeId(),
+        outpatientMetadata.getAncEncounterType().getEncounterTypeId());
+  }
+
+  private int getBatchSize() {
+    int batchSize = DEFAULT_BATCH_SIZE;
+    if (getTaskDefinition() != null) {
+      batchSize =
+          NumberUtils.toInt(
+              getTaskDefinition().getProperty(BATCH_SIZE_PROPERTY), DEFAULT_BATCH_SIZE);
+    }
+    return batchSize > 0 ? batchSize : DEFAULT_BATCH_SIZE;
+  }
+}
@@ -0,0 +1,106 @@
+package org.openmrs.module.ehrreports.reporting;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import org.openmrs.module.ehrreports.reporting.reports.manager.EhrReportManager;
+import org.openmrs.module.reporting.report.ReportDesign;
+import org.openmrs.module.reporting.report.definition.ReportDefinition;
+
+public class EhrReportInitializerTest {
+
+  /** @see EhrReportInitializer#getWaves(List) */
+  @Test
+  public void shouldSetUpReportsAfterTheirDependencies() {
+    EhrReportManager a = new TestReportManager("a");
+    EhrReportManager b = new TestReportManager("b", "a");
+    EhrReportManager c = new TestReportManager("c", "a", "b");
+    EhrReportManager d = new TestReportManager("d");
+
+    assertEquals(Arrays.asList("a,d", "b", "c"), names(Arrays.asList(c, b, a, d)));
+  }
+
+  /** @see EhrReportInitializer#getWaves(List) */
+  @Test
+  public void shouldIgnoreDependenciesOnUnknownReports() {
+    EhrReportManager a = new TestReportManager("a", "unknown");
+    EhrReportManager b = new TestReportManager("b");
+
+    assertEquals(Arrays.asList("a,b"), names(Arrays.asList(a, b)));
+  }
+
+  /** @see EhrReportInitializer#getWaves(List) */
+  @Test
+  public void shouldSetUpReportsInACycleLast() {
+    EhrReportManager a = new TestReportManager("a");
+    EhrReportManager b = new TestReportManager("b", "c");
+    EhrReportManager c = new TestReportManager("c", "b");
+    EhrReportManager d = new TestReportManager("d", "b");
+
+    assertEquals(Arrays.asList("a", "b,c,d"), names(Arrays.asList(a, b, c, d)));
+    assertEquals(0, EhrReportInitializer.getWaves(new ArrayList<EhrReportManager>()).size());
+  }
+
+  /** @return the uuids of each wave, comma separated */
+  private List<String> names(List<EhrReportManager> reportManagers) {
+    List<String> ret = new ArrayList<String>();
+    for (List<EhrReportManager> wave : EhrReportInitializer.getWaves(reportManagers)) {
+      StringBuilder uuids = new StringBuilder();
+      for (EhrReportManager reportManager : wave) {
+        uuids.append(uuids.length() == 0 ? "" : ",").append(reportManager.getUuid());
+      }
+      ret.add(uuids.toString());
+    }
+    return ret;
+  }
+
+  private static class TestReportManager extends EhrReportManager {
+
+    private final String uuid;
+
+    private final List<String> dependencies;
+
+    private TestReportManager(String uuid, String... dependencies) {
+      this.uuid = uuid;
+      this.dependencies = Arrays.asList(dependencies);
+    }
+
+    @Override
+    public List<String> getDependencies() {
+      return dependencies;
+    }
+
+    @Override
+    public String getUuid() {
+      return uuid;
+    }
+
+    @Override
+    public String getName() {
+      return uuid;
+    }
+
+    @Override
+    public String getDescription() {
+      return uuid;
+    }
+
+    @Override
+    public ReportDefinition constructReportDefinition() {
+      return null;
+    }
+
+    @Override
+    public List<ReportDesign> constructReportDesigns(ReportDefinition reportDefinition) {
+      return new ArrayList<ReportDesign>();
+    }
+
+    @Override
+    public String getVersion() {
+      return "1.0";
+    }
+  }
+}
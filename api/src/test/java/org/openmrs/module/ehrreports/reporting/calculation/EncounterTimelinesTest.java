@@ -0,0 +1,99 @@
+package org.openmrs.module.ehrreports.reporting.calculation;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+public class EncounterTimelinesTest {
+
+  /** @see EncounterTimelines#getTimes(int) */
+  @Test
+  public void shouldGroupTheEncountersByPatient() {
+    EncounterTimelines timelines = new EncounterTimelines();
+    timelines.add(2, 10L, 1);
+    timelines.add(2, 20L, 2);
+    timelines.add(5, 20L, 1);
+
+    assertArrayEquals(new int[] {2, 5}, timelines.getPatientIds());
+    assertEquals(3, timelines.size());
+    assertEquals(2, timelines.count(2));
+    assertEquals(0, timelines.count(3));
+    assertArrayEquals(new long[] {10L, 20L}, timelines.getTimes(2));
+    assertArrayEquals(new int[] {1, 2}, timelines.getTypes(2));
+    assertEquals(0, timelines.getTimes(3).length);
+    assertEquals(0, timelines.getTypes(3).length);
+    assertEquals(new Date(10L), timelines.getFirst(2));
+    assertEquals(new Date(20L), timelines.getLast(2));
+    assertNull(timelines.getFirst(3));
+    assertNull(timelines.getLast(3));
+  }
+
+  /** @see EncounterTimelines#hasTypeOnOrBefore(int, int, long) */
+  @Test
+  public void shouldFindTypesOnOrBeforeATime() {
+    EncounterTimelines timelines = new EncounterTimelines();
+    timelines.add(1, 10L, 1);
+    timelines.add(1, 20L, 2);
+
+    assertTrue(timelines.hasTypeOnOrBefore(1, 2, 20L));
+    assertFalse(timelines.hasTypeOnOrBefore(1, 2, 19L));
+    assertFalse(timelines.hasTypeOnOrBefore(1, 3, 20L));
+    assertFalse(timelines.hasTypeOnOrBefore(2, 1, 20L));
+  }
+
+  /** @see EncounterTimelines#add(int, long, int) */
+  @Test(expected = IllegalStateException.class)
+  public void shouldRejectPatientsOutOfOrder() {
+    EncounterTimelines timelines = new EncounterTimelines();
+    timelines.add(2, 10L, 1);
+    timelines.add(1, 10L, 1);
+  }
+
+  /** @see EncounterTimelines#countBetween(int, long, long) */
+  @Test
+  public void shouldCountLikeAScanOfTheEncounters() {
+    Random random = new Random(1);
+    EncounterTimelines timelines = new EncounterTimelines();
+    List<long[]> encounters = new ArrayList<long[]>();
+    for (int patientId = 1; patientId <= 100; patientId += 1 + random.nextInt(3)) {
+      long time = 0;
+      for (int i = random.nextInt(10); i > 0; i--) {
+        time += random.nextInt(3);
+        timelines.add(patientId, time, 1);
+        encounters.add(new long[] {patientId, time});
+      }
+    }
+    assertEquals(encounters.size(), timelines.size());
+
+    for (int i = 0; i < 10000; i++) {
+      int patientId = 1 + random.nextInt(100);
+      long from = random.nextInt(20) - 2;
+      long to = random.nextInt(20) - 2;
+      int expected = 0;
+      for (long[] encounter : encounters) {
+        if (encounter[0] == patientId && encounter[1] >= from && encounter[1] <= to) {
+          expected++;
+        }
+      }
+      assertEquals(
+          patientId + " " + from + " " + to, expected, timelines.countBetween(patientId, from, to));
+    }
+    assertEquals(encounters.size(), countAll(timelines));
+  }
+
+  private int countAll(EncounterTimelines timelines) {
+    int ret = 0;
+    for (int patientId : timelines.getPatientIds()) {
+      ret += timelines.count(patientId);
+    }
+    return ret;
+  }
+}
@@ -0,0 +1,104 @@
+package org.openmrs.module.ehrreports.reporting.calculation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import org.junit.Test;
+import org.openmrs.calculation.result.CalculationResult;
+import org.openmrs.calculation.result.CalculationResultMap;
+import org.openmrs.calculation.result.SimpleResult;
+
+public class PrimitiveResultMapTest {
+
+  /** @see PrimitiveResultMap#combine(java.util.List) */
+  @Test
+  public void shouldReturnASinglePartAsIs() {
+    BooleanResultMap part = BooleanResultMap.of(Arrays.asList(1), Arrays.asList(1), null, null);
+    assertSame(part, PrimitiveResultMap.combine(Arrays.<CalculationResultMap>asList(part)));
+  }
+
+  /** @see PrimitiveResultMap#combine(java.util.List) */
+  @Test
+  public void shouldCombineBooleanParts() {
+    BooleanResultMap first =
+        BooleanResultMap.of(Arrays.asList(1, 2, 3), Arrays.asList(1, 3), null, null);
+    first.put(4, (Boolean) null);
+    BooleanResultMap second =
+        BooleanResultMap.of(Arrays.asList(3, 5), Arrays.asList(5), null, null);
+    second.put(6, (Boolean) null);
+
+    CalculationResultMap combined =
+        PrimitiveResultMap.combine(Arrays.<CalculationResultMap>asList(first, second));
+
+    assertTrue(combined instanceof BooleanResultMap);
+    Map<Integer, Object> expected = new HashMap<Integer, Object>();
+    expected.put(1, true);
+    expected.put(2, false);
+    expected.put(3, false);
+    expected.put(4, null);
+    expected.put(5, true);
+    expected.put(6, null);
+    assertEquals(expected, valuesOf(combined));
+    assertEquals(
+        new HashSet<Integer>(Arrays.asList(4, 6)),
+        ((BooleanResultMap) combined)
+            .patientsThatPass(CalculationWithResultFinder.NULL, null, null));
+  }
+
+  /** @see PrimitiveResultMap#combine(java.util.List) */
+  @Test
+  public void shouldCombineDateParts() {
+    DateResultMap first = new DateResultMap(Arrays.asList(1, 2, 3), null, null);
+    first.put(1, new Date(1000L));
+    first.put(2, (Date) null);
+    DateResultMap second = new DateResultMap(Arrays.asList(2, 9), null, null);
+    second.put(9, new Date(9000L));
+
+    CalculationResultMap combined =
+        PrimitiveResultMap.combine(Arrays.<CalculationResultMap>asList(first, second));
+
+    assertTrue(combined instanceof DateResultMap);
+    Map<Integer, Object> expected = new HashMap<Integer, Object>();
+    expected.put(1, new Date(1000L));
+    expected.put(2, null);
+    expected.put(9, new Date(9000L));
+    assertEquals(expected, valuesOf(combined));
+    assertEquals(new Date(9000L), ((DateResultMap) combined).getDate(9));
+  }
+
+  /** @see PrimitiveResultMap#combine(java.util.List) */
+  @Test
+  public void shouldCombineMixedPartsInAPlainMap() {
+    BooleanResultMap booleans = BooleanResultMap.of(Arrays.asList(1), Arrays.asList(1), null, null);
+    DateResultMap dates = new DateResultMap(Arrays.asList(2), null, null);
+    dates.put(2, new Date(2000L));
+    CalculationResultMap plain = new CalculationResultMap();
+    plain.put(3, new SimpleResult("three", null));
+
+    CalculationResultMap combined =
+        PrimitiveResultMap.combine(Arrays.<CalculationResultMap>asList(booleans, dates, plain));
+
+    assertEquals(CalculationResultMap.class, combined.getClass());
+    Map<Integer, Object> expected = new HashMap<Integer, Object>();
+    expected.put(1, true);
+    expected.put(2, new Date(2000L));
+    expected.put(3, "three");
+    assertEquals(expected, valuesOf(combined));
+    assertTrue(PrimitiveResultMap.combine(Collections.<CalculationResultMap>emptyList()).isEmpty());
+  }
+
+  private Map<Integer, Object> valuesOf(CalculationResultMap results) {
+    Map<Integer, Object> ret = new HashMap<Integer, Object>();
+    for (Map.Entry<Integer, CalculationResult> e : results.entrySet()) {
+      ret.put(e.getKey(), e.getValue() == null ? null : e.getValue().getValue());
+    }
+    return ret;
+  }
+}
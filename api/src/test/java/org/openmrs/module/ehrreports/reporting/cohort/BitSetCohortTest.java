@@ -0,0 +1,43 @@
+package org.openmrs.module.ehrreports.reporting.cohort;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import org.junit.Test;
+import org.openmrs.Cohort;
+import org.openmrs.module.reporting.evaluation.EvaluationContext;
+
+public class BitSetCohortTest {
+
+  private final EvaluationContext context = new EvaluationContext();
+
+  /** @see BitSetCohort#getPatientIds() */
+  @Test
+  public void shouldKeepTheMembersInAPatientIdSet() {
+    PatientIdSet ids = PatientIdSet.copyOf(Arrays.asList(1, 2, 3));
+    BitSetCohort cohort = new BitSetCohort(ids, null, context);
+    assertSame(ids, cohort.getPatientIds());
+    assertEquals(3, cohort.size());
+    assertTrue(cohort.contains(2));
+
+    BitSetCohort copied = new BitSetCohort(new HashSet<Integer>(ids), null, context);
+    assertTrue(copied.getMemberIds() instanceof PatientIdSet);
+    assertEquals(ids, copied.getMemberIds());
+  }
+
+  /** @see BitSetCohort#and(Cohort) */
+  @Test
+  public void shouldCombineWithOtherCohorts() {
+    BitSetCohort cohort = new BitSetCohort(Arrays.asList(1, 2, 3), null, context);
+    Cohort other = new Cohort(Arrays.asList(2, 3, 4));
+
+    assertEquals(new HashSet<Integer>(Arrays.asList(2, 3)), cohort.and(other).getMemberIds());
+    assertEquals(new HashSet<Integer>(Arrays.asList(1, 2, 3, 4)), cohort.or(other).getMemberIds());
+    assertEquals(new HashSet<Integer>(Arrays.asList(1)), cohort.andNot(other).getMemberIds());
+    assertSame(context, cohort.and(other).getContext());
+    assertEquals(3, cohort.size());
+  }
+}
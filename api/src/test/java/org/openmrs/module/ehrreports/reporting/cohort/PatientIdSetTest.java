@@ -0,0 +1,132 @@
+package org.openmrs.module.ehrreports.reporting.cohort;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Test;
+
+public class PatientIdSetTest {
+
+  /** @see PatientIdSet#add(Integer) */
+  @Test
+  public void shouldHoldTheIdsInOrderWithoutDuplicates() {
+    PatientIdSet set = PatientIdSet.copyOf(Arrays.asList(7, 3, 1000000, 3, 0));
+    assertEquals(4, set.size());
+    assertEquals(Arrays.asList(0, 3, 7, 1000000), new ArrayList<Integer>(set));
+    assertTrue(set.contains(7));
+    assertFalse(set.contains(8));
+    assertFalse(set.contains(-1));
+    assertFalse(set.contains("7"));
+    assertFalse(set.add(7));
+    assertTrue(set.remove(Integer.valueOf(7)));
+    assertFalse(set.remove(Integer.valueOf(7)));
+    assertEquals(3, set.size());
+  }
+
+  /** @see PatientIdSet#add(int) */
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldRejectNegativeIds() {
+    new PatientIdSet().add(-1);
+  }
+
+  /** @see PatientIdSet#add(Integer) */
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldRejectNullIds() {
+    new PatientIdSet().add((Integer) null);
+  }
+
+  /** @see PatientIdSet#and(java.util.Collection) */
+  @Test
+  public void shouldMatchHashSetOperations() {
+    Random random = new Random(1);
+    for (int i = 0; i < 100; i++) {
+      Set<Integer> left = randomIds(random);
+      Set<Integer> right = randomIds(random);
+      PatientIdSet bits = PatientIdSet.copyOf(left);
+
+      Set<Integer> and = new HashSet<Integer>(left);
+      and.retainAll(right);
+      Set<Integer> or = new HashSet<Integer>(left);
+      or.addAll(right);
+      Set<Integer> andNot = new HashSet<Integer>(left);
+      andNot.removeAll(right);
+
+      assertEquals(and, bits.and(right));
+      assertEquals(and, bits.and(PatientIdSet.copyOf(right)));
+      assertEquals(and.size(), bits.and(right).size());
+      assertEquals(or, bits.or(right));
+      assertEquals(or.size(), bits.or(PatientIdSet.copyOf(right)).size());
+      assertEquals(andNot, bits.andNot(right));
+      assertEquals(andNot.size(), bits.andNot(PatientIdSet.copyOf(right)).size());
+      assertEquals(left, bits);
+    }
+  }
+
+  /** @see PatientIdSet#of(java.util.Collection) */
+  @Test
+  public void shouldOnlyCopyIdsThatAreNotAlreadyASet() {
+    PatientIdSet set = PatientIdSet.copyOf(Arrays.asList(1, 2));
+    assertSame(set, PatientIdSet.of(set));
+    PatientIdSet copy = PatientIdSet.copyOf(set);
+    copy.add(3);
+    assertEquals(2, set.size());
+    assertEquals(0, PatientIdSet.copyOf(null).size());
+  }
+
+  /** @see PatientIdSet#iterator() */
+  @Test
+  public void shouldRemoveThroughTheIterator() {
+    PatientIdSet set = PatientIdSet.copyOf(Arrays.asList(1, 2, 3, 4));
+    Iterator<Integer> it = set.iterator();
+    while (it.hasNext()) {
+      if (it.next() % 2 == 0) {
+        it.remove();
+      }
+    }
+    assertEquals(Arrays.asList(1, 3), new ArrayList<Integer>(set));
+    assertEquals(2, set.size());
+  }
+
+  /** @see PatientIdSet#iterator() */
+  @Test(expected = ConcurrentModificationException.class)
+  public void shouldFailFastWhenModifiedWhileIterating() {
+    PatientIdSet set = PatientIdSet.copyOf(Arrays.asList(1, 2));
+    Iterator<Integer> it = set.iterator();
+    it.next();
+    set.add(3);
+    it.next();
+  }
+
+  /** @see PatientIdSet#digest() */
+  @Test
+  public void shouldDigestEqualSetsTheSame() {
+    List<Integer> ids = Arrays.asList(5, 64, 65, 100000);
+    PatientIdSet set = PatientIdSet.copyOf(ids);
+    PatientIdSet grown = PatientIdSet.copyOf(ids);
+    grown.add(200000);
+    grown.remove(Integer.valueOf(200000));
+    assertEquals(set.digest(), grown.digest());
+    assertFalse(set.digest().equals(PatientIdSet.copyOf(Arrays.asList(5, 64, 65)).digest()));
+    assertFalse(
+        set.digest().equals(PatientIdSet.copyOf(Arrays.asList(5, 64, 66, 100000)).digest()));
+  }
+
+  private Set<Integer> randomIds(Random random) {
+    Set<Integer> ret = new HashSet<Integer>();
+    int size = random.nextInt(200);
+    for (int i = 0; i < size; i++) {
+      ret.add(random.nextInt(1000));
+    }
+    return ret;
+  }
+}
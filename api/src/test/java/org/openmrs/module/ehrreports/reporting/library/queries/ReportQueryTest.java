@@ -0,0 +1,102 @@
+package org.openmrs.module.ehrreports.reporting.library.queries;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Test;
+import org.openmrs.module.ehrreports.reporting.library.queries.ReportQuery.BoundQuery;
+
+public class ReportQueryTest {
+
+  private final ReportQuery query =
+      ReportQuery.builder("test")
+          .sql(
+              "SELECT p.patient_id FROM patient p WHERE p.date_created <= :endDate"
+                  + " AND p.patient_id IN (:ids) AND p.time <> '10:30' AND @x := 1")
+          .parameter("endDate", Date.class)
+          .listParameter("ids", Integer.class)
+          .build();
+
+  /** @see ReportQuery#bind(Map) */
+  @Test
+  public void shouldBindParametersOutsideQuotedStrings() {
+    Date endDate = new Date();
+    BoundQuery bound = query.bind(values(endDate, Arrays.asList(1)));
+    assertEquals(
+        "SELECT p.patient_id FROM patient p WHERE p.date_created <= ?"
+            + " AND p.patient_id IN (?) AND p.time <> '10:30' AND @x := 1",
+        bound.getSql());
+    assertEquals(Arrays.<Object>asList(endDate, 1), bound.getArguments());
+  }
+
+  /** @see ReportQuery#bind(Map) */
+  @Test
+  public void shouldPadListsToThePowerOfTwoWithTheLastValue() {
+    Date endDate = new Date();
+    assertEquals(
+        Arrays.<Object>asList(endDate, 1, 2),
+        query.bind(values(endDate, Arrays.asList(1, 2))).getArguments());
+    BoundQuery bound = query.bind(values(endDate, Arrays.asList(1, 2, 3)));
+    assertEquals(Arrays.<Object>asList(endDate, 1, 2, 3, 3), bound.getArguments());
+    assertTrue(bound.getSql().contains("IN (?, ?, ?, ?)"));
+    assertEquals(
+        9, query.bind(values(endDate, Arrays.asList(1, 2, 3, 4, 5))).getArguments().size());
+  }
+
+  /** @see ReportQuery#bind(Map) */
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldRejectAnEmptyList() {
+    query.bind(values(new Date(), Collections.<Integer>emptyList()));
+  }
+
+  /** @see ReportQuery#bind(Map) */
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldRejectAValueOfTheWrongType() {
+    Map<String, Object> values = values(null, Arrays.asList(1));
+    values.put("endDate", "2020-01-01");
+    query.bind(values);
+  }
+
+  /** @see ReportQuery#bind(Map) */
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldRejectListElementsOfTheWrongType() {
+    Map<String, Object> values = values(new Date(), null);
+    values.put("ids", Arrays.asList("1"));
+    query.bind(values);
+  }
+
+  /** @see ReportQuery.Builder#build() */
+  @Test(expected = IllegalStateException.class)
+  public void shouldRejectAnUndeclaredParameter() {
+    ReportQuery.builder("undeclared").sql("SELECT 1 WHERE x = :x").build();
+  }
+
+  /** @see ReportQuery#getSql(String, java.util.Collection) */
+  @Test
+  public void shouldPrefixTheParametersThatAreNotShared() {
+    assertEquals(
+        "SELECT p.patient_id FROM patient p WHERE p.date_created <= :endDate"
+            + " AND p.patient_id IN (:q1_ids) AND p.time <> '10:30' AND @x := 1",
+        query.getSql("q1_", Arrays.asList("endDate")));
+
+    ReportQuery combined =
+        ReportQuery.builder("combined")
+            .sql(query.getSql("q1_", Arrays.asList("endDate")))
+            .parametersOf(query, "q1_", Arrays.asList("endDate"))
+            .build();
+    assertTrue(combined.getParameters().get("q1_ids").isList());
+    assertEquals(Date.class, combined.getParameters().get("endDate").getType());
+  }
+
+  private Map<String, Object> values(Date endDate, Object ids) {
+    Map<String, Object> ret = new HashMap<String, Object>();
+    ret.put("endDate", endDate);
+    ret.put("ids", ids);
+    return ret;
+  }
+}
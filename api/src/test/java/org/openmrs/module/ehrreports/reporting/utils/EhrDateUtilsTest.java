@@ -0,0 +1,116 @@
+package org.openmrs.module.ehrreports.reporting.utils;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Random;
+import java.util.TimeZone;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.Days;
+import org.joda.time.Months;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Compares {@link EhrDateUtils} with Joda time and {@link Calendar} on random dates */
+public class EhrDateUtilsTest {
+
+  private static final String[] ZONES = {
+    "UTC", "Africa/Nairobi", "America/New_York", "Europe/London", "Australia/Sydney"
+  };
+
+  private static final int DATES = 2000000;
+
+  private TimeZone defaultZone;
+
+  private DateTimeZone defaultJodaZone;
+
+  @Before
+  public void saveDefaultZone() {
+    defaultZone = TimeZone.getDefault();
+    defaultJodaZone = DateTimeZone.getDefault();
+  }
+
+  @After
+  public void restoreDefaultZone() {
+    TimeZone.setDefault(defaultZone);
+    DateTimeZone.setDefault(defaultJodaZone);
+  }
+
+  /** @see EhrDateUtils#daysBetween(long, long) */
+  @Test
+  public void shouldMatchJodaAndCalendarInEveryZone() {
+    Random random = new Random(1);
+    for (String id : ZONES) {
+      setDefaultZone(id);
+      for (int i = 0; i < DATES / ZONES.length; i++) {
+        long from = randomMillis(random);
+        long to = i % 3 == 0 ? nearby(random, from) : randomMillis(random);
+        if (i % 5 == 0) {
+          from = endOfMonth(from);
+        }
+        int amount = random.nextInt(61) - 30;
+        assertMatches(id, from, to, amount);
+      }
+    }
+  }
+
+  /** @see EhrDateUtils#formatDate(Date) */
+  @Test
+  public void shouldFollowTheDefaultZone() {
+    Date date = new Date(1262304000000L); // 2010-01-01 00:00 UTC
+    setDefaultZone("UTC");
+    assertEquals("01-01-2010", EhrDateUtils.formatDate(date));
+    assertEquals("01-01-2010 00:00:00", EhrDateUtils.formatDateWithTime(date));
+    setDefaultZone("America/New_York");
+    assertEquals("31-12-2009", EhrDateUtils.formatDate(date));
+    assertEquals("31-12-2009 19:00:00", EhrDateUtils.formatDateWithTime(date));
+  }
+
+  private void assertMatches(String zone, long from, long to, int amount) {
+    String message = zone + " " + new Date(from) + " " + new Date(to) + " " + amount;
+    DateTime start = new DateTime(from);
+    DateTime end = new DateTime(to);
+    assertEquals(
+        message, Days.daysBetween(start, end).getDays(), EhrDateUtils.daysBetween(from, to));
+    assertEquals(
+        message,
+        Months.monthsBetween(start, end).getMonths(),
+        EhrDateUtils.monthsBetween(from, to));
+
+    Calendar calendar = Calendar.getInstance();
+    calendar.setTimeInMillis(from);
+    calendar.add(Calendar.MONTH, amount);
+    assertEquals(message, calendar.getTimeInMillis(), EhrDateUtils.plusMonths(from, amount));
+    calendar.setTimeInMillis(from);
+    calendar.add(Calendar.DATE, amount * 7);
+    assertEquals(message, calendar.getTimeInMillis(), EhrDateUtils.plusDays(from, amount * 7));
+  }
+
+  private void setDefaultZone(String id) {
+    TimeZone.setDefault(TimeZone.getTimeZone(id));
+    DateTimeZone.setDefault(DateTimeZone.forID(id));
+  }
+
+  /** @return a random instant between 2000 and 2040 */
+  private long randomMillis(Random random) {
+    return 946684800000L + (long) (random.nextDouble() * 40 * 365 * EhrDateUtils.MILLIS_PER_DAY);
+  }
+
+  /** @return an instant at most two days and an hour from the given one */
+  private long nearby(Random random, long millis) {
+    return millis
+        + (random.nextInt(5) - 2) * EhrDateUtils.MILLIS_PER_DAY
+        + random.nextInt(7200000)
+        - 3600000;
+  }
+
+  private long endOfMonth(long millis) {
+    Calendar calendar = Calendar.getInstance();
+    calendar.setTimeInMillis(millis);
+    calendar.set(Calendar.DAY_OF_MONTH, calendar.getActualMaximum(Calendar.DAY_OF_MONTH));
+    return calendar.getTimeInMillis();
+  }
+}
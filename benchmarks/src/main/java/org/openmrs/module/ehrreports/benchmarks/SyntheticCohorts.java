@@ -0,0 +1,79 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.ehrreports.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Synthetic cohorts and dates for the benchmarks. The patient ids have the gaps of a real patient
+ * table and every value comes from a fixed seed so runs before and after a change are comparable.
+ */
+public final class SyntheticCohorts {
+
+  /** The seed of every generated value */
+  public static final long SEED = 717L;
+
+  /** The first day of the generated dates, 2015-01-01 */
+  public static final long FROM = 1420070400000L;
+
+  /** The length of the generated date range, 5 years */
+  public static final long RANGE = 5L * 365 * 24 * 60 * 60 * 1000;
+
+  private SyntheticCohorts() {}
+
+  /**
+   * @param size the number of patients
+   * @return ascending patient ids, about one in ten followed by a gap
+   */
+  public static List<Integer> cohort(int size) {
+    Random random = new Random(SEED);
+    List<Integer> ret = new ArrayList<Integer>(size);
+    int id = 0;
+    for (int i = 0; i < size; i++) {
+      id += 1 + (random.nextInt(10) == 0 ? random.nextInt(5) : 0);
+      ret.add(id);
+    }
+    return ret;
+  }
+
+  /**
+   * @param size the number of dates
+   * @return dates spread over {@link #RANGE} from {@link #FROM}
+   */
+  public static Date[] dates(int size) {
+    Random random = new Random(SEED);
+    Date[] ret = new Date[size];
+    for (int i = 0; i < size; i++) {
+      ret[i] = new Date(FROM + (long) (random.nextDouble() * RANGE));
+    }
+    return ret;
+  }
+
+  /**
+   * @param size the number of values
+   * @param ratio the share of true values
+   * @return random booleans
+   */
+  public static boolean[] booleans(int size, double ratio) {
+    Random random = new Random(SEED);
+    boolean[] ret = new boolean[size];
+    for (int i = 0; i < size; i++) {
+      ret[i] = random.nextDouble() < ratio;
+    }
+    return ret;
+  }
+}
@@ -0,0 +1,95 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.ehrreports.reporting.calculation;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openmrs.calculation.result.CalculationResultMap;
+import org.openmrs.calculation.result.SimpleResult;
+import org.openmrs.module.ehrreports.benchmarks.SyntheticCohorts;
+import org.openmrs.module.ehrreports.reporting.cohort.PatientIdSet;
+import org.openmrs.module.ehrreports.reporting.utils.EhrReportConstants.OccurenceStates;
+
+/**
+ * The result map {@link PatientOccurenceCalculation} builds from the NEW and REVISIT split, as one
+ * result object per patient and as a {@link BooleanResultMap}. The split itself is a database query
+ * and is not measured.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class OccurenceResultMapBenchmark {
+
+  @Param({"10000", "100000", "1000000"})
+  public int size;
+
+  private List<Integer> cohort;
+
+  private PatientIdSet revisits;
+
+  private PatientIdSet newPatients;
+
+  @Setup
+  public void setUp() {
+    cohort = SyntheticCohorts.cohort(size);
+    boolean[] revisit = SyntheticCohorts.booleans(size, 0.6);
+    revisits = new PatientIdSet();
+    for (int i = 0; i < size; i++) {
+      if (revisit[i]) {
+        revisits.add(cohort.get(i).intValue());
+      }
+    }
+    newPatients = PatientIdSet.copyOf(cohort).andNot(revisits);
+  }
+
+  @Benchmark
+  public CalculationResultMap stateResults() {
+    CalculationResultMap ret = new CalculationResultMap();
+    for (Integer ptId : newPatients) {
+      ret.put(ptId, new SimpleResult(OccurenceStates.NEW, null));
+    }
+    for (Integer ptId : revisits) {
+      ret.put(ptId, new SimpleResult(OccurenceStates.REVISIT, null));
+    }
+    return ret;
+  }
+
+  @Benchmark
+  public CalculationResultMap booleanResults() {
+    CalculationResultMap ret = new CalculationResultMap();
+    for (Integer ptId : cohort) {
+      ret.put(ptId, new BooleanResult(revisits.contains(ptId), null));
+    }
+    return ret;
+  }
+
+  @Benchmark
+  public CalculationResultMap booleanResultMap() {
+    return BooleanResultMap.of(cohort, revisits, null, null);
+  }
+}
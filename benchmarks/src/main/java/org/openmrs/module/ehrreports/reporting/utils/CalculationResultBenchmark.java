@@ -0,0 +1,93 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.ehrreports.reporting.utils;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openmrs.module.ehrreports.benchmarks.SyntheticCohorts;
+
+/**
+ * {@link EhrCalculationUtils#toCalculationResult} over a cohort of reporting values, the conversion
+ * every batched data definition goes through
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class CalculationResultBenchmark {
+
+  @Param({"10000", "100000", "1000000"})
+  public int size;
+
+  private Boolean[] booleans;
+
+  private Date[] dates;
+
+  private List<List<Date>> dateLists;
+
+  @Setup
+  public void setUp() {
+    boolean[] values = SyntheticCohorts.booleans(size, 0.5);
+    booleans = new Boolean[size];
+    for (int i = 0; i < size; i++) {
+      booleans[i] = values[i];
+    }
+    dates = SyntheticCohorts.dates(size);
+    dateLists = new ArrayList<List<Date>>(size);
+    for (int i = 0; i < size; i++) {
+      List<Date> list = new ArrayList<Date>(3);
+      for (int j = 0; j < 3; j++) {
+        list.add(dates[(i + j) % size]);
+      }
+      dateLists.add(list);
+    }
+  }
+
+  @Benchmark
+  public void booleans(Blackhole bh) {
+    for (Boolean value : booleans) {
+      bh.consume(EhrCalculationUtils.toCalculationResult(value, null, null));
+    }
+  }
+
+  @Benchmark
+  public void dates(Blackhole bh) {
+    for (Date value : dates) {
+      bh.consume(EhrCalculationUtils.toCalculationResult(value, null, null));
+    }
+  }
+
+  @Benchmark
+  public void dateLists(Blackhole bh) {
+    for (List<Date> value : dateLists) {
+      bh.consume(EhrCalculationUtils.toCalculationResult(value, null, null));
+    }
+  }
+}
@@ -0,0 +1,114 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.ehrreports.reporting.utils;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openmrs.module.ehrreports.benchmarks.SyntheticCohorts;
+
+/**
+ * The date helpers of {@link EhrCalculationUtils} and {@link EhrReportUtils} applied once per
+ * patient of a cohort
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class DateUtilsBenchmark {
+
+  @Param({"10000", "100000", "1000000"})
+  public int size;
+
+  private Date[] dates;
+
+  private Date startDate;
+
+  private Date endDate;
+
+  @Setup
+  public void setUp() {
+    dates = SyntheticCohorts.dates(size);
+    startDate = new Date(SyntheticCohorts.FROM + SyntheticCohorts.RANGE / 4);
+    endDate = new Date(SyntheticCohorts.FROM + SyntheticCohorts.RANGE / 2);
+  }
+
+  @Benchmark
+  public int dateBetween() {
+    int ret = 0;
+    for (Date date : dates) {
+      if (EhrCalculationUtils.dateBetween(startDate, endDate, date)) {
+        ret++;
+      }
+    }
+    return ret;
+  }
+
+  @Benchmark
+  public long daysSince() {
+    long ret = 0;
+    for (Date date : dates) {
+      ret += EhrCalculationUtils.daysSince(date, endDate);
+    }
+    return ret;
+  }
+
+  @Benchmark
+  public long monthsSince() {
+    long ret = 0;
+    for (Date date : dates) {
+      ret += EhrCalculationUtils.monthsSince(date, endDate);
+    }
+    return ret;
+  }
+
+  @Benchmark
+  public long addDays() {
+    long ret = 0;
+    for (Date date : dates) {
+      ret += EhrCalculationUtils.addDays(date, 28).getTime();
+    }
+    return ret;
+  }
+
+  @Benchmark
+  public long addMonths() {
+    long ret = 0;
+    for (Date date : dates) {
+      ret += EhrCalculationUtils.addMonths(date, -6).getTime();
+    }
+    return ret;
+  }
+
+  @Benchmark
+  public long formatDate() {
+    long ret = 0;
+    for (Date date : dates) {
+      ret += EhrReportUtils.formatDate(date).length();
+    }
+    return ret;
+  }
+}
@@ -0,0 +1,67 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.ehrreports.reporting.utils;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openmrs.Location;
+import org.openmrs.module.reporting.cohort.definition.SqlCohortDefinition;
+import org.openmrs.module.reporting.evaluation.parameter.Parameter;
+
+/** The parameter mapping helpers of {@link EhrReportUtils}, run for every indicator of a report */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ParameterMappingsBenchmark {
+
+  private static final String DATES = "startDate=${startDate},endDate=${endDate}";
+
+  private static final String LOCATION = "endDate=${endDate},location=${location}";
+
+  private static final String ALL =
+      "startDate=${startDate},endDate=${endDate},location=${location},onOrBefore=${endDate}";
+
+  private SqlCohortDefinition definition;
+
+  @Setup
+  public void setUp() {
+    definition = new SqlCohortDefinition();
+    definition.addParameter(new Parameter("startDate", "Start Date", Date.class));
+    definition.addParameter(new Parameter("endDate", "End Date", Date.class));
+    definition.addParameter(new Parameter("location", "Location", Location.class));
+  }
+
+  @Benchmark
+  public String mergeParameterMappings() {
+    return EhrReportUtils.mergeParameterMappings(DATES, LOCATION);
+  }
+
+  @Benchmark
+  public String removeMissingParameterMappings() {
+    return EhrReportUtils.removeMissingParameterMappingsFromCohortDefintion(definition, ALL);
+  }
+}
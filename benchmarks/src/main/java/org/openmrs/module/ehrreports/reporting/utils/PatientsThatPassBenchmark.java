@@ -0,0 +1,118 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.ehrreports.reporting.utils;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openmrs.calculation.result.CalculationResultMap;
+import org.openmrs.calculation.result.SimpleResult;
+import org.openmrs.module.ehrreports.benchmarks.SyntheticCohorts;
+import org.openmrs.module.ehrreports.reporting.calculation.BooleanResult;
+import org.openmrs.module.ehrreports.reporting.calculation.BooleanResultMap;
+import org.openmrs.module.ehrreports.reporting.calculation.CalculationWithResultFinder;
+import org.openmrs.module.ehrreports.reporting.calculation.DateResultMap;
+import org.openmrs.module.reporting.evaluation.EvaluationContext;
+
+/**
+ * {@link EhrCalculationUtils#patientsThatPass} on boolean and date results, held both in a plain
+ * result map and in the primitive result maps
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class PatientsThatPassBenchmark {
+
+  @Param({"10000", "100000", "1000000"})
+  public int size;
+
+  private CalculationResultMap booleanResults;
+
+  private BooleanResultMap booleanResultMap;
+
+  private CalculationResultMap dateResults;
+
+  private DateResultMap dateResultMap;
+
+  private EvaluationContext context;
+
+  @Setup
+  public void setUp() {
+    List<Integer> cohort = SyntheticCohorts.cohort(size);
+    boolean[] booleans = SyntheticCohorts.booleans(size, 0.3);
+    Date[] dates = SyntheticCohorts.dates(size);
+
+    booleanResults = new CalculationResultMap();
+    booleanResultMap = new BooleanResultMap(null, null);
+    dateResults = new CalculationResultMap();
+    dateResultMap = new DateResultMap(cohort, null, null);
+    for (int i = 0; i < size; i++) {
+      Integer ptId = cohort.get(i);
+      booleanResults.put(ptId, new BooleanResult(booleans[i], null));
+      booleanResultMap.put(ptId.intValue(), booleans[i]);
+      dateResults.put(ptId, new SimpleResult(dates[i], null));
+      dateResultMap.put(ptId.intValue(), dates[i]);
+    }
+
+    context = new EvaluationContext();
+    context.addParameterValue("startDate", new Date(SyntheticCohorts.FROM));
+    context.addParameterValue(
+        "endDate", new Date(SyntheticCohorts.FROM + SyntheticCohorts.RANGE / 2));
+  }
+
+  @Benchmark
+  public Set<Integer> booleanResults() {
+    return EhrCalculationUtils.patientsThatPass(
+        booleanResults, null, CalculationWithResultFinder.DEFAULT, context);
+  }
+
+  @Benchmark
+  public Set<Integer> booleanResultMap() {
+    return EhrCalculationUtils.patientsThatPass(
+        booleanResultMap, null, CalculationWithResultFinder.DEFAULT, context);
+  }
+
+  @Benchmark
+  public Set<Integer> requiredFalseResults() {
+    return EhrCalculationUtils.patientsThatPass(
+        booleanResults, Boolean.FALSE, CalculationWithResultFinder.DEFAULT, context);
+  }
+
+  @Benchmark
+  public Set<Integer> dateOutsideResults() {
+    return EhrCalculationUtils.patientsThatPass(
+        dateResults, null, CalculationWithResultFinder.DATE_OUTSIDE, context);
+  }
+
+  @Benchmark
+  public Set<Integer> dateOutsideResultMap() {
+    return EhrCalculationUtils.patientsThatPass(
+        dateResultMap, null, CalculationWithResultFinder.DATE_OUTSIDE, context);
+  }
+}
@@ -0,0 +1,29 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.ehrreports.page.controller;
+
+import org.openmrs.api.context.Context;
+import org.openmrs.module.ehrreports.reporting.calculation.EvaluationBatchSizeController;
+import org.openmrs.ui.framework.page.PageModel;
+
+/** Shows the latest batch sizes picked for the calculation evaluations */
+public class BatchSizesPageController {
+
+  public void get(PageModel model) {
+    Context.requirePrivilege("Manage Reports");
+    model.addAttribute(
+        "decisions",
+        Context.getRegisteredComponents(EvaluationBatchSizeController.class).get(0).getDecisions());
+  }
+}
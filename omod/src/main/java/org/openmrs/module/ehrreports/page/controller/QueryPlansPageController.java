@@ -0,0 +1,37 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.ehrreports.page.controller;
+
+import java.util.List;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.ehrreports.reporting.library.queries.ReportQueryAdvisor;
+import org.openmrs.ui.framework.page.PageModel;
+
+/** Shows the execution plans of the report queries, flagging full table scans */
+public class QueryPlansPageController {
+
+  public void get(PageModel model) {
+    Context.requirePrivilege("Manage Reports");
+    List<ReportQueryAdvisor.TableAccess> accesses =
+        Context.getRegisteredComponents(ReportQueryAdvisor.class).get(0).checkRegisteredQueries();
+    int fullScans = 0;
+    for (ReportQueryAdvisor.TableAccess access : accesses) {
+      if (access.isFullScan()) {
+        fullScans++;
+      }
+    }
+    model.addAttribute("accesses", accesses);
+    model.addAttribute("fullScans", fullScans);
+  }
+}
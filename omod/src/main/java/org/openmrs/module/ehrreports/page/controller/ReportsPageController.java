@@ -0,0 +1,31 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.ehrreports.page.controller;
+
+import org.openmrs.module.ehrreports.reporting.EhrReportInitializer;
+import org.openmrs.module.ehrreports.reporting.EhrReportInitializer.RegistrationState;
+import org.openmrs.ui.framework.page.PageModel;
+
+/** The reports home page, with the progress of the report registration */
+public class ReportsPageController {
+
+  public void get(PageModel model) {
+    RegistrationState state = EhrReportInitializer.getRegistrationState();
+    model.addAttribute("reportsReady", state == RegistrationState.READY);
+    model.addAttribute("reportsFailed", state == RegistrationState.FAILED);
+    model.addAttribute("registeredReports", EhrReportInitializer.getRegisteredCount());
+    model.addAttribute("reportCount", EhrReportInitializer.getReportCount());
+    model.addAttribute("registrationFailures", EhrReportInitializer.getFailures());
+  }
+}